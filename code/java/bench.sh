@@ -0,0 +1,18 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Runs the JMH benchmarks in bench/src against a database created by create.sql, CsvLoader and SchemaMigrator.
+# JMH_HOME must hold the jmh-core and jmh-generator-annprocess jars and their dependencies
+# (jopt-simple, commons-math3). Extra arguments are passed to JMH, e.g. a benchmark name filter.
+# Example: source ./bench.sh benchDB 5432 user ReportBenchmark
+JMH_HOME=${JMH_HOME:-lib/jmh}
+
+rm -rf bench/classes
+mkdir -p bench/classes bench/results
+javac -cp "lib/*:$JMH_HOME/*" -sourcepath src/ -d bench/classes \
+	src/MechanicShop.java $(find bench/src -name "*.java")
+java -cp "bench/classes:lib/*:$JMH_HOME/*" org.openjdk.jmh.Main \
+	-rf json -rff bench/results/results.json \
+	-jvmArgsAppend "-Dbench.db=$DBNAME -Dbench.port=$PORT -Dbench.user=$USER" "${@:4}"
@@ -0,0 +1,49 @@
+package mechanicshop.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Connection settings and data scaling shared by the benchmarks. The
+ * database must be created by create.sql, loaded by CsvLoader and migrated
+ * by SchemaMigrator; bench.sh passes its name, port and user as the
+ * bench.db, bench.port and bench.user system properties.
+ */
+final class BenchDatabase {
+    //history rows copied for scale n get ids offset by n * ID_STRIDE, far above the ids in code/data
+    static final int ID_STRIDE = 1_000_000;
+
+    private BenchDatabase() {
+    }
+
+    static ShopHandle connect() throws Throwable {
+        //the shop methods report progress on stdout, which would swamp the JMH output
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return new ShopHandle(
+                System.getProperty("bench.db", "postgres"),
+                System.getProperty("bench.port", "5432"),
+                System.getProperty("bench.user", "postgres"));
+    }
+
+    /**
+     * Grows Service_Request and Closed_Request to scale times the rows of
+     * code/data by copying the original history with shifted ids, after
+     * removing copies left by an earlier run.
+     */
+    static void scaleHistory(ShopHandle shop, int scale) throws Throwable {
+        shop.executeUpdate("DELETE FROM Closed_Request WHERE wid >= ?", ID_STRIDE);
+        shop.executeUpdate("DELETE FROM Service_Request WHERE rid >= ?", ID_STRIDE);
+        if (scale > 1) {
+            shop.executeUpdate("INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) "
+                    + "SELECT rid + n * ?, customer_id, car_vin, date, odometer, complain "
+                    + "FROM Service_Request, generate_series(1, ?) AS n WHERE rid < ?",
+                    ID_STRIDE, scale - 1, ID_STRIDE);
+            shop.executeUpdate("INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) "
+                    + "SELECT wid + n * ?, rid + n * ?, mid, date, comment, bill "
+                    + "FROM Closed_Request, generate_series(1, ?) AS n WHERE wid < ?",
+                    ID_STRIDE, ID_STRIDE, scale - 1, ID_STRIDE);
+        }
+        shop.executeUpdate("ANALYZE Service_Request");
+        shop.executeUpdate("ANALYZE Closed_Request");
+    }
+}
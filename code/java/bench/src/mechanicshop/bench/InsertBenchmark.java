@@ -0,0 +1,112 @@
+package mechanicshop.bench;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the single-row Add* and InsertServiceRequest paths and the
+ * throughput of the batched service request ingestion. Every row written
+ * is tagged (first name "Bench", VINs starting with "BENCH", rids at or
+ * above BenchDatabase.ID_STRIDE) and removed again after the trial.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class InsertBenchmark {
+    private static final int BATCH_ROWS = 5000;
+
+    @State(Scope.Benchmark)
+    public static class Shop {
+        ShopHandle shop;
+        int nextVin;
+        int nextRid;
+
+        @Setup(Level.Trial)
+        public void connect() throws Throwable {
+            shop = BenchDatabase.connect();
+            BenchDatabase.scaleHistory(shop, 1);
+            nextRid = BenchDatabase.ID_STRIDE;
+        }
+
+        @TearDown(Level.Trial)
+        public void cleanup() throws Throwable {
+            shop.executeUpdate("DELETE FROM Service_Request WHERE rid >= ?", BenchDatabase.ID_STRIDE);
+            shop.executeUpdate("DELETE FROM Car WHERE vin LIKE 'BENCH%'");
+            shop.executeUpdate("DELETE FROM Customer WHERE fname = 'Bench'");
+            shop.executeUpdate("DELETE FROM Mechanic WHERE fname = 'Bench'");
+            shop.cleanup();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Batch {
+        @Param({"100", "1000", "5000"})
+        int chunkSize;
+
+        List<Object> rows;
+
+        @Setup(Level.Invocation)
+        public void prepare(Shop state) throws Throwable {
+            Timestamp date = Timestamp.valueOf("2020-01-01 00:00:00");
+            rows = new ArrayList<>(BATCH_ROWS);
+            for (int i = 0; i < BATCH_ROWS; i++) {
+                rows.add(state.shop.newServiceRequest(state.nextRid++, 0, "XEGUBS7780168971", date, 1000 + i, "Bench"));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addCustomer(Shop state) throws Throwable {
+        state.shop.addCustomer("Bench", "O'Connor", "(555)555-0100", "1 Bench Street");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addMechanic(Shop state) throws Throwable {
+        state.shop.addMechanic("Bench", "Mechanic", "5");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void addCar(Shop state) throws Throwable {
+        state.shop.addCar(String.format("BENCH%011d", state.nextVin++), "Toyota", "Prius", "2012");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void insertServiceRequest(Shop state) throws Throwable {
+        state.shop.insertServiceRequest(Integer.toString(state.nextRid++), "0", "XEGUBS7780168971",
+                LocalDate.of(2020, 1, 1), "1000", "Bench");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH_ROWS)
+    public Object insertServiceRequestsBatched(Shop state, Batch batch) throws Throwable {
+        return state.shop.insertServiceRequests(batch.rows, batch.chunkSize);
+    }
+}
@@ -0,0 +1,93 @@
+package mechanicshop.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Average time of the five reports with the service history of code/data
+ * copied 1, 10 and 100 times, and the cost of materializing the same
+ * result as List&lt;List&lt;String&gt;&gt;, as a ResultTable, or not at all
+ * through a streaming cursor.
+ */
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReportBenchmark {
+    //the report with the largest result: a plain filter over Closed_Request
+    private static final String MATERIALIZE_SQL = "SELECT date, comment, bill FROM Closed_Request CR WHERE CR.bill < 100 ";
+
+    @State(Scope.Benchmark)
+    public static class Shop {
+        @Param({"1", "10", "100"})
+        int scale;
+
+        ShopHandle shop;
+
+        @Setup(Level.Trial)
+        public void connect() throws Throwable {
+            shop = BenchDatabase.connect();
+            BenchDatabase.scaleHistory(shop, scale);
+        }
+
+        @TearDown(Level.Trial)
+        public void cleanup() throws Throwable {
+            BenchDatabase.scaleHistory(shop, 1);
+            shop.cleanup();
+        }
+    }
+
+    @Benchmark
+    public Object customersWithBillLessThan100(Shop state) throws Throwable {
+        return state.shop.report(1);
+    }
+
+    @Benchmark
+    public Object customersWithMoreThan20Cars(Shop state) throws Throwable {
+        return state.shop.report(2);
+    }
+
+    @Benchmark
+    public Object carsBefore1995With50000Miles(Shop state) throws Throwable {
+        return state.shop.report(3);
+    }
+
+    @Benchmark
+    public Object kCarsWithTheMostServices(Shop state) throws Throwable {
+        return state.shop.report(4);
+    }
+
+    @Benchmark
+    public Object customersByTotalBill(Shop state) throws Throwable {
+        return state.shop.report(5);
+    }
+
+    @Benchmark
+    public Object materializeAsStringLists(Shop state) throws Throwable {
+        return state.shop.executeQueryAndReturnResult(MATERIALIZE_SQL);
+    }
+
+    @Benchmark
+    public Object materializeAsResultTable(Shop state) throws Throwable {
+        return state.shop.executeQueryAndReturnTable(MATERIALIZE_SQL);
+    }
+
+    @Benchmark
+    public long streamWithoutMaterializing(Shop state) throws Throwable {
+        return state.shop.streamAndCount(MATERIALIZE_SQL, 1000);
+    }
+}
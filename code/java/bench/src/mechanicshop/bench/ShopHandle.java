@@ -0,0 +1,133 @@
+package mechanicshop.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Typed access to MechanicShop for the benchmarks. JMH only generates code
+ * for benchmarks in a named package, and a named package cannot refer to
+ * the classes of the default package where MechanicShop lives, so its
+ * methods are bound once through method handles. Calls through a bound
+ * handle cost the same as a direct call after JIT compilation.
+ */
+public final class ShopHandle {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private final Object shop;
+    private final Class<?> shopClass;
+    private final MethodHandle cleanup;
+    private final MethodHandle addCustomer;
+    private final MethodHandle addMechanic;
+    private final MethodHandle addCar;
+    private final MethodHandle insertServiceRequest;
+    private final MethodHandle insertServiceRequests;
+    private final MethodHandle newServiceRequest;
+    private final MethodHandle executeUpdate;
+    private final MethodHandle executeQueryAndReturnResult;
+    private final MethodHandle executeQueryAndReturnTable;
+    private final MethodHandle streamQuery;
+    private final MethodHandle[] reports;
+
+    public ShopHandle(String dbname, String port, String user) throws Throwable {
+        shopClass = Class.forName("MechanicShop");
+        Class<?> serviceRequestClass = Class.forName("ServiceRequest");
+        Class<?> resultTableClass = Class.forName("ResultTable");
+        Class<?> bulkResultClass = Class.forName("BulkResult");
+
+        shop = LOOKUP.findConstructor(shopClass, MethodType.methodType(void.class,
+                String.class, String.class, String.class, String.class))
+                .invoke(dbname, port, user, "password");
+
+        cleanup = virtual("cleanup", void.class);
+        addCustomer = LOOKUP.findStatic(shopClass, "AddCustomer", MethodType.methodType(void.class,
+                shopClass, String.class, String.class, String.class, String.class));
+        addMechanic = LOOKUP.findStatic(shopClass, "AddMechanic", MethodType.methodType(void.class,
+                shopClass, String.class, String.class, String.class));
+        addCar = LOOKUP.findStatic(shopClass, "AddCar", MethodType.methodType(void.class,
+                shopClass, String.class, String.class, String.class, String.class));
+        insertServiceRequest = LOOKUP.findStatic(shopClass, "InsertServiceRequest", MethodType.methodType(void.class,
+                shopClass, String.class, String.class, String.class, LocalDate.class, String.class, String.class));
+        insertServiceRequests = virtual("insertServiceRequests", bulkResultClass, Iterable.class, int.class);
+        newServiceRequest = LOOKUP.findConstructor(serviceRequestClass, MethodType.methodType(void.class,
+                int.class, int.class, String.class, Timestamp.class, int.class, String.class));
+        executeUpdate = virtual("executeUpdate", int.class, String.class, Object[].class);
+        executeQueryAndReturnResult = virtual("executeQueryAndReturnResult", List.class, String.class, Object[].class);
+        executeQueryAndReturnTable = virtual("executeQueryAndReturnTable", resultTableClass, String.class, Object[].class);
+        streamQuery = virtual("streamQuery", Stream.class, String.class, int.class, Object[].class);
+
+        reports = new MethodHandle[] {
+            LOOKUP.findStatic(shopClass, "ListCustomersWithBillLessThan100", MethodType.methodType(resultTableClass, shopClass)),
+            LOOKUP.findStatic(shopClass, "ListCustomersWithMoreThan20Cars", MethodType.methodType(resultTableClass, shopClass)),
+            LOOKUP.findStatic(shopClass, "ListCarsBefore1995With50000Milles", MethodType.methodType(resultTableClass, shopClass)),
+            MethodHandles.insertArguments(LOOKUP.findStatic(shopClass, "ListKCarsWithTheMostServices",
+                    MethodType.methodType(resultTableClass, shopClass, int.class)), 1, 10),
+            LOOKUP.findStatic(shopClass, "ListCustomersInDescendingOrderOfTheirTotalBill", MethodType.methodType(resultTableClass, shopClass)),
+        };
+    }
+
+    private MethodHandle virtual(String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return LOOKUP.findVirtual(shopClass, name, MethodType.methodType(returnType, parameterTypes));
+    }
+
+    public void addCustomer(String fname, String lname, String phone, String address) throws Throwable {
+        addCustomer.invoke(shop, fname, lname, phone, address);
+    }
+
+    public void addMechanic(String fname, String lname, String experience) throws Throwable {
+        addMechanic.invoke(shop, fname, lname, experience);
+    }
+
+    public void addCar(String vin, String make, String model, String year) throws Throwable {
+        addCar.invoke(shop, vin, make, model, year);
+    }
+
+    public void insertServiceRequest(String rid, String cid, String vin, LocalDate date, String odometer, String complain) throws Throwable {
+        insertServiceRequest.invoke(shop, rid, cid, vin, date, odometer, complain);
+    }
+
+    public Object newServiceRequest(int rid, int customerId, String vin, Timestamp date, int odometer, String complain) throws Throwable {
+        return newServiceRequest.invoke(rid, customerId, vin, date, odometer, complain);
+    }
+
+    public Object insertServiceRequests(Iterable<?> rows, int chunkSize) throws Throwable {
+        return insertServiceRequests.invoke(shop, rows, chunkSize);
+    }
+
+    public int executeUpdate(String sql, Object... params) throws Throwable {
+        return (int) executeUpdate.invoke(shop, sql, params);
+    }
+
+    public List<?> executeQueryAndReturnResult(String sql, Object... params) throws Throwable {
+        return (List<?>) executeQueryAndReturnResult.invoke(shop, sql, params);
+    }
+
+    public Object executeQueryAndReturnTable(String sql, Object... params) throws Throwable {
+        return executeQueryAndReturnTable.invoke(shop, sql, params);
+    }
+
+    /**
+     * Streams a query through a server-side cursor and counts its rows
+     * without keeping them.
+     */
+    public long streamAndCount(String sql, int fetchSize, Object... params) throws Throwable {
+        try (Stream<?> rows = (Stream<?>) streamQuery.invoke(shop, sql, fetchSize, params)) {
+            return rows.count();
+        }
+    }
+
+    /**
+     * Runs one of the five reports, numbered 1 to 5 as on the App home screen.
+     */
+    public Object report(int number) throws Throwable {
+        return reports[number - 1].invoke(shop);
+    }
+
+    public void cleanup() throws Throwable {
+        cleanup.invoke(shop);
+    }
+}
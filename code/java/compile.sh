@@ -1,3 +1,3 @@
 #! /bin/bash
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/MechanicShop.java -d bin/
+javac -cp ".:lib/postgresql-42.1.4.jar" -sourcepath src/ src/MechanicShop.java src/CsvLoader.java src/SchemaMigrator.java src/LoadDriver.java src/SnapshotEngine.java src/ShopServer.java src/BatchRunner.java src/ReportExporter.java src/WriteBehindQueue.java -d bin/
@@ -2,6 +2,9 @@
 DBNAME=$1
 PORT=$2
 USER=$3
+SCRIPT=$4
 
-# Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# Runs the commands of SCRIPT, or those typed on standard input; see src/BatchRunner.java.
+# JAVA_OPTS=-Dmechanicshop.batch.group=N runs every N commands in one transaction.
+# Example: source ./run.sh flightDB 5432 user nightly.txt
+java $JAVA_OPTS -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER $SCRIPT
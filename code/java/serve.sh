@@ -0,0 +1,10 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+HTTP_PORT=${4:-8080}
+
+# Serves the shop operations as JSON over HTTP, see src/ShopServer.java. Stop with Ctrl-C.
+# Example: source ./serve.sh flightDB 5432 user 8080
+# Load test from the same box, e.g.: wrk -t4 -c64 -d30s http://localhost:8080/reports/customers-with-more-than-20-cars
+java -cp lib/*:bin/ ShopServer $DBNAME $PORT $USER $HTTP_PORT
@@ -0,0 +1,11 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+K=${4:-10}
+
+# Differential check of the in-memory snapshot: compares the five reports of src/SnapshotEngine.java with the
+# database, as loaded and after writes that are rolled back. Exits with 1 when a report disagrees, so it can
+# gate a change to SnapshotEngine or the report SQL. Run ./compile.sh first.
+# Example: source ./snapshot-check.sh flightDB 5432 user 10
+java $JAVA_OPTS -cp lib/*:bin/ SnapshotEngine $DBNAME $PORT $USER $K
@@ -1,34 +1,25 @@
 import javafx.application.Application;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.beans.value.ObservableValue;
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import javafx.util.Callback;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class App extends Application {
     private Stage mainStage;
-    private static MechanicShop mechanicShop;
-    static {
-        try {
-            mechanicShop = new MechanicShop("postgres", "5432", "postgres", "password");
-        } catch (SQLException throwables) {
-            throwables.printStackTrace();
-        }
-    }
+    // connects in the background; operations submitted before the pool is open wait for it
+    private static final AsyncMechanicShop shop = new AsyncMechanicShop("postgres", "5432", "postgres", "password");
 
     public static void main(String[] args) {
         launch(args);
@@ -42,6 +33,11 @@ public class App extends Application {
         primaryStage.show();
     }
 
+    @Override
+    public void stop() {
+        shop.shutdown();
+    }
+
     private static GridPane setNewGrid() {
         GridPane grid = new GridPane();
         grid.setPadding(new Insets(25, 25, 25, 25));
@@ -108,6 +104,10 @@ public class App extends Application {
         btn10.setOnAction(event -> queryView(5, -1, "Customers in descending order of their total bill"));
         grid.add(btn10, 0, 11, 1, 1);
 
+        Button btn11 = new Button("FIND CUSTOMER BY LAST NAME");
+        btn11.setOnAction(event -> findCustomerView());
+        grid.add(btn11, 0, 12, 1, 1);
+
         Scene scene = new Scene(grid, 400, 600);
         mainStage.setScene(scene);
     }
@@ -135,13 +135,13 @@ public class App extends Application {
         TextField phoneTextField = getTextField(grid, "Phone Number:", 3, "([1-9][0-9]*)?");
         TextField addressTextField = getTextField(grid, "Address:", 4, ".*");
         Button btn = new Button("ADD CUSTOMER");
-        btn.setOnAction(event -> MechanicShop.AddCustomer(mechanicShop,
+        btn.setOnAction(event -> runInBackground(grid, 7, shop.addCustomer(
                 //idTextField.getText(),
                 fnameTextField.getText(),
                 lnameTextField.getText(),
                 phoneTextField.getText(),
                 addressTextField.getText()
-        ));
+        ), done -> {}));
         grid.add(btn, 0, 6, 1, 1);
         grid.add(backButton(), 1, 6, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
@@ -156,12 +156,12 @@ public class App extends Application {
         TextField lnameTextField = getTextField(grid, "Last Name:", 2, "[A-Za-z ]*");
         TextField experienceTextField = getTextField(grid, "Years of Experience:", 3, "([0-9]*)?");
         Button btn = new Button("ADD MECHANIC");
-        btn.setOnAction(event -> MechanicShop.AddMechanic(mechanicShop,
+        btn.setOnAction(event -> runInBackground(grid, 7, shop.addMechanic(
                 //idTextField.getText(),
                 fnameTextField.getText(),
                 lnameTextField.getText(),
                 experienceTextField.getText()
-        ));
+        ), done -> {}));
         grid.add(btn, 0, 6, 1, 1);
         grid.add(backButton(), 1, 6, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
@@ -176,12 +176,12 @@ public class App extends Application {
         TextField modelTextField = getTextField(grid, "Model:", 3, "[A-Za-z ]*");
         TextField yearTextField = getTextField(grid, "Year (> 1970):", 4, "([0-9]*)?");
         Button btn = new Button("ADD CAR");
-        btn.setOnAction(event -> MechanicShop.AddCar(mechanicShop,
+        btn.setOnAction(event -> runInBackground(grid, 7, shop.addCar(
                 vinTextField.getText(),
                 makeTextField.getText(),
                 modelTextField.getText(),
                 yearTextField.getText()
-        ));
+        ), done -> {}));
         grid.add(btn, 0, 6, 1, 1);
         grid.add(backButton(), 1, 6, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
@@ -191,7 +191,7 @@ public class App extends Application {
     private void addServiceRequestView() {
         GridPane grid = setNewGrid();
         setSceneTitle(grid, "INPUT SERVICE REQUEST INFO", 2);
-        TextField ridTextField = getTextField(grid, "Service Request ID:", 1, "([0-9]*)?");
+        TextField ridTextField = getTextField(grid, "Service Request ID (blank for next):", 1, "([0-9]*)?");
         TextField cidTextField = getTextField(grid, "Customer ID:", 2, "([0-9]*)?");
         TextField vinTextField = getTextField(grid, "VIN:", 3, "([0-9A-Za-z]*)?");
 
@@ -203,14 +203,14 @@ public class App extends Application {
         TextField odometerTextField = getTextField(grid, "Odometer Reading:", 5, "([0-9]*)?");
         TextField complainTextField = getTextField(grid, "Complain/Problem:", 6, "[A-Za-z ]*");
         Button btn = new Button("ADD SERVICE REQUEST");
-        btn.setOnAction(event -> MechanicShop.InsertServiceRequest(mechanicShop,
+        btn.setOnAction(event -> runInBackground(grid, 8, shop.insertServiceRequest(
                 ridTextField.getText(),
                 cidTextField.getText(),
                 vinTextField.getText(),
                 datePicker.getValue(),
                 odometerTextField.getText(),
                 complainTextField.getText()
-        ));
+        ), done -> {}));
         grid.add(btn, 0, 7, 1, 1);
         grid.add(backButton(), 1, 7, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
@@ -220,7 +220,7 @@ public class App extends Application {
     private void closeServiceRequestView() {
         GridPane grid = setNewGrid();
         setSceneTitle(grid, "CLOSE SERVICE REQUEST INFO", 2);
-        TextField widTextField = getTextField(grid, "Closed Service Request ID:", 1, "([0-9]*)?");
+        TextField widTextField = getTextField(grid, "Closed Service Request ID (blank for next):", 1, "([0-9]*)?");
         TextField ridTextField = getTextField(grid, "Service Request ID:", 2, "([0-9]*)?");
         TextField midTextField = getTextField(grid, "Mechanic ID:", 3, "([0-9]*)?");
 
@@ -232,20 +232,93 @@ public class App extends Application {
         TextField commentTextField = getTextField(grid, "Comments:", 5, "[A-Za-z ]*");
         TextField billTextField = getTextField(grid, "Total bill:", 6, "([0-9]*)?");
         Button btn = new Button("ADD CLOSED SERVICE REQUEST");
-        btn.setOnAction(event -> MechanicShop.CloseServiceRequest(mechanicShop,
+        btn.setOnAction(event -> runInBackground(grid, 8, shop.closeServiceRequest(
                 widTextField.getText(),
                 ridTextField.getText(),
                 midTextField.getText(),
                 commentTextField.getText(),
                 billTextField.getText(),
                 datePicker.getValue()
-        ));
+        ), done -> {}));
         grid.add(btn, 0, 7, 1, 1);
         grid.add(backButton(), 1, 7, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
         mainStage.setScene(scene);
     }
 
+    /**
+     * Shows a spinner, status text and cancel button in the given grid row
+     * while the task runs, then hands its result to onSuccess on the FX thread.
+     */
+    private <T> void runInBackground(GridPane grid, int row, AsyncMechanicShop.ShopTask<T> task, Consumer<T> onSuccess) {
+        ProgressIndicator progress = new ProgressIndicator();
+        progress.setPrefSize(24, 24);
+        Label status = new Label("Working...");
+        Button cancelBtn = new Button("CANCEL");
+        cancelBtn.setOnAction(event -> task.cancel(true));
+        HBox box = new HBox(10, progress, status, cancelBtn);
+        box.setAlignment(Pos.CENTER_LEFT);
+        grid.add(box, 0, row, 3, 1);
+        task.whenComplete((result, error) -> Platform.runLater(() -> {
+            box.getChildren().removeAll(progress, cancelBtn);
+            if (task.isCancelled()) {
+                status.setText("Cancelled");
+            } else if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                status.setText("Failed: " + cause.getMessage());
+            } else {
+                status.setText("Done");
+                onSuccess.accept(result);
+            }
+        }));
+    }
+
+    /**
+     * Looks the customers up as the last name is typed. Only the answer to the
+     * latest text is shown; the lookup of text typed over is cancelled.
+     */
+    private void findCustomerView() {
+        GridPane grid = setNewGrid();
+        setSceneTitle(grid, "FIND CUSTOMER", 2);
+        TextField lnameTextField = getTextField(grid, "Last Name:", 1, "[A-Za-z' -]*");
+        Label status = new Label("");
+        grid.add(status, 0, 2, 3, 1);
+        List<AsyncMechanicShop.ShopTask<ResultTable>> pending = new ArrayList<>();
+        List<TableView<Integer>> shown = new ArrayList<>();
+        lnameTextField.textProperty().addListener((observable, before, text) -> {
+            pending.forEach(task -> task.cancel(true));
+            pending.clear();
+            if (text.trim().isEmpty()) {
+                grid.getChildren().removeAll(shown);
+                shown.clear();
+                status.setText("");
+                return;
+            }
+            long start = System.nanoTime();
+            AsyncMechanicShop.ShopTask<ResultTable> task = shop.findCustomersByLastName(text);
+            pending.add(task);
+            task.whenComplete((result, error) -> Platform.runLater(() -> {
+                if (!pending.remove(task) || task.isCancelled()) {
+                    return;
+                }
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    status.setText("Failed: " + cause.getMessage());
+                    return;
+                }
+                grid.getChildren().removeAll(shown);
+                shown.clear();
+                TableView<Integer> table = ResultTableView.create(result);
+                shown.add(table);
+                grid.add(table, 0, 3, 3, 1);
+                status.setText(String.format("%d rows in %.1f ms", result.getRowCount(), (System.nanoTime() - start) / 1e6));
+            }));
+        });
+        grid.add(backButton(), 1, 4, 2, 1);
+        Scene scene = new Scene(grid, 800, 600);
+        mainStage.setScene(scene);
+    }
+
     private void queryView(int query, int k, String queryString) {
         GridPane grid = setNewGrid();
         setSceneTitle(grid, "RESULT", 2);
@@ -253,42 +326,16 @@ public class App extends Application {
         queryTitle.setFont(Font.font("Helvetica", FontWeight.SEMI_BOLD, 15));
         grid.add(queryTitle, 0, 1, 2, 1);
 
-        List<List<String>> result = new ArrayList<>();
-        try {
-            switch (query) {
-                case 1 -> result = MechanicShop.ListCustomersWithBillLessThan100(mechanicShop);
-                case 2 -> result = MechanicShop.ListCustomersWithMoreThan20Cars(mechanicShop);
-                case 3 -> result = MechanicShop.ListCarsBefore1995With50000Milles(mechanicShop);
-                case 4 -> result = MechanicShop.ListKCarsWithTheMostServices(mechanicShop, k);
-                case 5 -> result = MechanicShop.ListCustomersInDescendingOrderOfTheirTotalBill(mechanicShop);
-            }
-        } catch (SQLException throwables) {
-            throwables.printStackTrace();
-        }
-
-        String[][] resultArray = new String[result.size()][];
-        for (int i = 0; i < result.size(); i++) {
-            List<String> row = result.get(i);
-            resultArray[i] = row.toArray(new String[row.size()]);
-        }
-
-        ObservableList<String[]> data = FXCollections.observableArrayList();
-        data.addAll(Arrays.asList(resultArray));
-        TableView<String[]> table = new TableView<>();
-        for (int i = 0; i < resultArray[0].length; i++) {
-            TableColumn tc = new TableColumn(resultArray[0][i]);
-            final int colNo = i;
-            tc.setCellValueFactory(new Callback<TableColumn.CellDataFeatures<String[], String>, ObservableValue<String>>() {
-                @Override
-                public ObservableValue<String> call(TableColumn.CellDataFeatures<String[], String> p) {
-                    return new SimpleStringProperty((p.getValue()[colNo]));
-                }
-            });
-            tc.setPrefWidth(90);
-            table.getColumns().add(tc);
-        }
-        table.setItems(data);
-        grid.add(table, 1, 2, 2, 1);
+        PagedReport report = switch (query) {
+            case 1 -> MechanicShop.BILL_LESS_THAN_100_PAGES;
+            case 2 -> MechanicShop.MORE_THAN_20_CARS_PAGES;
+            case 3 -> MechanicShop.CARS_BEFORE_1995_PAGES;
+            case 4 -> MechanicShop.CARS_WITH_MOST_SERVICES_PAGES.limit(k);
+            default -> MechanicShop.TOTAL_BILL_DESC_PAGES;
+        };
+        // only the first page is read here; the rest follows as the table scrolls
+        runInBackground(grid, 4, shop.submit(esql -> report.open(esql, PagedTableView.PAGE_SIZE)),
+                first -> grid.add(PagedTableView.create(shop, report, first), 1, 2, 2, 1));
         grid.add(backButton(), 1, 3, 2, 1);
         Scene scene = new Scene(grid, 400, 600);
         mainStage.setScene(scene);
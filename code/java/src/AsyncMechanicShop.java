@@ -0,0 +1,284 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs MechanicShop operations on a dedicated executor and hands
+ * back CompletableFutures, so a caller such as the JavaFX thread never
+ * blocks on the database. The connection pool is opened in the background
+ * as soon as the object is created; operations submitted before it is ready
+ * simply wait for it. Cancelling a returned future also cancels the
+ * statement it is running on the server. With -Dmechanicshop.writeBehind
+ * new customers, cars and service requests go through the write-behind
+ * queue instead (see WriteBehindQueue): their futures complete once the
+ * batch holding them has committed.
+ *
+ */
+
+public class AsyncMechanicShop {
+	/**
+	 * An operation to run against the database handler.
+	 */
+	public interface ShopCall<T> {
+		T call(MechanicShop esql) throws SQLException;
+	}
+
+	/**
+	 * Future of a submitted operation. Cancelling it sends a cancel request
+	 * for the statement the operation is running, if any.
+	 */
+	public static final class ShopTask<T> extends CompletableFuture<T> {
+		private final Object _lock = new Object();
+		//guarded by _lock: the thread running the operation, cleared before that thread moves on to another one
+		private Thread _worker;
+		private MechanicShop _esql;
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				synchronized (this._lock) {
+					//while the lock is held the worker cannot finish and pick up another caller's statement
+					if (this._worker != null) {
+						this._esql.cancel(this._worker);
+					}
+				}
+			}
+			return cancelled;
+		}
+
+		private boolean start(MechanicShop esql) {
+			synchronized (this._lock) {
+				if (isDone()) {
+					return false;
+				}
+				this._esql = esql;
+				this._worker = Thread.currentThread();
+				return true;
+			}
+		}
+
+		private void finish() {
+			synchronized (this._lock) {
+				this._worker = null;
+				this._esql = null;
+			}
+		}
+	}
+
+	private final ExecutorService _executor;
+	private final CompletableFuture<MechanicShop> _shop;
+
+	/**
+	 * Starts connecting in the background and returns immediately.
+	 *
+	 * @param dbname the database name
+	 * @param dbport the database port
+	 * @param user the database user
+	 * @param passwd the database password
+	 */
+	public AsyncMechanicShop(String dbname, String dbport, String user, String passwd) {
+		AtomicInteger threads = new AtomicInteger();
+		//one worker per pooled connection; more would only queue inside the pool
+		this._executor = Executors.newFixedThreadPool(MechanicShop.DEFAULT_POOL_MAX, r -> {
+			Thread t = new Thread(r, "shop-db-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this._shop = CompletableFuture.supplyAsync(() -> {
+			try {
+				return new MechanicShop(dbname, dbport, user, passwd);
+			} catch (SQLException e) {
+				throw new CompletionException(e);
+			}
+		}, this._executor);
+	}
+
+	/**
+	 * Method to access the handler once it is connected.
+	 *
+	 * @return a future completed when the pool is open
+	 */
+	public CompletableFuture<MechanicShop> connection() {
+		return this._shop;
+	}
+
+	/**
+	 * Method to run an operation on the executor once the handler is
+	 * connected.
+	 *
+	 * @param call the operation
+	 * @return a cancellable future of its result
+	 */
+	public <T> ShopTask<T> submit(ShopCall<T> call) {
+		ShopTask<T> task = new ShopTask<>();
+		this._shop.whenComplete((esql, connectError) -> {
+			if (connectError != null) {
+				task.completeExceptionally(connectError);
+				return;
+			}
+			try {
+				this._executor.execute(() -> {
+					if (!task.start(esql)) {
+						return;
+					}
+					//the worker is cleared before completing, so callbacks run here are not cancelled with this task
+					T result;
+					try {
+						result = call.call(esql);
+					} catch (Throwable e) {
+						task.finish();
+						task.completeExceptionally(e);
+						return;
+					}
+					task.finish();
+					task.complete(result);
+				});
+			} catch (RuntimeException e) {
+				task.completeExceptionally(e);
+			}
+		});
+		return task;
+	}
+
+	/*
+	 * Queues a write on the write-behind queue from the executor, or runs it directly when the queue is off;
+	 * the task completes once the write is committed.
+	 */
+	private <T> ShopTask<T> writeBehind(ShopCall<CompletableFuture<T>> queued, ShopCall<T> direct) {
+		ShopTask<T> task = new ShopTask<>();
+		ShopTask<CompletableFuture<T>> submitted = submit(esql -> esql.getWriteBehind() != null ? queued.call(esql)
+				: CompletableFuture.completedFuture(direct.call(esql)));
+		submitted.whenComplete((write, error) -> {
+			if (error != null) {
+				task.completeExceptionally(error);
+				return;
+			}
+			write.whenComplete((result, writeError) -> {
+				if (writeError != null) {
+					task.completeExceptionally(writeError);
+				} else {
+					task.complete(result);
+				}
+			});
+			//a cancel that comes once the write is queued drops it, if the flusher has not taken it yet
+			task.whenComplete((result, taskError) -> {
+				if (task.isCancelled()) {
+					write.cancel(false);
+				}
+			});
+		});
+		//a cancel before then stops the submitted call
+		task.whenComplete((result, taskError) -> {
+			if (task.isCancelled()) {
+				submitted.cancel(true);
+			}
+		});
+		return task;
+	}
+
+	/*
+	 * The shop methods report a failed write by returning null or false; the task fails instead.
+	 */
+	private static <T> T written(T result, String what) throws SQLException {
+		if (result == null || Boolean.FALSE.equals(result)) {
+			throw new SQLException(what);
+		}
+		return result;
+	}
+
+	public ShopTask<Void> addCustomer(String fname, String lname, String phone, String address) {
+		if (WriteBehindQueue.ENABLED) {
+			return writeBehind(esql -> esql.getWriteBehind().addCustomer(fname, lname, phone, address).thenApply(id -> null),
+					esql -> {
+						written(MechanicShop.AddCustomer(esql, fname, lname, phone, address), "customer was not inserted");
+						return null;
+					});
+		}
+		return submit(esql -> {
+			written(MechanicShop.AddCustomer(esql, fname, lname, phone, address), "customer was not inserted");
+			return null;
+		});
+	}
+
+	public ShopTask<Void> addMechanic(String fname, String lname, String experience) {
+		return submit(esql -> {
+			written(MechanicShop.AddMechanic(esql, fname, lname, experience), "mechanic was not inserted");
+			return null;
+		});
+	}
+
+	public ShopTask<Void> addCar(String vin, String make, String model, String year) {
+		if (WriteBehindQueue.ENABLED) {
+			return writeBehind(esql -> esql.getWriteBehind().addCar(vin, make, model, Integer.parseInt(year)),
+					esql -> {
+						written(MechanicShop.AddCar(esql, vin, make, model, year), "car was not inserted");
+						return null;
+					});
+		}
+		return submit(esql -> {
+			written(MechanicShop.AddCar(esql, vin, make, model, year), "car was not inserted");
+			return null;
+		});
+	}
+
+	public ShopTask<Integer> insertServiceRequest(String rid, String cid, String vin, LocalDate date, String odometer, String complain) {
+		if (WriteBehindQueue.ENABLED) {
+			return writeBehind(esql -> esql.getWriteBehind().insertServiceRequest(MechanicShop.optionalId(rid),
+					Integer.parseInt(cid), vin, Timestamp.valueOf(date.atStartOfDay()), Integer.parseInt(odometer), complain),
+					esql -> written(MechanicShop.InsertServiceRequest(esql, rid, cid, vin, date, odometer, complain),
+							"service request was not inserted"));
+		}
+		return submit(esql -> written(MechanicShop.InsertServiceRequest(esql, rid, cid, vin, date, odometer, complain),
+				"service request was not inserted"));
+	}
+
+	public ShopTask<CloseOutcome> closeServiceRequest(String wid, String rid, String mid, String comment, String bill, LocalDate date) {
+		return submit(esql -> {
+			CloseOutcome outcome = written(MechanicShop.CloseServiceRequest(esql, wid, rid, mid, comment, bill, date),
+					"service request was not closed");
+			//a check that stopped the close fails the task, so the form does not say Done
+			if (!outcome.isClosed()) {
+				throw new SQLException(outcome.message());
+			}
+			return outcome;
+		});
+	}
+
+	public ShopTask<ResultTable> findCustomersByLastName(String lname) {
+		return submit(esql -> MechanicShop.FindCustomersByLastName(esql, lname));
+	}
+
+	public ShopTask<ResultTable> listCustomersWithBillLessThan100() {
+		return submit(MechanicShop::ListCustomersWithBillLessThan100);
+	}
+
+	public ShopTask<ResultTable> listCustomersWithMoreThan20Cars() {
+		return submit(MechanicShop::ListCustomersWithMoreThan20Cars);
+	}
+
+	public ShopTask<ResultTable> listCarsBefore1995With50000Milles() {
+		return submit(MechanicShop::ListCarsBefore1995With50000Milles);
+	}
+
+	public ShopTask<ResultTable> listKCarsWithTheMostServices(int k) {
+		return submit(esql -> MechanicShop.ListKCarsWithTheMostServices(esql, k));
+	}
+
+	public ShopTask<ResultTable> listCustomersInDescendingOrderOfTheirTotalBill() {
+		return submit(MechanicShop::ListCustomersInDescendingOrderOfTheirTotalBill);
+	}
+
+	/**
+	 * Method to stop the executor and close the pool once it is open.
+	 */
+	public void shutdown() {
+		this._executor.shutdownNow();
+		this._shop.thenAccept(MechanicShop::cleanup);
+	}
+}
@@ -0,0 +1,357 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class runs shop operations from a script or standard input, one
+ * command per line, e.g. add-customer Ada Lovelace (555)555-0100 "1 Main
+ * St". Arguments are separated by blanks and quoted when they contain
+ * any; "-" leaves an id to its key sequence, and # starts a comment. Each
+ * command prints its result as the menu options did, followed by a line
+ * with its timing, and a summary with the total time ends the run. With
+ * a group size, every that many commands run in one transaction over one
+ * connection, each under a savepoint of its own, so a failed command is
+ * undone and reported without losing the rest of its group.
+ *
+ */
+
+public class BatchRunner {
+	//commands run in one transaction; 0 commits every command on its own
+	static final int GROUP_SIZE = Integer.getInteger("mechanicshop.batch.group", 0);
+
+	//the commands and their arguments, as listed by help
+	static final String[][] COMMANDS = {
+			{"add-customer", "<fname> <lname> <phone> <address>"},
+			{"add-mechanic", "<fname> <lname> <experience>"},
+			{"add-car", "<vin> <make> <model> <year>"},
+			{"insert-request", "<rid|-> <customer_id> <vin> <odometer> <complain> [yyyy-mm-dd]"},
+			{"close-request", "<wid|-> <rid> <mid> <comment> <bill> [yyyy-mm-dd]"},
+			{"find-customer", "<lname>"},
+			{"report-bill-under-100", ""},
+			{"report-more-than-20-cars", ""},
+			{"report-cars-before-1995", ""},
+			{"report-top-k", "<k>"},
+			{"report-total-bill", ""},
+			{"export", "<report> <file> [csv|binary] [gzip] [k]"},
+			{"help", ""},
+			{"exit", ""}};
+
+	/**
+	 * A parsed command and the script line it came from.
+	 */
+	public record Command(int line, String name, String[] args) {
+	}
+
+	/**
+	 * Outcome of a run.
+	 */
+	public record Summary(int commands, int failed, int transactions, double seconds) {
+		public double getCommandsPerSecond() {
+			return this.seconds == 0 ? 0 : this.commands / this.seconds;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final int _groupSize;
+	private final PrintStream _out;
+	private int _line = 0;
+	private boolean _exited = false;
+
+	/**
+	 * @param esql the handler the commands run against
+	 * @param groupSize commands per transaction; 0 commits every command on its own
+	 * @param out where results and timings are printed
+	 */
+	public BatchRunner(MechanicShop esql, int groupSize, PrintStream out) {
+		this._esql = esql;
+		this._groupSize = Math.max(0, groupSize);
+		this._out = out;
+	}
+
+	/**
+	 * Method to run every command read until the end of the input or exit.
+	 *
+	 * @param in the script
+	 * @param prompt whether to prompt for each line, for a terminal
+	 * @return how many commands ran and failed, and how long it took
+	 * @throws java.io.IOException when the script cannot be read
+	 */
+	public Summary run(BufferedReader in, boolean prompt) throws IOException {
+		long start = System.nanoTime();
+		int commands = 0;
+		int failed = 0;
+		int transactions = 0;
+		if (prompt) {
+			help();
+		}
+		while (!this._exited) {
+			List<Command> group = read(in, prompt, Math.max(1, this._groupSize));
+			if (group.isEmpty()) {
+				break;
+			}
+			commands += group.size();
+			if (this._groupSize == 0) {
+				failed += run(group.get(0)) ? 0 : 1;
+				continue;
+			}
+			long groupStart = System.nanoTime();
+			try {
+				int groupFailed = this._esql.inTransaction(pooled -> {
+					Connection connection = pooled.connection();
+					int n = 0;
+					for (Command command : group) {
+						//a failed statement aborts the transaction; rolling back to the savepoint lets the group go on
+						Savepoint savepoint = connection.setSavepoint();
+						if (run(command)) {
+							connection.releaseSavepoint(savepoint);
+						} else {
+							connection.rollback(savepoint);
+							n++;
+						}
+					}
+					return n;
+				});
+				failed += groupFailed;
+				transactions++;
+				this._out.println(String.format("-- committed %d command(s), %d failed, %.3f ms", group.size(), groupFailed,
+						(System.nanoTime() - groupStart) / 1e6));
+			} catch (SQLException e) {
+				failed += group.size();
+				this._out.println("-- transaction of lines " + group.get(0).line() + "-" + group.get(group.size() - 1).line()
+						+ " rolled back: " + e.getMessage());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		Summary summary = new Summary(commands, failed, transactions, seconds);
+		this._out.println(String.format("-- %d command(s), %d failed, %d transaction(s), %.3f s total, %.1f commands/s",
+				summary.commands(), summary.failed(), summary.transactions(), summary.seconds(), summary.getCommandsPerSecond()));
+		return summary;
+	}
+
+	/*
+	 * Reads up to max commands, skipping blank lines, comments and help; stops at exit or the end of the input.
+	 */
+	private List<Command> read(BufferedReader in, boolean prompt, int max) throws IOException {
+		List<Command> commands = new ArrayList<>(max);
+		while (commands.size() < max) {
+			if (prompt) {
+				this._out.print("shop> ");
+				this._out.flush();
+			}
+			String text = in.readLine();
+			if (text == null) {
+				this._exited = true;
+				break;
+			}
+			this._line++;
+			String[] tokens;
+			try {
+				tokens = tokens(text);
+			} catch (IllegalArgumentException e) {
+				commands.add(new Command(this._line, "", new String[] {e.getMessage()}));
+				continue;
+			}
+			if (tokens.length == 0) {
+				continue;
+			}
+			String name = tokens[0].toLowerCase(Locale.ROOT);
+			if (name.equals("exit") || name.equals("quit")) {
+				this._exited = true;
+				break;
+			}
+			if (name.equals("help")) {
+				help();
+				continue;
+			}
+			String[] args = new String[tokens.length - 1];
+			System.arraycopy(tokens, 1, args, 0, args.length);
+			commands.add(new Command(this._line, name, args));
+		}
+		return commands;
+	}
+
+	/*
+	 * Runs one command and prints its timing.
+	 */
+	private boolean run(Command command) {
+		long start = System.nanoTime();
+		boolean ok = false;
+		String error = null;
+		try {
+			ok = execute(command);
+		} catch (SQLException | IOException | IllegalArgumentException e) {
+			error = e.getMessage();
+		}
+		this._out.println(String.format("-- line %d %s: %s, %.3f ms", command.line(), command.name(),
+				ok ? "ok" : error != null ? "failed: " + error : "failed", (System.nanoTime() - start) / 1e6));
+		return ok;
+	}
+
+	/**
+	 * Method to run a command through the shop method of its menu option.
+	 *
+	 * @param command the command
+	 * @return whether the operation succeeded
+	 * @throws java.sql.SQLException when a report failed
+	 * @throws java.io.IOException when an export could not be written
+	 * @throws java.lang.IllegalArgumentException when the command or its arguments are invalid
+	 */
+	boolean execute(Command command) throws SQLException, IOException {
+		MechanicShop esql = this._esql;
+		String[] a = command.args();
+		switch (command.name()) {
+			case "":
+				throw new IllegalArgumentException(a[0]);
+			case "add-customer":
+				arguments(command, 4, 4);
+				return MechanicShop.AddCustomer(esql, a[0], a[1], a[2], a[3]) != null;
+			case "add-mechanic":
+				arguments(command, 3, 3);
+				return MechanicShop.AddMechanic(esql, a[0], a[1], a[2]) != null;
+			case "add-car":
+				arguments(command, 4, 4);
+				return MechanicShop.AddCar(esql, a[0], a[1], a[2], a[3]);
+			case "insert-request":
+				arguments(command, 5, 6);
+				return MechanicShop.InsertServiceRequest(esql, id(a[0]), a[1], a[2], date(a, 5), a[3], a[4]) != null;
+			case "close-request": {
+				arguments(command, 5, 6);
+				CloseOutcome outcome = MechanicShop.CloseServiceRequest(esql, id(a[0]), a[1], a[2], a[3], a[4], date(a, 5));
+				return outcome != null && outcome.isClosed();
+			}
+			case "find-customer":
+				arguments(command, 1, 1);
+				MechanicShop.printTable(MechanicShop.FindCustomersByLastName(esql, a[0]));
+				return true;
+			case "report-bill-under-100":
+				arguments(command, 0, 0);
+				MechanicShop.printTable(MechanicShop.ListCustomersWithBillLessThan100(esql));
+				return true;
+			case "report-more-than-20-cars":
+				arguments(command, 0, 0);
+				MechanicShop.printTable(MechanicShop.ListCustomersWithMoreThan20Cars(esql));
+				return true;
+			case "report-cars-before-1995":
+				arguments(command, 0, 0);
+				MechanicShop.printTable(MechanicShop.ListCarsBefore1995With50000Milles(esql));
+				return true;
+			case "report-top-k":
+				arguments(command, 1, 1);
+				MechanicShop.printTable(MechanicShop.ListKCarsWithTheMostServices(esql, number(a[0], "k")));
+				return true;
+			case "report-total-bill":
+				arguments(command, 0, 0);
+				MechanicShop.printTable(MechanicShop.ListCustomersInDescendingOrderOfTheirTotalBill(esql));
+				return true;
+			case "export":
+				arguments(command, 2, 5);
+				this._out.println(ReportExporter.export(esql, a[0], Path.of(a[1]), Arrays.copyOfRange(a, 2, a.length)));
+				return true;
+			default:
+				throw new IllegalArgumentException("unknown command, try help");
+		}
+	}
+
+	private static void arguments(Command command, int min, int max) {
+		int n = command.args().length;
+		if (n < min || n > max) {
+			for (String[] known : COMMANDS) {
+				if (known[0].equals(command.name())) {
+					throw new IllegalArgumentException("usage: " + known[0] + " " + known[1]);
+				}
+			}
+		}
+	}
+
+	private static int number(String arg, String name) {
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(name + " must be a number: " + arg);
+		}
+	}
+
+	private static String id(String arg) {
+		return arg.equals("-") ? "" : arg;
+	}
+
+	private static LocalDate date(String[] args, int index) {
+		if (args.length <= index) {
+			return LocalDate.now();
+		}
+		try {
+			return LocalDate.parse(args[index]);
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("date must be yyyy-mm-dd: " + args[index]);
+		}
+	}
+
+	private void help() {
+		this._out.println("COMMANDS");
+		this._out.println("--------");
+		for (String[] command : COMMANDS) {
+			this._out.println(command[1].isEmpty() ? command[0] : command[0] + " " + command[1]);
+		}
+	}
+
+	/**
+	 * Method to split a command line into its arguments. Blanks separate
+	 * arguments outside double quotes; inside them a backslash escapes the
+	 * next character. A # at the start of an argument comments out the rest
+	 * of the line.
+	 *
+	 * @param line the command line
+	 * @return the command name followed by its arguments
+	 * @throws java.lang.IllegalArgumentException when a quote is not closed
+	 */
+	static String[] tokens(String line) {
+		List<String> tokens = new ArrayList<>();
+		StringBuilder token = null;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '\\' && i + 1 < line.length()) {
+					token.append(line.charAt(++i));
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					token.append(c);
+				}
+			} else if (Character.isWhitespace(c)) {
+				if (token != null) {
+					tokens.add(token.toString());
+					token = null;
+				}
+			} else if (c == '#' && token == null) {
+				break;
+			} else {
+				if (token == null) {
+					token = new StringBuilder();
+				}
+				if (c == '"') {
+					quoted = true;
+				} else {
+					token.append(c);
+				}
+			}
+		}
+		if (quoted) {
+			throw new IllegalArgumentException("unterminated quote");
+		}
+		if (token != null) {
+			tokens.add(token.toString());
+		}
+		return tokens.toArray(new String[0]);
+	}
+}
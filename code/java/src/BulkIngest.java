@@ -0,0 +1,81 @@
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Iterator;
+
+/**
+ * This class sends rows to the database with JDBC batching. It is called by
+ * MechanicShop inside a transaction; every chunk runs under its own
+ * savepoint so one bad chunk does not discard the rest of the load.
+ *
+ */
+
+class BulkIngest {
+	static final String SERVICE_REQUEST_INSERT = "INSERT INTO Service_Request "
+			+ "(rid, customer_id, car_vin, date, odometer, complain) VALUES (?, ?, ?, ?, ?, ?)";
+	static final String CLOSED_REQUEST_INSERT = "INSERT INTO Closed_Request "
+			+ "(wid, rid, mid, date, comment, bill) VALUES (?, ?, ?, ?, ?, ?)";
+
+	/**
+	 * Binds one row to the placeholders of the insert statement.
+	 */
+	interface Binder<R> {
+		void bind(PreparedStatement stmt, R row) throws SQLException;
+	}
+
+	private BulkIngest() {
+	}
+
+	/**
+	 * Method to batch-insert rows on a connection that is already inside a
+	 * transaction.
+	 *
+	 * @param pooled the connection pinned by MechanicShop.inTransaction()
+	 * @param sql the single-row INSERT statement
+	 * @param rows the rows to insert
+	 * @param chunkSize the number of rows per batch
+	 * @param binder binds a row to the statement
+	 * @return the per-chunk outcome of the load
+	 * @throws java.sql.SQLException when a savepoint cannot be managed
+	 */
+	static <R> BulkResult run(PooledConnection pooled, String sql, Iterator<R> rows, int chunkSize,
+			Binder<R> binder) throws SQLException {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		Connection connection = pooled.connection();
+		PreparedStatement stmt = pooled.prepare(sql);
+		BulkResult result = new BulkResult();
+		long start = System.nanoTime();
+		long rowIndex = 0;
+
+		while (rows.hasNext()) {
+			long firstRow = rowIndex;
+			int inChunk = 0;
+			Savepoint savepoint = connection.setSavepoint();
+			try {
+				while (inChunk < chunkSize && rows.hasNext()) {
+					binder.bind(stmt, rows.next());
+					stmt.addBatch();
+					inChunk++;
+					rowIndex++;
+				}
+				stmt.executeBatch();
+				connection.releaseSavepoint(savepoint);
+				result.chunkSucceeded(inChunk);
+			} catch (SQLException e) {
+				stmt.clearBatch();
+				connection.rollback(savepoint);
+				//the batch exception only says "see getNextException"
+				SQLException cause = e instanceof BatchUpdateException && e.getNextException() != null
+						? e.getNextException() : e;
+				result.chunkFailed(firstRow, inChunk, cause.getMessage());
+			}
+		}
+
+		result.finish(System.nanoTime() - start);
+		return result;
+	}
+}
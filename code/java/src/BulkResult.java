@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class reports the outcome of a bulk ingestion: how many rows made it
+ * in, which chunks were rejected and why, and the achieved throughput.
+ *
+ */
+
+public class BulkResult {
+	/**
+	 * A chunk that was rolled back, identified by its position in the input.
+	 */
+	public record ChunkError(int chunk, long firstRow, int rowCount, String message) {
+	}
+
+	private long _rowsInserted = 0;
+	private long _rowsFailed = 0;
+	private int _chunks = 0;
+	private long _elapsedNanos = 0;
+	private final List<ChunkError> _errors = new ArrayList<>();
+
+	void chunkSucceeded(int rows) {
+		this._chunks++;
+		this._rowsInserted += rows;
+	}
+
+	void chunkFailed(long firstRow, int rows, String message) {
+		this._errors.add(new ChunkError(this._chunks, firstRow, rows, message));
+		this._chunks++;
+		this._rowsFailed += rows;
+	}
+
+	void finish(long elapsedNanos) {
+		this._elapsedNanos = elapsedNanos;
+	}
+
+	public long getRowsInserted() {
+		return this._rowsInserted;
+	}
+
+	public long getRowsFailed() {
+		return this._rowsFailed;
+	}
+
+	public int getChunks() {
+		return this._chunks;
+	}
+
+	public List<ChunkError> getErrors() {
+		return Collections.unmodifiableList(this._errors);
+	}
+
+	public double getElapsedMillis() {
+		return this._elapsedNanos / 1e6;
+	}
+
+	/**
+	 * Method to compute the ingestion rate of the rows that were kept.
+	 *
+	 * @return inserted rows per second of wall-clock time
+	 */
+	public double getRowsPerSecond() {
+		return this._elapsedNanos == 0 ? 0.0 : this._rowsInserted * 1e9 / this._elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d rows inserted, %d rows failed in %d chunks (%d rejected), %.1f ms, %.0f rows/sec",
+				this._rowsInserted, this._rowsFailed, this._chunks, this._errors.size(),
+				getElapsedMillis(), getRowsPerSecond());
+	}
+}
@@ -0,0 +1,57 @@
+import java.sql.Timestamp;
+
+/**
+ * The result of closing a service request: whether the Closed_Request row
+ * was inserted and, if not, which check stopped it.
+ *
+ */
+
+public record CloseOutcome(Status status, int wid, Timestamp requestDate) {
+	/**
+	 * What happened to the close.
+	 */
+	public enum Status {
+		//the Closed_Request row was inserted; wid is its id, also when the sequence chose it
+		CLOSED,
+		NO_SUCH_MECHANIC,
+		NO_SUCH_REQUEST,
+		//the closing date is not after the date the request was opened
+		DATE_NOT_AFTER_REQUEST,
+		//the request was closed before; wid is the id of that closing
+		ALREADY_CLOSED,
+		//the wid belongs to another closed request
+		WID_TAKEN,
+		//the bill is not a positive amount
+		INVALID_BILL,
+		//another clerk closed the request at the same moment
+		CONFLICT
+	}
+
+	public boolean isClosed() {
+		return this.status == Status.CLOSED;
+	}
+
+	/**
+	 * @return what happened, in the words shown to the clerk
+	 */
+	public String message() {
+		switch (this.status) {
+			case CLOSED:
+				return "Closed Service Request with wid " + this.wid + "!";
+			case NO_SUCH_MECHANIC:
+				return "Mechanic does not exist!";
+			case NO_SUCH_REQUEST:
+				return "Service request does not exist!";
+			case ALREADY_CLOSED:
+				return "Service request was already closed with wid " + this.wid + "!";
+			case WID_TAKEN:
+				return "wid " + this.wid + " is already used! Please try again.";
+			case INVALID_BILL:
+				return "Invalid bill! Please try again.";
+			case CONFLICT:
+				return "Service request is being closed by someone else!";
+			default:
+				return "Invalid date! Please try again.";
+		}
+	}
+}
@@ -0,0 +1,11 @@
+import java.sql.Timestamp;
+
+/**
+ * A row of the Closed_Request table, used by the bulk ingestion paths. A
+ * null wid takes the next key of closed_request_wid_seq; 0 is a key like
+ * any other.
+ *
+ */
+
+public record ClosedRequest(Integer wid, int rid, int mid, Timestamp date, String comment, int bill) {
+}
@@ -0,0 +1,367 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class defines a bounded pool of PostgreSQL connections. Connections
+ * are validated when they are borrowed, idle connections above the minimum
+ * size are evicted in the background, and the pool keeps simple counters
+ * on how often and how long callers had to wait for a connection.
+ *
+ */
+
+public class ConnectionPool {
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _borrowTimeoutMillis;
+	private final long _idleTimeoutMillis;
+	private final int _validationTimeoutSeconds;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = _lock.newCondition();
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<>();
+	private int _total = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _evictor;
+
+	//pool metrics
+	private final AtomicLong _borrowCount = new AtomicLong();
+	private final AtomicLong _waitCount = new AtomicLong();
+	private final AtomicLong _totalWaitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+	private final AtomicLong _timeoutCount = new AtomicLong();
+	private final AtomicLong _createdCount = new AtomicLong();
+	private final AtomicLong _evictedCount = new AtomicLong();
+	private final AtomicLong _invalidCount = new AtomicLong();
+
+	/**
+	 * Creates a pool and opens the minimum number of connections up front.
+	 *
+	 * @param url the JDBC connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param minSize number of connections kept open even when idle
+	 * @param maxSize upper bound on open connections
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @param idleTimeoutMillis idle time after which a connection above minSize is closed
+	 * @throws java.sql.SQLException when the initial connections cannot be opened
+	 */
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long borrowTimeoutMillis, long idleTimeoutMillis) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+		}
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._validationTimeoutSeconds = 2;
+
+		try {
+			for (int i = 0; i < minSize; i++) {
+				this._idle.addLast(open());
+				this._total++;
+			}
+		} catch (SQLException e) {
+			//nobody gets a reference to a pool that failed to open; close what it opened so far
+			for (PooledConnection pooled : this._idle) {
+				pooled.close();
+			}
+			this._idle.clear();
+			this._total = 0;
+			throw e;
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+		this._createdCount.incrementAndGet();
+		return new PooledConnection(connection);
+	}
+
+	/**
+	 * Method to borrow a connection. An idle connection is reused if it is
+	 * still valid, otherwise a new one is opened while the pool is below its
+	 * maximum size. When the pool is exhausted the caller waits up to the
+	 * borrow timeout.
+	 *
+	 * @return a connection that must be handed back with release()
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(this._borrowTimeoutMillis);
+		boolean waited = false;
+		while (true) {
+			PooledConnection candidate = null;
+			boolean mayOpen = false;
+			this._lock.lock();
+			try {
+				while (true) {
+					if (this._closed) {
+						throw new SQLException("Connection pool is closed");
+					}
+					candidate = this._idle.pollFirst();
+					if (candidate != null) {
+						break;
+					}
+					if (this._total < this._maxSize) {
+						this._total++;
+						mayOpen = true;
+						break;
+					}
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						this._timeoutCount.incrementAndGet();
+						throw new SQLException("Timed out after " + this._borrowTimeoutMillis
+								+ " ms waiting for a database connection");
+					}
+					waited = true;
+					try {
+						this._available.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection", e);
+					}
+				}
+			} finally {
+				this._lock.unlock();
+			}
+
+			if (mayOpen) {
+				try {
+					candidate = open();
+				} catch (SQLException e) {
+					discard(null);
+					throw e;
+				}
+			} else if (!candidate.isValid(this._validationTimeoutSeconds)) {
+				this._invalidCount.incrementAndGet();
+				discard(candidate);
+				continue;
+			}
+
+			recordBorrow(System.nanoTime() - start, waited);
+			return candidate;
+		}
+	}
+
+	/**
+	 * Method to hand a borrowed connection back to the pool. Any open
+	 * transaction is rolled back and autocommit is restored so the next
+	 * borrower starts from a clean session.
+	 *
+	 * @param pooled the connection obtained from borrow()
+	 */
+	public void release(PooledConnection pooled) {
+		if (pooled == null) {
+			return;
+		}
+		try {
+			Connection connection = pooled.connection();
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			discard(pooled);
+			return;
+		}
+		pooled.markReturned();
+		this._lock.lock();
+		try {
+			if (this._closed) {
+				this._total--;
+				pooled.close();
+				return;
+			}
+			this._idle.addFirst(pooled);
+			this._available.signal();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to drop a connection that is known to be broken.
+	 *
+	 * @param pooled the connection to close, or null to just free its slot
+	 */
+	public void discard(PooledConnection pooled) {
+		if (pooled != null) {
+			pooled.close();
+		}
+		this._lock.lock();
+		try {
+			this._total--;
+			this._available.signal();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	private void recordBorrow(long waitNanos, boolean waited) {
+		this._borrowCount.incrementAndGet();
+		if (waited) {
+			this._waitCount.incrementAndGet();
+		}
+		this._totalWaitNanos.addAndGet(waitNanos);
+		this._maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+	}
+
+	/*
+	 * Closes connections that sat idle longer than the idle timeout, never
+	 * going below the minimum size. Runs on the evictor thread.
+	 */
+	private void evictIdle() {
+		long cutoff = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(this._idleTimeoutMillis);
+		ArrayDeque<PooledConnection> evicted = new ArrayDeque<>();
+		this._lock.lock();
+		try {
+			//least recently used connections sit at the tail of the deque
+			Iterator<PooledConnection> it = this._idle.descendingIterator();
+			while (it.hasNext() && this._total > this._minSize) {
+				PooledConnection pooled = it.next();
+				if (pooled.lastReturnedAt() > cutoff) {
+					break;
+				}
+				it.remove();
+				this._total--;
+				evicted.add(pooled);
+			}
+		} finally {
+			this._lock.unlock();
+		}
+		for (PooledConnection pooled : evicted) {
+			pooled.close();
+			this._evictedCount.incrementAndGet();
+		}
+	}
+
+	public int getMinSize() {
+		return this._minSize;
+	}
+
+	public int getMaxSize() {
+		return this._maxSize;
+	}
+
+	/**
+	 * Method to report the number of connections currently open.
+	 *
+	 * @return open connections, borrowed or idle
+	 */
+	public int getOpenCount() {
+		this._lock.lock();
+		try {
+			return this._total;
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to report the number of connections currently idle in the pool.
+	 *
+	 * @return idle connections
+	 */
+	public int getIdleCount() {
+		this._lock.lock();
+		try {
+			return this._idle.size();
+		} finally {
+			this._lock.unlock();
+		}
+	}
+
+	public long getBorrowCount() {
+		return this._borrowCount.get();
+	}
+
+	public long getWaitCount() {
+		return this._waitCount.get();
+	}
+
+	public long getTimeoutCount() {
+		return this._timeoutCount.get();
+	}
+
+	public long getCreatedCount() {
+		return this._createdCount.get();
+	}
+
+	public long getEvictedCount() {
+		return this._evictedCount.get();
+	}
+
+	public long getInvalidCount() {
+		return this._invalidCount.get();
+	}
+
+	/**
+	 * Method to report the mean time spent in borrow().
+	 *
+	 * @return average wait in milliseconds
+	 */
+	public double getAverageWaitMillis() {
+		long borrows = this._borrowCount.get();
+		return borrows == 0 ? 0.0 : this._totalWaitNanos.get() / 1e6 / borrows;
+	}
+
+	public double getMaxWaitMillis() {
+		return this._maxWaitNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConnectionPool[open=%d, idle=%d, min=%d, max=%d, borrows=%d, waits=%d, "
+						+ "avgWait=%.3fms, maxWait=%.3fms, timeouts=%d, created=%d, evicted=%d, invalid=%d]",
+				getOpenCount(), getIdleCount(), this._minSize, this._maxSize, getBorrowCount(), getWaitCount(),
+				getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(), getCreatedCount(),
+				getEvictedCount(), getInvalidCount());
+	}
+
+	/**
+	 * Method to close every idle connection and refuse further borrows.
+	 * Connections still borrowed are closed as they are released.
+	 */
+	public void close() {
+		this._evictor.shutdownNow();
+		ArrayDeque<PooledConnection> idle;
+		this._lock.lock();
+		try {
+			this._closed = true;
+			idle = new ArrayDeque<>(this._idle);
+			this._total -= this._idle.size();
+			this._idle.clear();
+			this._available.signalAll();
+		} finally {
+			this._lock.unlock();
+		}
+		for (PooledConnection pooled : idle) {
+			pooled.close();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class loads the CSV files in code/data into an empty schema created
+ * by create.sql. Every file is streamed from the client through
+ * COPY ... FROM STDIN, so no server-side file access is needed. Dates in the
+ * M/d/yyyy HH:mm format of the data files are rewritten to ISO on the fly.
+ * Tables are loaded in foreign key order; tables that do not depend on each
+ * other are loaded in parallel on separate pooled connections.
+ *
+ */
+
+public class CsvLoader {
+	private static final DateTimeFormatter CSV_DATE = DateTimeFormatter.ofPattern("M/d/yyyy HH:mm");
+	private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+	/**
+	 * A data file and the COPY statement that loads it.
+	 */
+	enum Table {
+		CUSTOMER("Customer", "customer.csv", "id, fname, lname, phone, address", -1),
+		MECHANIC("Mechanic", "mechanic.csv", "id, fname, lname, experience", -1),
+		CAR("Car", "car.csv", "vin, make, model, year", -1),
+		OWNS("Owns", "owns.csv", "ownership_id, customer_id, car_vin", -1),
+		SERVICE_REQUEST("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain", 3),
+		CLOSED_REQUEST("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill", 3);
+
+		final String name;
+		final String file;
+		final String columns;
+		//zero-based index of the date column that needs rewriting, or -1
+		final int dateColumn;
+
+		Table(String name, String file, String columns, int dateColumn) {
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+			this.dateColumn = dateColumn;
+		}
+
+		String copySql() {
+			return "COPY " + this.name + " (" + this.columns + ") FROM STDIN WITH (FORMAT csv)";
+		}
+	}
+
+	//tables within a stage only reference tables of earlier stages
+	static final Table[][] STAGES = {
+		{Table.CUSTOMER, Table.MECHANIC, Table.CAR},
+		{Table.OWNS, Table.SERVICE_REQUEST},
+		{Table.CLOSED_REQUEST},
+	};
+
+	//the keys were loaded with explicit values, so every key sequence is moved past the largest of them
+	static final String SYNC_SEQUENCES_SQL = "SELECT "
+			+ "setval('customer_id_seq', GREATEST((SELECT max(id) FROM Customer), nextval('customer_id_seq'))), "
+			+ "setval('mechanic_id_seq', GREATEST((SELECT max(id) FROM Mechanic), nextval('mechanic_id_seq'))), "
+			+ "setval('owns_ownership_id_seq', COALESCE((SELECT max(ownership_id) FROM Owns), 0) + 1, false), "
+			+ "setval('service_request_rid_seq', COALESCE((SELECT max(rid) FROM Service_Request), 0) + 1, false), "
+			+ "setval('closed_request_wid_seq', COALESCE((SELECT max(wid) FROM Closed_Request), 0) + 1, false)";
+
+	/**
+	 * Rows and bytes loaded into one table and how long it took.
+	 */
+	public record TableStats(String table, long rows, long bytes, long elapsedNanos) {
+		public double rowsPerSecond() {
+			return this.elapsedNanos == 0 ? 0.0 : this.rows * 1e9 / this.elapsedNanos;
+		}
+
+		public double megabytesPerSecond() {
+			return this.elapsedNanos == 0 ? 0.0 : this.bytes * 1e9 / this.elapsedNanos / (1024 * 1024);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-16s %8d rows %10d bytes %9.1f ms %10.0f rows/sec %7.2f MB/sec",
+					this.table, this.rows, this.bytes, this.elapsedNanos / 1e6, rowsPerSecond(), megabytesPerSecond());
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final Path _dataDir;
+
+	public CsvLoader(MechanicShop esql, Path dataDir) {
+		this._esql = esql;
+		this._dataDir = dataDir;
+	}
+
+	/**
+	 * Method to load every table, stage by stage. The tables of a stage are
+	 * loaded concurrently and the next stage starts once all of them are done.
+	 * The key sequences are synchronized with the loaded keys at the end.
+	 *
+	 * @return the throughput of each table in load order
+	 * @throws java.sql.SQLException when a COPY failed
+	 * @throws java.io.IOException when a data file cannot be read
+	 */
+	public List<TableStats> loadAll() throws SQLException, IOException {
+		List<TableStats> stats = new ArrayList<>();
+		int width = 0;
+		for (Table[] stage : STAGES) {
+			width = Math.max(width, stage.length);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(width);
+		try {
+			for (Table[] stage : STAGES) {
+				List<Future<TableStats>> futures = new ArrayList<>();
+				for (Table table : stage) {
+					futures.add(executor.submit(() -> load(table)));
+				}
+				for (Future<TableStats> future : futures) {
+					stats.add(await(future));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		this._esql.executeQueryAndReturnTable(SYNC_SEQUENCES_SQL);
+		return stats;
+	}
+
+	private static TableStats await(Future<TableStats> future) throws SQLException, IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Method to stream one data file into its table.
+	 *
+	 * @param table the table to load
+	 * @return rows, bytes and time spent
+	 * @throws java.sql.SQLException when the COPY failed
+	 * @throws java.io.IOException when the data file cannot be read
+	 */
+	TableStats load(Table table) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long bytes = 0;
+		PooledConnection pooled = this._esql.getPool().borrow();
+		try (BufferedReader reader = Files.newBufferedReader(this._dataDir.resolve(table.file), StandardCharsets.UTF_8)) {
+			CopyIn copy = pooled.connection().unwrap(PGConnection.class).getCopyAPI().copyIn(table.copySql());
+			try {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream(COPY_BUFFER_BYTES + 1024);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) {
+						continue;
+					}
+					if (table.dateColumn >= 0) {
+						line = rewriteDate(line, table.dateColumn);
+					}
+					byte[] encoded = (line + "\n").getBytes(StandardCharsets.UTF_8);
+					buffer.write(encoded, 0, encoded.length);
+					if (buffer.size() >= COPY_BUFFER_BYTES) {
+						bytes += flush(copy, buffer);
+					}
+				}
+				bytes += flush(copy, buffer);
+				long rows = copy.endCopy();
+				return new TableStats(table.name, rows, bytes, System.nanoTime() - start);
+			} finally {
+				if (copy.isActive()) {
+					copy.cancelCopy();
+				}
+			}
+		} finally {
+			this._esql.getPool().release(pooled);
+		}
+	}
+
+	private static int flush(CopyIn copy, ByteArrayOutputStream buffer) throws SQLException {
+		int size = buffer.size();
+		if (size > 0) {
+			copy.writeToCopy(buffer.toByteArray(), 0, size);
+			buffer.reset();
+		}
+		return size;
+	}
+
+	/*
+	 * Replaces the M/d/yyyy HH:mm value in the given column with an ISO
+	 * timestamp that COPY accepts regardless of the server's DateStyle.
+	 */
+	static String rewriteDate(String line, int column) {
+		int begin = 0;
+		for (int i = 0; i < column; i++) {
+			begin = line.indexOf(',', begin) + 1;
+			if (begin == 0) {
+				return line;
+			}
+		}
+		int end = line.indexOf(',', begin);
+		if (end < 0) {
+			end = line.length();
+		}
+		LocalDateTime date = LocalDateTime.parse(line.substring(begin, end).trim(), CSV_DATE);
+		return line.substring(0, begin) + date + line.substring(end);
+	}
+
+	/**
+	 * Loads code/data into the database named on the command line.
+	 *
+	 * @param args <dbname> <port> <user> [data directory]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + CsvLoader.class.getName() +
+					" <dbname> <port> <user> [data directory]");
+			return;
+		}
+		Path dataDir = Paths.get(args.length == 4 ? args[3] : "../data");
+
+		MechanicShop esql = null;
+		boolean failed = false;
+		try {
+			//one connection per table of the widest stage
+			esql = new MechanicShop(args[0], args[1], args[2], "password", 1, STAGES[0].length);
+			long start = System.nanoTime();
+			long rows = 0;
+			for (TableStats stats : new CsvLoader(esql, dataDir).loadAll()) {
+				System.out.println(stats);
+				rows += stats.rows();
+			}
+			long elapsed = System.nanoTime() - start;
+			System.out.println(String.format("Loaded %d rows in %.1f ms (%.0f rows/sec)",
+					rows, elapsed / 1e6, rows * 1e9 / elapsed));
+		} catch (Exception e) {
+			System.err.println("Load failed: " + e.getMessage());
+			failed = true;
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+		if (failed) {
+			//createPostgreDB.sh must not go on to migrate a half-loaded database
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class finds customers by last name for the service counter and
+ * lists each of their cars with the state of its latest service request:
+ * none, open, or closed. Names are matched by prefix, case-insensitively,
+ * over the lower(lname) index; when no name starts with the text typed, the
+ * closest names by trigram similarity are returned instead, so a misspelt
+ * name still finds the customer, where the pg_trgm extension is installed
+ * (see V5__customer_lookup_indexes.sql); without it only prefixes match.
+ * Results go through the report cache of
+ * the handler, and a name that extends one already looked up is answered by
+ * filtering the cached rows in memory, so typing a name letter by letter
+ * costs one query for the first letters and none after.
+ *
+ */
+
+public class CustomerLookup {
+	//most rows returned for one lookup; a truncated result is not narrowed in memory
+	static final int MAX_ROWS = Integer.getInteger("mechanicshop.customerLookup.maxRows", 500);
+
+	//one row per car of each customer, or one row without a car; the LATERAL subquery walks the
+	//(car_vin, date DESC, rid DESC) index to the latest request of the car
+	static final String CUSTOMER_CARS_SQL = "SELECT C.id, C.fname, C.lname, C.phone, O.car_vin AS vin, "
+			+ "CA.make, CA.model, CA.year, SR.rid, SR.date AS requested, CR.wid, CR.date AS closed, "
+			+ "CASE WHEN SR.rid IS NULL THEN 'none' WHEN CR.wid IS NULL THEN 'open' ELSE 'closed' END AS status "
+			+ "FROM Customer C "
+			+ "LEFT JOIN Owns O ON O.customer_id = C.id "
+			+ "LEFT JOIN Car CA ON CA.vin = O.car_vin "
+			+ "LEFT JOIN LATERAL (SELECT S.rid, S.date FROM Service_Request S WHERE S.car_vin = O.car_vin "
+			+ "ORDER BY S.date DESC, S.rid DESC LIMIT 1) SR ON true "
+			+ "LEFT JOIN Closed_Request CR ON CR.rid = SR.rid ";
+
+	//parameters: lower-case prefix followed by '%', row limit
+	static final String BY_PREFIX_SQL = CUSTOMER_CARS_SQL
+			+ "WHERE lower(C.lname) LIKE ? "
+			+ "ORDER BY lower(C.lname), C.fname, C.id, O.car_vin "
+			+ "LIMIT ?";
+
+	//parameters: name, name, row limit; % is the pg_trgm similarity operator
+	static final String BY_SIMILARITY_SQL = CUSTOMER_CARS_SQL
+			+ "WHERE C.lname % ? "
+			+ "ORDER BY similarity(C.lname, ?) DESC, C.id, O.car_vin "
+			+ "LIMIT ?";
+
+	static final String[] TABLES = {"Customer", "Owns", "Car", "Service_Request", "Closed_Request"};
+
+	//trigrams of names shorter than this match almost anything
+	private static final int MIN_SIMILARITY_CHARS = 3;
+
+	//whether the database has pg_trgm, null until asked; V5 skips it for a role that may not create extensions
+	private static volatile Boolean _trigrams = null;
+
+	private CustomerLookup() {
+	}
+
+	/**
+	 * Method to find the customers whose last name starts with the given
+	 * text, or failing that, whose last name is similar to it.
+	 *
+	 * @param esql the handler whose report cache holds the results
+	 * @param lname the last name or its first letters
+	 * @return one row per car of each customer found, with the state of its latest request
+	 * @throws java.sql.SQLException when the lookup query failed
+	 */
+	public static ResultTable find(MechanicShop esql, String lname) throws SQLException {
+		String prefix = lname.trim().toLowerCase(Locale.ROOT);
+		ResultTable found = byPrefix(esql, prefix);
+		if (found.getRowCount() == 0 && prefix.length() >= MIN_SIMILARITY_CHARS && hasTrigrams(esql)) {
+			found = esql.executeCachedQuery(TABLES, BY_SIMILARITY_SQL, lname.trim(), lname.trim(), MAX_ROWS);
+		}
+		return found;
+	}
+
+	private static boolean hasTrigrams(MechanicShop esql) throws SQLException {
+		Boolean trigrams = _trigrams;
+		if (trigrams == null) {
+			trigrams = esql.executeQueryAndReturnTable("SELECT 1 FROM pg_extension WHERE extname = 'pg_trgm'")
+					.getRowCount() > 0;
+			_trigrams = trigrams;
+		}
+		return trigrams;
+	}
+
+	private static ResultTable byPrefix(MechanicShop esql, String prefix) throws SQLException {
+		//the rows of a shorter prefix, if cached and complete, include every row of this one
+		for (int length = prefix.length() - 1; length > 0; length--) {
+			ResultTable shorter = esql.peekCachedQuery(BY_PREFIX_SQL, escape(prefix.substring(0, length)) + "%", MAX_ROWS);
+			if (shorter != null && shorter.getRowCount() < MAX_ROWS) {
+				return narrow(shorter, prefix);
+			}
+		}
+		return esql.executeCachedQuery(TABLES, BY_PREFIX_SQL, escape(prefix) + "%", MAX_ROWS);
+	}
+
+	/*
+	 * Keeps the rows whose last name starts with the prefix; the order of the query is kept.
+	 */
+	static ResultTable narrow(ResultTable rows, String prefix) {
+		int lname = rows.findColumn("lname");
+		int[] kept = new int[rows.getRowCount()];
+		int count = 0;
+		for (int r = 0; r < rows.getRowCount(); r++) {
+			if (rows.getString(r, lname).toLowerCase(Locale.ROOT).startsWith(prefix)) {
+				kept[count++] = r;
+			}
+		}
+		return rows.select(Arrays.copyOf(kept, count));
+	}
+
+	/*
+	 * Escapes the LIKE wildcards in typed text so they match literally.
+	 */
+	static String escape(String text) {
+		return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+}
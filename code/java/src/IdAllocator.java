@@ -0,0 +1,76 @@
+import java.sql.SQLException;
+
+/**
+ * This class hands out keys from a database sequence in blocks (hi/lo):
+ * one round trip fetches the next blockSize values of the sequence with
+ * nextval over generate_series, and later calls are answered from memory
+ * until the block is used up. Keys are unique across clients because every
+ * value still comes from the sequence; they are not gap-free, since a block
+ * that is not used up when the handler closes is lost.
+ *
+ */
+
+public class IdAllocator {
+	static final String NEXT_BLOCK_SQL = "SELECT nextval(?::regclass) FROM generate_series(1, ?)";
+
+	private final String _sequence;
+	private final int _blockSize;
+	private int[] _block = new int[0];
+	private int _next = 0;
+	private long _roundTrips = 0;
+
+	/**
+	 * @param sequence the sequence the keys come from
+	 * @param blockSize how many keys one round trip reserves
+	 */
+	public IdAllocator(String sequence, int blockSize) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		}
+		this._sequence = sequence;
+		this._blockSize = blockSize;
+	}
+
+	/**
+	 * Method to take the next key, reserving a new block when the current
+	 * one is used up.
+	 *
+	 * @param esql the handler that runs nextval
+	 * @return a key no other caller of the sequence gets
+	 * @throws java.sql.SQLException when the block could not be reserved
+	 */
+	public synchronized int next(MechanicShop esql) throws SQLException {
+		if (this._next == this._block.length) {
+			ResultTable values = esql.executeQueryAndReturnTable(NEXT_BLOCK_SQL, this._sequence, this._blockSize);
+			int[] block = new int[values.getRowCount()];
+			for (int i = 0; i < block.length; i++) {
+				block[i] = (int) values.getLong(i, 0);
+			}
+			this._block = block;
+			this._next = 0;
+			this._roundTrips++;
+		}
+		return this._block[this._next++];
+	}
+
+	public String getSequence() {
+		return this._sequence;
+	}
+
+	public int getBlockSize() {
+		return this._blockSize;
+	}
+
+	/**
+	 * @return how many blocks were reserved so far
+	 */
+	public synchronized long getRoundTrips() {
+		return this._roundTrips;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "IdAllocator[" + this._sequence + ", block=" + this._blockSize + ", left=" + (this._block.length - this._next)
+				+ ", roundTrips=" + this._roundTrips + "]";
+	}
+}
@@ -0,0 +1,113 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts latencies in log-linear buckets, the layout used by
+ * HDR histograms: every power of two is split into SUB_BUCKETS equal
+ * buckets, so any recorded value is known to within about 3% while the
+ * whole range from 1 ns to years fits in a fixed array. Recording is a
+ * couple of shifts and one atomic increment and never allocates, so it can
+ * sit on the hot path of every statement.
+ *
+ */
+
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Method to record one value.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values count as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		this._counts.incrementAndGet(index(value));
+		this._count.increment();
+		this._sum.add(value);
+		if (value > this._max.get()) {
+			this._max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS));
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub - SUB_BUCKETS;
+	}
+
+	/*
+	 * Largest value that falls into a bucket.
+	 */
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	public long getCount() {
+		return this._count.sum();
+	}
+
+	public long getMax() {
+		return this._max.get();
+	}
+
+	public double getMean() {
+		long count = this._count.sum();
+		return count == 0 ? 0 : (double) this._sum.sum() / count;
+	}
+
+	/**
+	 * Method to read a percentile.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the upper bound of the bucket holding that percentile, in nanoseconds
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = this._counts.get(i);
+			count += counts[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Method to clear all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this._counts.set(i, 0);
+		}
+		this._count.reset();
+		this._sum.reset();
+		this._max.set(0);
+	}
+}
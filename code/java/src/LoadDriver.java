@@ -0,0 +1,202 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures how many concurrent clerk sessions one JVM can serve.
+ * Each simulated session runs on its own thread and repeatedly submits a
+ * mix of shop operations (mostly the five reports, with an occasional
+ * AddCustomer) to a SessionExecutor, waiting for each result like a clerk
+ * at a terminal would. The number of sessions doubles at every level and
+ * the latency percentiles of each level are printed, together with the
+ * highest level whose p99 stayed within twice the single-session p99.
+ * Customers added by the driver are deleted again at the end. The report
+ * cache is off unless -Dmechanicshop.reportCache.maxBytes is given, so the
+ * reports reach the pool and the database instead of repeating cache hits;
+ * the hits and misses of each level are printed either way.
+ *
+ */
+
+public class LoadDriver {
+	static final String LOAD_LNAME = "LoadDriver";
+	//p99 above this multiple of the single-session p99 counts as degraded
+	static final double DEGRADED_FACTOR = 2.0;
+
+	/**
+	 * Latencies and throughput of one concurrency level.
+	 */
+	public record Level(int sessions, int operations, int errors, double seconds,
+			double p50Millis, double p99Millis, double maxMillis) {
+		public double getOperationsPerSecond() {
+			return this.seconds == 0 ? 0 : this.operations / this.seconds;
+		}
+	}
+
+	private final SessionExecutor _executor;
+
+	public LoadDriver(SessionExecutor executor) {
+		this._executor = executor;
+	}
+
+	/**
+	 * Method to pick the operation a session runs next.
+	 *
+	 * @param n the number of operations the session has run so far
+	 * @return the operation
+	 */
+	static AsyncMechanicShop.ShopCall<?> operation(int n) {
+		switch (n % 10) {
+			case 0: case 5: return MechanicShop::ListCustomersWithBillLessThan100;
+			case 1: case 6: return MechanicShop::ListCustomersWithMoreThan20Cars;
+			case 2: case 7: return MechanicShop::ListCarsBefore1995With50000Milles;
+			case 3: return esql -> MechanicShop.ListKCarsWithTheMostServices(esql, 10);
+			case 8: return MechanicShop::ListCustomersInDescendingOrderOfTheirTotalBill;
+			case 4: return esql -> MechanicShop.ListKCarsWithTheMostServicesRanked(esql, 10);
+			default: return esql -> {
+				//AddCustomer reports a failure by returning null; count it as an error
+				if (MechanicShop.AddCustomer(esql, "Load", LOAD_LNAME, "(000)000-0000", "1 Load Street") == null) {
+					throw new SQLException("customer was not inserted");
+				}
+				return null;
+			};
+		}
+	}
+
+	/**
+	 * Method to run the given number of sessions for a fixed time.
+	 *
+	 * @param sessions the number of concurrent sessions
+	 * @param millis how long the sessions keep submitting operations
+	 * @return the measurements of this level
+	 * @throws java.lang.InterruptedException when interrupted while waiting for the sessions
+	 */
+	public Level run(int sessions, long millis) throws InterruptedException {
+		ExecutorService clients = SessionExecutor.newSessionThreads();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		List<Future<long[]>> results = new ArrayList<>(sessions);
+		int[] errors = new int[sessions];
+		long start = System.nanoTime();
+		for (int s = 0; s < sessions; s++) {
+			int session = s;
+			results.add(clients.submit(() -> {
+				long[] latencies = new long[256];
+				int n = 0;
+				while (System.nanoTime() < deadline) {
+					long t0 = System.nanoTime();
+					try {
+						this._executor.submit(operation(session + n)).join();
+					} catch (RuntimeException e) {
+						errors[session]++;
+					}
+					if (n == latencies.length) {
+						latencies = Arrays.copyOf(latencies, n * 2);
+					}
+					latencies[n++] = System.nanoTime() - t0;
+				}
+				return Arrays.copyOf(latencies, n);
+			}));
+		}
+		long[] all = new long[0];
+		for (Future<long[]> result : results) {
+			try {
+				long[] latencies = result.get();
+				int offset = all.length;
+				all = Arrays.copyOf(all, offset + latencies.length);
+				System.arraycopy(latencies, 0, all, offset, latencies.length);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		clients.shutdown();
+		Arrays.sort(all);
+		return new Level(sessions, all.length, Arrays.stream(errors).sum(), seconds,
+				percentile(all, 0.50), percentile(all, 0.99), all.length == 0 ? 0 : all[all.length - 1] / 1e6);
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+
+	/**
+	 * Runs the load at 1, 2, 4, ... sessions and prints a latency table.
+	 *
+	 * @param args <dbname> <port> <user> [max sessions] [seconds per level]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 5) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + LoadDriver.class.getName() +
+					" <dbname> <port> <user> [max sessions] [seconds per level]");
+			return;
+		}
+		int maxSessions = args.length >= 4 ? Integer.parseInt(args[3]) : 256;
+		long millis = (args.length == 5 ? Long.parseLong(args[4]) : 10) * 1000L;
+
+		//read when MechanicShop is first used, below
+		if (System.getProperty("mechanicshop.reportCache.maxBytes") == null) {
+			System.setProperty("mechanicshop.reportCache.maxBytes", "0");
+		}
+
+		PrintStream out = System.out;
+		MechanicShop esql = null;
+		boolean failed = false;
+		try {
+			esql = new MechanicShop(args[0], args[1], args[2], "password");
+			try (SessionExecutor executor = new SessionExecutor(esql)) {
+				out.println((executor.usesVirtualThreads() ? "Virtual" : "Platform") + " threads, "
+						+ executor.getMaxConcurrency() + " database permits, " + esql.getPool());
+				out.println(String.format("%9s %10s %7s %10s %10s %10s %10s %10s %10s", "sessions", "ops", "errors", "ops/s",
+						"p50 ms", "p99 ms", "max ms", "hits", "misses"));
+				//the shop operations print their results; keep them out of the table
+				System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+				LoadDriver driver = new LoadDriver(executor);
+				double baseline = Double.NaN;
+				int sustained = 0;
+				//only advances while every level so far stayed under the bound
+				for (int sessions = 1; sessions <= maxSessions; sessions *= 2) {
+					ReportCache cache = esql.getReportCache();
+					long hits = cache.getHitCount();
+					long misses = cache.getMissCount();
+					Level level = driver.run(sessions, millis);
+					out.println(String.format("%9d %10d %7d %10.1f %10.2f %10.2f %10.2f %10d %10d", level.sessions(),
+							level.operations(), level.errors(), level.getOperationsPerSecond(), level.p50Millis(), level.p99Millis(),
+							level.maxMillis(), cache.getHitCount() - hits, cache.getMissCount() - misses));
+					if (sessions == 1) {
+						baseline = level.p99Millis();
+					}
+					if ((sessions == 1 || sustained * 2 == sessions) && level.p99Millis() <= DEGRADED_FACTOR * baseline) {
+						sustained = sessions;
+					}
+				}
+				out.println("p99 stayed within " + DEGRADED_FACTOR + "x of the single-session p99 up to " + sustained + " sessions");
+				out.println("Pool: " + esql.getPool());
+				out.print(esql.getMetrics().dump());
+			}
+			int removed = esql.executeUpdate("DELETE FROM Customer WHERE lname = ?", LOAD_LNAME);
+			out.println("Removed " + removed + " customer(s) added by the load");
+		} catch (SQLException | InterruptedException e) {
+			System.err.println("Load run failed: " + e.getMessage());
+			failed = true;
+		} finally {
+			System.setOut(out);
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -12,19 +12,34 @@
 
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
-import java.time.ZoneId;
-import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.ArrayList;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,25 +48,357 @@ import java.util.ArrayList;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//rows fetched per round trip by the streaming report variants
+	static final int DEFAULT_FETCH_SIZE = Integer.getInteger("mechanicshop.fetchSize", 1000);
+	//default pool sizing, overridable with -Dmechanicshop.pool.min / -Dmechanicshop.pool.max
+	static final int DEFAULT_POOL_MIN = Integer.getInteger("mechanicshop.pool.min", 1);
+	static final int DEFAULT_POOL_MAX = Integer.getInteger("mechanicshop.pool.max", 8);
+	static final long DEFAULT_BORROW_TIMEOUT_MILLIS = Long.getLong("mechanicshop.pool.borrowTimeoutMillis", 30000L);
+	static final long DEFAULT_IDLE_TIMEOUT_MILLIS = Long.getLong("mechanicshop.pool.idleTimeoutMillis", 300000L);
+	//heap the cached report results may take, 0 turns the report cache off
+	static final long DEFAULT_REPORT_CACHE_BYTES = Long.getLong("mechanicshop.reportCache.maxBytes", 64L * 1024 * 1024);
+	//-Dmechanicshop.metrics.jmx=false keeps the operation statistics out of the platform MBean server
+	static final boolean METRICS_JMX = Boolean.parseBoolean(System.getProperty("mechanicshop.metrics.jmx", "true"));
+	//file the metrics dump is written to by cleanup(), if set
+	static final String METRICS_DUMP_FILE = System.getProperty("mechanicshop.metrics.dump");
+	//statements slower than this go to the slow query log; a negative value turns the log off
+	static final long SLOW_QUERY_THRESHOLD_MILLIS = Long.getLong("mechanicshop.slowQuery.thresholdMillis", 500L);
+	static final boolean SLOW_QUERY_EXPLAIN = Boolean.parseBoolean(System.getProperty("mechanicshop.slowQuery.explain", "true"));
+	static final String SLOW_QUERY_FILE = System.getProperty("mechanicshop.slowQuery.file", "slow-queries.log");
+	static final long SLOW_QUERY_FILE_BYTES = Long.getLong("mechanicshop.slowQuery.fileBytes", 10L * 1024 * 1024);
+	static final int SLOW_QUERY_FILES_KEPT = Integer.getInteger("mechanicshop.slowQuery.filesKept", 5);
+	//how old a materialized view may be and still be read by the reports; negative reads the live tables only
+	static final long VIEW_MAX_STALENESS_MILLIS = Long.getLong("mechanicshop.views.maxStalenessMillis", 300000L);
+	//delay between timed refreshes of the views, 0 turns the timer off
+	static final long VIEW_REFRESH_MILLIS = Long.getLong("mechanicshop.views.refreshMillis", 60000L);
+	//writes to the tables of a view, through this handler, after which it is refreshed; 0 turns this off
+	static final long VIEW_REFRESH_AFTER_WRITES = Long.getLong("mechanicshop.views.refreshAfterWrites", 500L);
+	//-Dmechanicshop.snapshot=true answers the five reports from an in-memory snapshot, see SnapshotEngine
+	static final boolean SNAPSHOT_REPORTS = Boolean.getBoolean("mechanicshop.snapshot");
+	static final Set<String> SNAPSHOT_TABLES = Set.of("customer", "car", "owns", "service_request", "closed_request");
+	//keys the bulk paths reserve per round trip to the key sequences
+	static final int ID_BLOCK_SIZE = Integer.getInteger("mechanicshop.idBlockSize", 100);
+	//table written by an INSERT, UPDATE, DELETE or COPY statement, or the view a REFRESH recomputes
+	private static final Pattern WRITTEN_TABLE = Pattern.compile(
+			"^\\s*(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|COPY|REFRESH\\s+MATERIALIZED\\s+VIEW(?:\\s+CONCURRENTLY)?)"
+			+ "\\s+([A-Za-z_][A-Za-z_0-9]*)", Pattern.CASE_INSENSITIVE);
+
+	//pool of physical database connections shared by all callers
+	private ConnectionPool _pool = null;
+	//connection pinned to the current thread while inTransaction() runs
+	private final ThreadLocal<PooledConnection> _pinned = new ThreadLocal<>();
+	//connection each thread is currently using, so cancel() can reach it
+	private final Map<Thread, PooledConnection> _inUse = new ConcurrentHashMap<>();
+	//results of the report queries, dropped when a table they read is written
+	private final ReportCache _reportCache = new ReportCache(DEFAULT_REPORT_CACHE_BYTES);
+	//tables written by the transaction pinned to the current thread, invalidated again once it ends
+	private final ThreadLocal<Set<String>> _written = new ThreadLocal<>();
+	//latency, rows, bytes and errors per named operation
+	private final Metrics _metrics = new Metrics(METRICS_JMX);
+	//statements over the threshold with their plans, null when turned off
+	private final SlowQueryLog _slowQueryLog = SLOW_QUERY_THRESHOLD_MILLIS < 0 ? null
+			: new SlowQueryLog(this, SLOW_QUERY_THRESHOLD_MILLIS, SLOW_QUERY_EXPLAIN,
+					Paths.get(SLOW_QUERY_FILE), SLOW_QUERY_FILE_BYTES, SLOW_QUERY_FILES_KEPT);
+	//refreshes the materialized views read by the reports
+	private final ViewRefresher _views = new ViewRefresher (this, VIEW_MAX_STALENESS_MILLIS, VIEW_REFRESH_MILLIS,
+			VIEW_REFRESH_AFTER_WRITES);
+	//in-memory copy the reports are answered from when SNAPSHOT_REPORTS is set, null until loaded or once dropped
+	private volatile SnapshotEngine _snapshot = null;
+	//writes to the snapshot tables so far, and how many of them the snapshot holds; it is read only while they agree
+	private final AtomicLong _snapshotWrites = new AtomicLong ();
+	private volatile long _snapshotSeen = -1;
+	//blocks of keys for the rows of the bulk paths that come without one
+	private final IdAllocator _rids = new IdAllocator ("service_request_rid_seq", ID_BLOCK_SIZE);
+	private final IdAllocator _wids = new IdAllocator ("closed_request_wid_seq", ID_BLOCK_SIZE);
+	//group-commit queue for the counter-desk inserts when WriteBehindQueue.ENABLED is set, null until first used
+	private WriteBehindQueue _writeBehind = null;
+	private boolean _closed = false;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, DEFAULT_POOL_MIN, DEFAULT_POOL_MAX);
+	}
+
+	public MechanicShop(String dbname, String dbport, String user, String passwd, int poolMin, int poolMax) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			//prepareThreshold=1 makes the driver use a named server-side statement from the first execution,
+			//reWriteBatchedInserts folds a batch of single-row INSERTs into multi-row INSERTs
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname
+					+ "?prepareThreshold=1&reWriteBatchedInserts=true";
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// open the pool of physical connections
+	        this._pool = new ConnectionPool(url, user, passwd, poolMin, poolMax,
+	        		DEFAULT_BORROW_TIMEOUT_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
 	        System.out.println("Done");
-		}catch(Exception e){
+		}catch(SQLException | RuntimeException e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
+	        //the caller decides whether to exit; the GUI reports it and stays up
+	        this._metrics.close ();
+	        if (this._slowQueryLog != null){
+	        	this._slowQueryLog.close ();
+	        }//end if
+	        throw e;
+		}
+	}
+
+	/**
+	 * Method to access the connection pool, e.g. to read its metrics.
+	 *
+	 * @return the pool backing this handler
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	/**
+	 * Method to access the report cache, e.g. to read its hit and miss counts.
+	 *
+	 * @return the cache of report results
+	 */
+	public ReportCache getReportCache() {
+		return this._reportCache;
+	}
+
+	/**
+	 * Method to return the in-memory snapshot the reports are answered
+	 * from, loading it if there is none. Inside a transaction there is none,
+	 * as in executeCachedQuery: the snapshot does not see the transaction's
+	 * own writes, and loading it would join the transaction.
+	 * 
+	 * @return the snapshot, or null unless -Dmechanicshop.snapshot=true and
+	 *         outside a transaction
+	 * @throws java.sql.SQLException when the snapshot could not be loaded
+	 */
+	public SnapshotEngine getSnapshot () throws SQLException {
+		if (!SNAPSHOT_REPORTS || this._pinned.get () != null) {
+			return null;
+		}
+		SnapshotEngine snapshot = this._snapshot;
+		if (snapshot != null && this._snapshotSeen == this._snapshotWrites.get ()) {
+			return snapshot;
+		}
+		return loadSnapshot ();
+	}
+
+	private synchronized SnapshotEngine loadSnapshot () throws SQLException {
+		SnapshotEngine snapshot = this._snapshot;
+		long writes = this._snapshotWrites.get ();
+		if (snapshot != null && this._snapshotSeen == writes) {
+			return snapshot;
+		}
+		snapshot = SnapshotEngine.load (this);
+		//a write that went through while loading may or may not be in it; keep it for this report only
+		if (writes == this._snapshotWrites.get ()) {
+			this._snapshot = snapshot;
+			this._snapshotSeen = writes;
+		}
+		return snapshot;
+	}
+
+	/*
+	 * Applies the single-row write just made to the snapshot, if the snapshot holds every write before it. Otherwise,
+	 * or inside a transaction, where the write may still be rolled back, the snapshot is left to be loaded again.
+	 */
+	synchronized void applyToSnapshot (Consumer<SnapshotEngine> write) {
+		SnapshotEngine snapshot = this._snapshot;
+		if (snapshot == null || this._pinned.get () != null || this._snapshotSeen + 1 != this._snapshotWrites.get ()) {
+			return;
+		}
+		try {
+			write.accept (snapshot);
+			this._snapshotSeen++;
+		} catch (IllegalArgumentException e) {
+			this._snapshot = null;
+		}
+	}
+
+	/**
+	 * @return the refresher of the materialized views read by the reports
+	 */
+	public ViewRefresher getViews() {
+		return this._views;
+	}
+
+	/**
+	 * Method to access the per-operation statistics.
+	 *
+	 * @return the metrics registry of this handler
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * Method to name the operation the current thread is about to run, so
+	 * the statements it executes are counted under that name.
+	 *
+	 * @param name the operation, e.g. the shop method name
+	 * @return the scope to close when the operation ends
+	 */
+	public Metrics.Scope operation (String name) {
+		return this._metrics.begin (name);
+	}
+
+	/*
+	 * Records an executed statement in the metrics and, if it was slow, in the slow query log.
+	 */
+	private void recorded (String method, String sql, Object[] params, long start, long rows, long bytes, boolean failed) {
+		long nanos = System.nanoTime () - start;
+		this._metrics.statement (method, nanos, rows, bytes, failed);
+		if (this._slowQueryLog != null && !failed) {
+			this._slowQueryLog.record (this._metrics.currentOperation (), sql, params, nanos, rows);
+		}
+	}
+
+	/**
+	 * A call measured by measured().
+	 */
+	public interface Call<T> {
+		T call() throws SQLException;
+	}
+
+	/**
+	 * Method to run a call as a named operation, see operation().
+	 *
+	 * @param name the operation, e.g. the shop method name
+	 * @param call the statements of the operation
+	 * @return whatever the call returns
+	 * @throws java.sql.SQLException when the call failed; it is counted as an error
+	 */
+	public <T> T measured (String name, Call<T> call) throws SQLException {
+		Metrics.Scope op = operation (name);
+		try {
+			return call.call ();
+		} catch (SQLException | RuntimeException e) {
+			op.fail ();
+			throw e;
+		} finally {
+			op.close ();
+		}
+	}
+
+	/**
+	 * Unit of work executed by inTransaction() on a single connection.
+	 */
+	public interface Work<T> {
+		T run(PooledConnection pooled) throws SQLException;
+	}
+
+	/**
+	 * Method to run several statements as one transaction. The borrowed
+	 * connection is pinned to the calling thread for the duration, so the
+	 * execute* methods called from inside the work use it as well. The
+	 * transaction is committed when the work returns and rolled back when
+	 * it throws. Nested calls join the outer transaction.
+	 * 
+	 * @param work the statements to run
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work or the commit failed
+	 */
+	public <T> T inTransaction (Work<T> work) throws SQLException {
+		PooledConnection current = this._pinned.get ();
+		if (current != null) {
+			return work.run (current);
+		}
+		PooledConnection pooled = this._pool.borrow ();
+		this._pinned.set (pooled);
+		this._inUse.put (Thread.currentThread (), pooled);
+		this._written.set (new HashSet<> ());
+		try {
+			Connection connection = pooled.connection ();
+			connection.setAutoCommit (false);
+			try {
+				T result = work.run (pooled);
+				connection.commit ();
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback ();
+				throw e;
+			}
+		} finally {
+			this._inUse.remove (Thread.currentThread (), pooled);
+			this._pinned.remove ();
+			this._pool.release (pooled);
+			//a report read by another thread while the transaction ran may have cached the old rows
+			for (String table : this._written.get ()) {
+				this._reportCache.invalidate (table);
+			}
+			//the snapshot cannot follow the writes of a transaction; one loaded before the commit is stale too
+			if (!this._written.get ().isEmpty ()) {
+				this._snapshotWrites.incrementAndGet ();
+			}
+			this._written.remove ();
+		}
+	}
+
+	/*
+	 * Records a write to a table: reports reading it are dropped from the cache now and, inside
+	 * a transaction, again when the transaction ends.
+	 */
+	void written (String table) {
+		this._reportCache.invalidate (table);
+		this._views.written (table);
+		if (SNAPSHOT_TABLES.contains (table.toLowerCase (Locale.ROOT))) {
+			this._snapshotWrites.incrementAndGet ();
+		}
+		Set<String> written = this._written.get ();
+		if (written != null) {
+			written.add (table);
+		}
+	}
+
+	/*
+	 * Invalidates the reports depending on whatever a statement writes.
+	 */
+	private void written (String sql, boolean anyStatement) {
+		Matcher m = WRITTEN_TABLE.matcher (sql);
+		if (m.find ()) {
+			written (m.group (1));
+		} else if (anyStatement) {
+			//DDL, TRUNCATE and the like: no telling which reports changed
+			this._reportCache.invalidateAll ();
+			this._snapshotWrites.incrementAndGet ();
+		}
+	}
+
+	/*
+	 * Returns the connection pinned by inTransaction() or borrows one.
+	 */
+	private PooledConnection acquire () throws SQLException {
+		PooledConnection pinned = this._pinned.get ();
+		if (pinned != null) {
+			return pinned;
 		}
+		PooledConnection pooled = this._pool.borrow ();
+		this._inUse.put (Thread.currentThread (), pooled);
+		return pooled;
+	}
+
+	/*
+	 * Hands a connection obtained from acquire() back, unless it is pinned.
+	 */
+	private void giveBack (PooledConnection pooled) {
+		if (pooled != this._pinned.get ()) {
+			this._inUse.remove (Thread.currentThread (), pooled);
+			this._pool.release (pooled);
+		}
+	}
+
+	/**
+	 * Method to cancel the statement another thread is currently running
+	 * through this handler. The statement fails with an SQLException in
+	 * that thread; nothing happens if the thread is not using the database.
+	 * 
+	 * @param worker the thread whose statement should be cancelled
+	 * @return true if a cancel request was sent to the server
+	 */
+	public boolean cancel (Thread worker) {
+		PooledConnection pooled = this._inUse.get (worker);
+		return pooled != null && pooled.cancelRunningStatement ();
 	}
 	
 	/**
@@ -62,57 +409,124 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		int rows = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		try {
+			// creates a statement object
+			Statement stmt = pooled.connection ().createStatement ();
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+			// issues the update instruction
+			rows = stmt.executeUpdate (sql);
+			written (sql, true);
 
-		// close the instruction
-	    stmt.close ();
+			// close the instruction
+		    stmt.close ();
+		    failed = false;
+		} finally {
+			giveBack (pooled);
+			recorded ("executeUpdate", sql, new Object[0], start, rows, 0, failed);
+		}
 	}//end executeUpdate
 
+	/**
+	 * Method to execute a parameterized update SQL statement (INSERT, UPDATE,
+	 * DELETE).  The statement is prepared once per pooled connection and
+	 * reused on later calls, so the server skips parsing and planning.
+	 * Values are bound with '?' placeholders, never concatenated.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rows = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		try {
+			PreparedStatement stmt = pooled.prepare (sql);
+			bind (stmt, params);
+			rows = stmt.executeUpdate ();
+			written (sql, false);
+			failed = false;
+			return rows;
+		} finally {
+			giveBack (pooled);
+			recorded ("executeUpdate", sql, params, start, rows, 0, failed);
+		}
+	}//end executeUpdate
+
+	/*
+	 * Binds the values to the '?' placeholders of a prepared statement.
+	 */
+	static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i) {
+			if (params[i] == null)
+				stmt.setNull (i + 1, Types.NULL);
+			else
+				stmt.setObject (i + 1, params[i]);
+		}
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		long chars = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		try {
+			//obtains the cached prepared statement
+			PreparedStatement stmt = pooled.prepare (query);
+			bind (stmt, params);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			
+			//iterates through the result set and output them to standard out.
+			boolean outputHeader = true;
+			while (rs.next()){
+				if(outputHeader){
+					for(int i = 1; i <= numCol; i++){
+						System.out.print(rsmd.getColumnName(i) + "\t");
+				    }
+				    System.out.println();
+				    outputHeader = false;
+				}
+				for (int i=1; i<=numCol; ++i) {
+					String value = rs.getString (i);
+					chars += value == null ? 4 : value.length ();
+					System.out.print (value + "\t");
+				}
+				System.out.println ();
+				++rowCount;
+			}//end while
+			rs.close ();
+			failed = false;
+			return rowCount;
+		} finally {
+			giveBack (pooled);
+			recorded ("executeQueryAndPrintResult", query, params, start, rowCount, chars, failed);
+		}
 	}
 	
 	/**
@@ -120,67 +534,366 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		long bytes = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		try {
+			//obtains the cached prepared statement 
+			PreparedStatement stmt = pooled.prepare (query); 
+			bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) {
+					String value = rs.getString (i);
+					//same estimate per string as ResultTable.estimatedBytes
+					bytes += value == null ? 8 : 56 + value.length ();
+					record.add(value); 
+				}
+				result.add(record); 
+				++rowCount;
+			}//end while 
+			rs.close (); 
+			failed = false;
+			return result; 
+		} finally {
+			giveBack (pooled);
+			recorded ("executeQueryAndReturnResult", query, params, start, rowCount, bytes, failed);
+		}
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results column by
+	 * column with typed storage, see ResultTable.
+	 * 
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result in columnar form
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		ResultTable table = null;
+		PooledConnection pooled = acquire ();
+		try {
+			PreparedStatement stmt = pooled.prepare (query);
+			bind (stmt, params);
+			try (ResultSet rs = stmt.executeQuery ()) {
+				table = ResultTable.from (rs);
+				return table;
+			}
+		} finally {
+			giveBack (pooled);
+			recorded ("executeQueryAndReturnTable", query, params, start,
+					table == null ? 0 : table.getRowCount (), table == null ? 0 : table.estimatedBytes (), table == null);
+		}
+	}//end executeQueryAndReturnTable
+
+	/**
+	 * Method to execute an update SQL statement with a RETURNING clause
+	 * (i.e. INSERT ... RETURNING *). The written rows, with the keys and
+	 * defaults the server filled in, come back in the same round trip.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the rows named by the RETURNING clause in columnar form
+	 * @throws java.sql.SQLException when update failed
+	 */
+	public ResultTable executeUpdateAndReturnTable (String sql, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		ResultTable table = null;
+		PooledConnection pooled = acquire ();
+		try {
+			PreparedStatement stmt = pooled.prepare (sql);
+			bind (stmt, params);
+			try (ResultSet rs = stmt.executeQuery ()) {
+				table = ResultTable.from (rs);
+			}
+			written (sql, false);
+			return table;
+		} finally {
+			giveBack (pooled);
+			recorded ("executeUpdateAndReturnTable", sql, params, start,
+					table == null ? 0 : table.getRowCount (), table == null ? 0 : table.estimatedBytes (), table == null);
+		}
+	}//end executeUpdateAndReturnTable
+
+	/**
+	 * Method to execute a read-only report query through the report cache.
+	 * The result is reused until one of the given tables is written through
+	 * this handler. Inside a transaction the cache is bypassed, since the
+	 * transaction may see its own uncommitted writes.
+	 * 
+	 * @param tables the tables the query reads
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result in columnar form, shared and not to be modified
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeCachedQuery (String[] tables, String query, Object... params) throws SQLException {
+		if (this._pinned.get () != null) {
+			return executeQueryAndReturnTable (query, params);
+		}
+		return this._reportCache.get (tables, query, params, () -> executeQueryAndReturnTable (query, params));
+	}
+
+	/**
+	 * Method to execute a report that can be answered from a materialized
+	 * view. The view is read while it is within the staleness bound, see
+	 * ViewRefresher; otherwise the query over the live tables runs. Either
+	 * goes through the report cache.
+	 * 
+	 * @param view the view the report can read
+	 * @param viewTables the tables the view query reads
+	 * @param viewQuery the report over the view
+	 * @param tables the tables the live query reads
+	 * @param query the report over the live tables
+	 * @param params the values bound to the placeholders of either query, in order
+	 * @return the query result in columnar form, shared and not to be modified
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeReportQuery (ViewRefresher.View view, String[] viewTables, String viewQuery,
+			String[] tables, String query, Object... params) throws SQLException {
+		if (this._views.isFresh (view)) {
+			return executeCachedQuery (viewTables, viewQuery, params);
+		}
+		return executeCachedQuery (tables, query, params);
+	}
+
+	/**
+	 * Method to look up a report result in the report cache without running
+	 * the query. Inside a transaction nothing is returned, as in
+	 * executeCachedQuery.
+	 * 
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the cached result, shared and not to be modified, or null
+	 */
+	public ResultTable peekCachedQuery (String query, Object... params) {
+		if (this._pinned.get () != null) {
+			return null;
+		}
+		return this._reportCache.peek (query, params);
+	}
+
+	/**
+	 * Callback receiving the rows of a streamed query one at a time.
+	 */
+	public interface RowHandler {
+		/**
+		 * @param rs the result set positioned on the current row
+		 * @return false to stop reading further rows
+		 */
+		boolean row(ResultSet rs) throws SQLException;
+
+		/**
+		 * Called once before the first row, also when there is none.
+		 *
+		 * @param rsmd the columns of the result
+		 */
+		default void columns(ResultSetMetaData rsmd) throws SQLException {
+		}
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * hand the rows to a callback as they arrive. Autocommit is switched off
+	 * for the duration so the driver reads through a server-side cursor,
+	 * fetchSize rows at a time, and memory stays bounded no matter how large
+	 * the result is.
+	 * 
+	 * @param query the input query string with optional '?' placeholders
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler receives each row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows handed to the callback
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryStreaming (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		boolean pinned = pooled == this._pinned.get ();
+		try {
+			//cursors only exist inside a transaction
+			if (!pinned)
+				pooled.connection ().setAutoCommit (false);
+			PreparedStatement stmt = pooled.prepare (query);
+			bind (stmt, params);
+			stmt.setFetchSize (fetchSize);
+			try (ResultSet rs = stmt.executeQuery ()) {
+				handler.columns (rs.getMetaData ());
+				while (rs.next ()) {
+					++rowCount;
+					if (!handler.row (rs))
+						break;
+				}//end while
+			} finally {
+				stmt.setFetchSize (0);
+			}
+			failed = false;
+			return rowCount;
+		} finally {
+			giveBack (pooled);
+			//rows are handed over one by one, nothing is materialized here
+			recorded ("executeQueryStreaming", query, params, start, rowCount, 0, failed);
+		}
+	}//end executeQueryStreaming
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * write its rows to a file as they arrive from a server-side cursor,
+	 * see ReportExporter for the formats.
+	 * 
+	 * @param query the input query string with optional '?' placeholders
+	 * @param file the file to write; replaced if it exists
+	 * @param format CSV or the typed binary format
+	 * @param gzip whether to compress the file
+	 * @param params the values bound to the placeholders, in order
+	 * @return the rows and bytes written, and the speed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public ReportExporter.ExportResult exportQuery (String query, Path file, ReportExporter.Format format, boolean gzip, Object... params) throws SQLException, IOException {
+		return ReportExporter.export (file, format, gzip, handler -> executeQueryStreaming (query, DEFAULT_FETCH_SIZE, handler, params));
+	}//end exportQuery
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * expose the rows as a lazily populated stream read through a
+	 * server-side cursor. The stream holds a pooled connection until it is
+	 * closed, so use it in a try-with-resources block.
+	 * 
+	 * @param query the input query string with optional '?' placeholders
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param params the values bound to the placeholders, in order
+	 * @return the rows of the result, each as a list of attribute values
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public Stream<List<String>> streamQuery (String query, int fetchSize, Object... params) throws SQLException {
+		PooledConnection pooled = acquire ();
+		boolean pinned = pooled == this._pinned.get ();
+		PreparedStatement stmt;
+		ResultSet rs;
+		try {
+			if (!pinned)
+				pooled.connection ().setAutoCommit (false);
+			stmt = pooled.prepare (query);
+			bind (stmt, params);
+			stmt.setFetchSize (fetchSize);
+			rs = stmt.executeQuery ();
+		} catch (SQLException | RuntimeException e) {
+			giveBack (pooled);
+			throw e;
+		}
+		final int numCol = rs.getMetaData ().getColumnCount ();
+		Spliterator<List<String>> rows = new Spliterators.AbstractSpliterator<List<String>>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance (Consumer<? super List<String>> action) {
+				try {
+					if (!rs.next ())
+						return false;
+					List<String> record = new ArrayList<String>(numCol);
+					for (int i=1; i<=numCol; ++i)
+						record.add(rs.getString (i));
+					action.accept (record);
+					return true;
+				} catch (SQLException e) {
+					throw new UncheckedSQLException (e);
+				}
+			}
+		};
+		return StreamSupport.stream (rows, false).onClose (() -> {
+			try {
+				rs.close ();
+				stmt.setFetchSize (0);
+			} catch (SQLException e) {
+				// ignored.
+			} finally {
+				giveBack (pooled);
+			}
+		});
+	}//end streamQuery
+
+	/**
+	 * Unchecked wrapper for SQL errors raised while a stream is consumed.
+	 */
+	public static class UncheckedSQLException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public UncheckedSQLException (SQLException cause) {
+			super (cause.getMessage (), cause);
+		}
+
+		@Override
+		public synchronized SQLException getCause () {
+			return (SQLException) super.getCause ();
+		}
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string with optional '?' placeholders
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		boolean failed = true;
+		PooledConnection pooled = acquire ();
+		try {
+			//obtains the cached prepared statement
+			PreparedStatement stmt = pooled.prepare (query);
+			bind (stmt, params);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			failed = false;
+			return rowCount;
+		} finally {
+			giveBack (pooled);
+			recorded ("executeQuery", query, params, start, rowCount, 0, failed);
+		}
 	}
 	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys. Note that currval is
+	 * scoped to a database session, so with pooled connections it only sees
+	 * nextval calls made on the same physical connection.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -188,24 +901,239 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		PooledConnection pooled = acquire ();
+		try {
+			Statement stmt = pooled.connection ().createStatement ();
+			
+			ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+			int value = rs.next() ? rs.getInt(1) : -1;
+			stmt.close ();
+			return value;
+		} finally {
+			giveBack (pooled);
+		}
+	}
+
+	/**
+	 * Method to insert many service requests in one transaction using JDBC
+	 * batching. Rows are sent in chunks of the given size; a chunk that
+	 * fails is rolled back on its own and reported, the others are kept.
+	 * A row with a null rid gets the next key of service_request_rid_seq, taken
+	 * from a block reserved ahead (see IdAllocator).
+	 * 
+	 * @param rows the service requests to insert
+	 * @param chunkSize the number of rows sent per batch
+	 * @return per-chunk outcome and throughput of the load
+	 * @throws java.sql.SQLException when the transaction itself failed
+	 */
+	public BulkResult insertServiceRequests (Iterator<ServiceRequest> rows, int chunkSize) throws SQLException {
+		return inTransaction (pooled -> {
+			written ("Service_Request");
+			return BulkIngest.run (pooled, BulkIngest.SERVICE_REQUEST_INSERT, rows, chunkSize, (stmt, r) -> {
+				stmt.setInt (1, r.rid () != null ? r.rid () : this._rids.next (this));
+				stmt.setInt (2, r.customerId ());
+				stmt.setString (3, r.carVin ());
+				stmt.setTimestamp (4, r.date ());
+				stmt.setInt (5, r.odometer ());
+				stmt.setString (6, r.complain ());
+			});
+		});
+	}
+
+	public BulkResult insertServiceRequests (Iterable<ServiceRequest> rows, int chunkSize) throws SQLException {
+		return insertServiceRequests (rows.iterator (), chunkSize);
+	}
+
+	/**
+	 * Method to insert many closed requests in one transaction using JDBC
+	 * batching. Rows are sent in chunks of the given size; a chunk that
+	 * fails is rolled back on its own and reported, the others are kept.
+	 * A row with a null wid gets the next key of closed_request_wid_seq, taken
+	 * from a block reserved ahead (see IdAllocator).
+	 * 
+	 * @param rows the closed requests to insert
+	 * @param chunkSize the number of rows sent per batch
+	 * @return per-chunk outcome and throughput of the load
+	 * @throws java.sql.SQLException when the transaction itself failed
+	 */
+	public BulkResult closeServiceRequests (Iterator<ClosedRequest> rows, int chunkSize) throws SQLException {
+		return inTransaction (pooled -> {
+			written ("Closed_Request");
+			return BulkIngest.run (pooled, BulkIngest.CLOSED_REQUEST_INSERT, rows, chunkSize, (stmt, r) -> {
+				stmt.setInt (1, r.wid () != null ? r.wid () : this._wids.next (this));
+				stmt.setInt (2, r.rid ());
+				stmt.setInt (3, r.mid ());
+				stmt.setTimestamp (4, r.date ());
+				stmt.setString (5, r.comment ());
+				stmt.setInt (6, r.bill ());
+			});
+		});
+	}
+
+	public BulkResult closeServiceRequests (Iterable<ClosedRequest> rows, int chunkSize) throws SQLException {
+		return closeServiceRequests (rows.iterator (), chunkSize);
+	}
+
+	//checks and closes a service request in one statement. The data-modifying CTE and the subqueries share one
+	//snapshot, so closed_by sees a closing made before this statement, while the unique index on Closed_Request(rid)
+	//makes a concurrent closing of the same request end in DO NOTHING instead of a second row.
+	//a null wid takes the next value of closed_request_wid_seq, drawn only when the row is inserted
+	//parameters: mid, rid, wid, date, comment, bill, date, rid, wid
+	static final String CLOSE_SERVICE_REQUEST_SQL = "WITH M AS (SELECT id FROM Mechanic WHERE id = ?), "
+			+ "SR AS (SELECT rid, date FROM Service_Request WHERE rid = ?), "
+			+ "I AS (INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) "
+			+ "SELECT COALESCE(?::integer, nextval('closed_request_wid_seq')), SR.rid, M.id, ?, ?, ? FROM SR, M WHERE SR.date < ? "
+			+ "ON CONFLICT DO NOTHING "
+			+ "RETURNING wid) "
+			+ "SELECT (SELECT count(*) FROM M) AS mechanics, "
+			+ "(SELECT date FROM SR) AS request_date, "
+			+ "(SELECT wid FROM I) AS inserted_wid, "
+			+ "(SELECT wid FROM Closed_Request WHERE rid = ?) AS closed_by, "
+			+ "(SELECT rid FROM Closed_Request WHERE wid = ?::integer) AS wid_owner";
+
+	/**
+	 * Method to insert a customer. Unlike AddCustomer, a failure is thrown
+	 * to the caller, e.g. so the HTTP server can tell bad input from a
+	 * database fault.
+	 * 
+	 * @return the inserted row, with the id the sequence gave it
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public ResultTable addCustomer (String fname, String lname, String phone, String address) throws SQLException {
+		//RETURNING hands back the row with the id the sequence gave it, in the same round trip
+		ResultTable row = executeUpdateAndReturnTable ("INSERT INTO Customer (fname, lname, phone, address) "
+				+ "VALUES (?, ?, ?, ?) RETURNING *", fname, lname, phone, address);
+		applyToSnapshot (snapshot -> snapshot.addCustomer (row.getInt (0, 0), fname, lname));
+		return row;
+	}
+
+	/**
+	 * Method to insert a mechanic, throwing a failure to the caller.
+	 * 
+	 * @return the inserted row, with the id the sequence gave it
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public ResultTable addMechanic (String fname, String lname, int experience) throws SQLException {
+		return executeUpdateAndReturnTable ("INSERT INTO Mechanic (fname, lname, experience) VALUES (?, ?, ?) RETURNING *",
+				fname, lname, experience);
+	}
+
+	/**
+	 * Method to insert a car, throwing a failure to the caller.
+	 * 
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public void addCar (String vin, String make, String model, int year) throws SQLException {
+		executeUpdate ("INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?)", vin, make, model, year);
+		applyToSnapshot (snapshot -> snapshot.addCar (vin, make, model, year));
+	}
+
+	/**
+	 * Method to insert a service request, throwing a failure to the caller.
+	 * 
+	 * @param rid the request id, or null for the next value of service_request_rid_seq
+	 * @return the rid of the inserted request
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int insertServiceRequest (Integer rid, int customerId, String vin, Timestamp date, int odometer, String complain)
+			throws SQLException {
+		ResultTable row = executeUpdateAndReturnTable ("INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) "
+				+ "VALUES (COALESCE(?::integer, nextval('service_request_rid_seq')), ?, ?, ?, ?, ?) "
+				+ "RETURNING rid",
+				rid, customerId, vin, date, odometer, complain);
+		int inserted = row.getInt (0, 0);
+		applyToSnapshot (snapshot -> snapshot.addServiceRequest (inserted, customerId, vin, odometer));
+		return inserted;
+	}
+
+	/**
+	 * Method to close a service request. The mechanic and the request must
+	 * exist, the closing date must be after the request date and the
+	 * request must not be closed yet; all of this is checked by the same
+	 * single statement that inserts the Closed_Request row, so it is one
+	 * round trip and one transaction.
+	 * 
+	 * @param wid the id of the closing, or null for the next one of the sequence
+	 * @param rid the service request to close
+	 * @param mid the mechanic who did the work
+	 * @param date the closing date
+	 * @param comment the mechanic's comment
+	 * @param bill the amount billed, positive
+	 * @return whether the request was closed, with the wid it got, and if not, why
+	 * @throws java.sql.SQLException when the statement failed
+	 */
+	public CloseOutcome closeServiceRequest (Integer wid, int rid, int mid, Timestamp date, String comment, int bill) throws SQLException {
+		int requested = wid == null ? 0 : wid;
+		if (bill <= 0) {
+			return new CloseOutcome (CloseOutcome.Status.INVALID_BILL, requested, null);
+		}
+		ResultTable result = executeQueryAndReturnTable (CLOSE_SERVICE_REQUEST_SQL,
+				mid, rid, wid, date, comment, bill, date, rid, wid);
+		Timestamp requestDate = result.getTimestamp (0, 1);
+		if (result.getLong (0, 0) == 0) {
+			return new CloseOutcome (CloseOutcome.Status.NO_SUCH_MECHANIC, requested, requestDate);
+		}
+		if (requestDate == null) {
+			return new CloseOutcome (CloseOutcome.Status.NO_SUCH_REQUEST, requested, null);
+		}
+		if (!result.isNull (0, 3)) {
+			return new CloseOutcome (CloseOutcome.Status.ALREADY_CLOSED, result.getInt (0, 3), requestDate);
+		}
+		if (!requestDate.before (date)) {
+			return new CloseOutcome (CloseOutcome.Status.DATE_NOT_AFTER_REQUEST, requested, requestDate);
+		}
+		if (!result.isNull (0, 2)) {
+			int closed = result.getInt (0, 2);
+			written ("Closed_Request");
+			applyToSnapshot (snapshot -> snapshot.closeServiceRequest (closed, rid, date, comment, bill));
+			return new CloseOutcome (CloseOutcome.Status.CLOSED, closed, requestDate);
+		}
+		if (!result.isNull (0, 4)) {
+			return new CloseOutcome (CloseOutcome.Status.WID_TAKEN, requested, requestDate);
+		}
+		return new CloseOutcome (CloseOutcome.Status.CONFLICT, requested, requestDate);
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to access the write-behind queue, started on first use.
+	 *
+	 * @return the queue, or null when write-behind is turned off or the handler is closed
+	 */
+	public synchronized WriteBehindQueue getWriteBehind () {
+		if (this._writeBehind == null && WriteBehindQueue.ENABLED && !this._closed) {
+			this._writeBehind = new WriteBehindQueue (this);
+		}
+		return this._writeBehind;
+	}
+
+	/**
+	 * Method to close the connection pool and every idle physical connection.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		//queued writes are flushed while the pool is still open
+		WriteBehindQueue writeBehind;
+		synchronized (this) {
+			this._closed = true;
+			writeBehind = this._writeBehind;
+		}
+		if (writeBehind != null){
+			writeBehind.close ();
+		}//end if
+		this._views.close ();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+		if (METRICS_DUMP_FILE != null){
+			try {
+				this._metrics.writeTo (Paths.get (METRICS_DUMP_FILE));
+			} catch (IOException e) {
+				System.err.println ("Could not write metrics to " + METRICS_DUMP_FILE + ": " + e.getMessage ());
+			}
+		}//end if
+		this._metrics.close ();
+		if (this._slowQueryLog != null){
+			this._slowQueryLog.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -214,14 +1142,15 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3 || args.length > 4) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [script]");
 			return;
 		}//end if
 
 		MechanicShop esql = null;
+		boolean failed = true;
 
 		try{
 			System.out.println("(1)");
@@ -242,42 +1171,21 @@ public class MechanicShop{
 
 			esql = new MechanicShop (dbname, dbport, user, "password");
 
-			boolean keepon = true;
-			while(keepon){
-				System.out.println("MAIN MENU");
-				System.out.println("---------");
-				System.out.println("1. AddCustomer");
-				System.out.println("2. AddMechanic");
-				System.out.println("3. AddCar");
-				System.out.println("4. InsertServiceRequest");
-				System.out.println("5. CloseServiceRequest");
-				System.out.println("6. ListCustomersWithBillLessThan100");
-				System.out.println("7. ListCustomersWithMoreThan20Cars");
-				System.out.println("8. ListCarsBefore1995With50000Milles");
-				System.out.println("9. ListKCarsWithTheMostServices");
-				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
-
-				/*
-				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
-				 * NOTE: I have commented this because my front end handles this
-				 */
-//				switch (readChoice()){
-//					case 1: AddCustomer(esql); break;
-//					case 2: AddMechanic(esql); break;
-//					case 3: AddCar(esql); break;
-//					case 4: InsertServiceRequest(esql); break;
-//					case 5: CloseServiceRequest(esql); break;
-//					case 6: ListCustomersWithBillLessThan100(esql); break;
-//					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-//					case 8: ListCarsBefore1995With50000Milles(esql); break;
-//					case 9: ListKCarsWithTheMostServices(esql); break;
-//					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-//					case 11: keepon = false; break;
-//				}
+			//commands come from the script named, or from standard input; see BatchRunner for the syntax
+			BufferedReader script = args.length == 4 ? new BufferedReader(new FileReader(args[3])) : in;
+			BatchRunner.Summary summary;
+			try {
+				summary = new BatchRunner(esql, BatchRunner.GROUP_SIZE, System.out).run(script, args.length == 3 && System.console() != null);
+			} finally {
+				if (script != in) {
+					script.close();
+				}
 			}
+			failed = summary.failed() > 0;
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
+			//no connection at all, or a script that could not be read
+			failed = true;
 		}finally{
 			try{
 				if(esql != null) {
@@ -289,6 +1197,10 @@ public class MechanicShop{
 				// ignored.
 			}
 		}
+		//lets a nightly job notice commands that failed
+		if (failed) {
+			System.exit(1);
+		}
 	}
 
 	public static int readChoice() {
@@ -308,56 +1220,77 @@ public class MechanicShop{
 	}//end readChoice
 
 
+	/* Parses an id typed by the user; blank means the database picks it from the sequence. */
+	static Integer optionalId(String id) {
+		return id == null || id.trim().isEmpty() ? null : Integer.valueOf(id.trim());
+	}
+
+	/* Prints a table the way executeQueryAndPrintResult prints a result set. */
+	static void printTable(ResultTable table) {
+		for (int i = 0; i < table.getColumnCount(); i++) {
+			System.out.print(table.getColumnName(i) + "\t");
+		}
+		System.out.println();
+		for (List<String> row : table.toRows()) {
+			for (String value : row) {
+				System.out.print(value + "\t");
+			}
+			System.out.println();
+		}
+	}
+
 	/* Purpose of this function is to add a customer and to check that inputted info is valid based on the constraints
-	of the database schema by using INSERT INTO query*/
-	public static void AddCustomer(MechanicShop esql, String fname, String lname, String phone, String addy) {//1
-		try{
-			esql.executeUpdate("INSERT INTO Customer (fname, lname, phone, address) VALUES("+ "'" +
-					fname + "', '" +
-					lname + "', '" +
-					phone + "','" +
-					addy + "');"
-			);
+	of the database schema by using INSERT INTO query. Returns the inserted row, or null when the insert failed. */
+	public static ResultTable AddCustomer(MechanicShop esql, String fname, String lname, String phone, String addy) {//1
+		Metrics.Scope op = esql.operation("AddCustomer");
+		try {
+			ResultTable row = esql.addCustomer(fname, lname, phone, addy);
 			System.out.println("Customer inserted!");
-			esql.executeQueryAndPrintResult("SELECT * FROM Customer ORDER BY id DESC LIMIT 1;");
+			printTable(row);
+			return row;
 		} catch (SQLException throwables) {
+			op.fail();
 			System.out.println("Insert failed; invalid date. Please try again!");
 			throwables.printStackTrace();
+			return null;
+		} finally {
+			op.close();
 		}
 	}
 
 	/* Purpose of this function is to add a mechanic and to check that inputted info is valid based on the constraints
-	of the database schema by using INSERT INTO query*/
-	public static void AddMechanic(MechanicShop esql, String fname, String lname, String experience) {//2
-		String query = "INSERT INTO "
-				+ "Mechanic (fname, lname, experience)"
-				+ "VALUES(" + "'"
-				+ fname + "', '"
-				+ lname + "', '"
-				+ experience + "');";
+	of the database schema by using INSERT INTO query. Returns the inserted row, or null when the insert failed. */
+	public static ResultTable AddMechanic(MechanicShop esql, String fname, String lname, String experience) {//2
+		Metrics.Scope op = esql.operation("AddMechanic");
 		try {
-			esql.executeUpdate(query);
+			ResultTable row = esql.addMechanic(fname, lname, Integer.parseInt(experience));
 			System.out.println("Mechanic inserted!");
-			esql.executeQueryAndPrintResult("SELECT * FROM Mechanic ORDER BY id DESC LIMIT 1;");
-		} catch (SQLException throwables) {
+			printTable(row);
+			return row;
+		} catch (SQLException | NumberFormatException throwables) {
+			op.fail();
 			System.out.println("Insert failed; invalid date. Please try again!");
 			throwables.printStackTrace();
+			return null;
+		} finally {
+			op.close();
 		}
 	}
 
 	/* Purpose of this function is to add a car and to check that inputted info is valid based on the constraints
-	of the database schema by using INSERT INTO query*/
-	public static void AddCar(MechanicShop esql, String vin, String make, String model, String year){//3
-		try{
-			esql.executeUpdate("INSERT INTO Car VALUES("+ "'"
-					+ vin + "'" + ",'"
-					+ make + "', '"
-					+ model + "', '"
-					+ year + "');"
-			);
+	of the database schema by using INSERT INTO query. Returns whether the car was inserted. */
+	public static boolean AddCar(MechanicShop esql, String vin, String make, String model, String year){//3
+		Metrics.Scope op = esql.operation("AddCar");
+		try {
+			esql.addCar(vin, make, model, Integer.parseInt(year));
 			System.out.println("Car inserted!");
-		} catch (SQLException throwables) {
+			return true;
+		} catch (SQLException | NumberFormatException throwables) {
+			op.fail();
 			System.out.println("Insert failed; invalid date. Please try again!");
+			return false;
+		} finally {
+			op.close();
 		}
 	}
 
@@ -365,120 +1298,269 @@ public class MechanicShop{
 	not get the time to redo/fix this function completely. Would have wanted the function to, given
 	a last name, search for existing customers. If there are existing customers let me view all the cars of the customer and
 	provide the option to initiate the service request for one of the listed cars; otherwise prompt user to add the car and
-	service request. Additionally, I would want to be able to check the status of a car(open or closed) */
-	public static void InsertServiceRequest(MechanicShop esql, String rid, String cid, String vin, LocalDate currentLocalDate, String odometer, String complain){//4
-		ZoneId defaultZoneId = ZoneId.systemDefault();
-		Date currentDate = Date.from(currentLocalDate.atStartOfDay(defaultZoneId).toInstant());
-		try{
-			esql.executeUpdate("INSERT INTO Service_Request VALUES("
-					+ rid + ","
-					+ cid + ", '"
-					+ vin + "', '"
-					+ currentDate.toString() + "',"
-					+ odometer + ",'"
-					+ complain + "');"
-			);
-		} catch (SQLException throwables) {
+	service request. Additionally, I would want to be able to check the status of a car(open or closed)
+	A blank rid takes the next value of service_request_rid_seq. Returns the rid, or null when the insert failed. */
+	public static Integer InsertServiceRequest(MechanicShop esql, String rid, String cid, String vin, LocalDate currentLocalDate, String odometer, String complain){//4
+		Timestamp currentDate = Timestamp.valueOf(currentLocalDate.atStartOfDay());
+		Metrics.Scope op = esql.operation("InsertServiceRequest");
+		try {
+			int inserted = esql.insertServiceRequest(optionalId(rid), Integer.parseInt(cid), vin, currentDate,
+					Integer.parseInt(odometer), complain);
+			System.out.println("Service request inserted with rid " + inserted + "!");
+			return inserted;
+		} catch (SQLException | NumberFormatException throwables) {
+			op.fail();
 			System.out.println("Insert failed; invalid date. Please try again!");
 			throwables.printStackTrace();
+			return null;
+		} finally {
+			op.close();
 		}
 	}
 
 	/* Given a service request id and and mechanic id, the client application should verify the information provided
-	and attempt to create a closing request record. */
-	public static void CloseServiceRequest(MechanicShop esql, String wid, String rid, String mid, String comment, String bill, LocalDate currentLocalDate) {//5
-		ZoneId defaultZoneId = ZoneId.systemDefault();
-		Date currentDate = Date.from(currentLocalDate.atStartOfDay(defaultZoneId).toInstant());
-		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+	and attempt to create a closing request record. The checks and the insert run as one statement, see
+	closeServiceRequest. A blank wid takes the next value of closed_request_wid_seq. Returns the outcome, or null when
+	the input could not be parsed or the statement failed. */
+	public static CloseOutcome CloseServiceRequest(MechanicShop esql, String wid, String rid, String mid, String comment, String bill, LocalDate currentLocalDate) {//5
+		Timestamp currentDate = Timestamp.valueOf(currentLocalDate.atStartOfDay());
+		Metrics.Scope op = esql.operation("CloseServiceRequest");
 		try {
-			int mrows = esql.executeQuery("SELECT * FROM Mechanic WHERE id =  "+mid+";");
-			if (mrows != 1) {
-				System.out.println("Mechanic does not exist!");
-				return;
-			}
-
-			List<List<String>> result = esql.executeQueryAndReturnResult("SELECT date FROM Service_Request WHERE rid =  "+rid+";");
-			if (result.isEmpty()) {
-				System.out.println("Service request does not exist!");
-				return;
-			}
-
-			String rstdatestring = result.get(0).get(0);
-			Date rstdate = null;
-			try {
-				rstdate = formatter.parse(rstdatestring);
-			} catch (ParseException e) {
-				e.printStackTrace();
-			}
-			assert rstdate != null;
-			if(rstdate.before(currentDate)) {
-				esql.executeUpdate("INSERT INTO Closed_Request VALUES(" +
-						wid + "," +
-						rid + "," +
-						mid + ", '" +
-						currentDate.toString() + "', '" +
-						comment + "'," +
-						bill + ");"
-				);
-				System.out.println("Closed Service Request!");
-			}
-			else {
-				System.out.println("Invalid date! Please try again.");
-			}
-		} catch (SQLException throwables) {
+			CloseOutcome outcome = esql.closeServiceRequest(optionalId(wid), Integer.parseInt(rid), Integer.parseInt(mid),
+					currentDate, comment, Integer.parseInt(bill));
+			System.out.println(outcome.message());
+			return outcome;
+		} catch (SQLException | NumberFormatException throwables) {
+			op.fail();
 			System.out.println("Insert failed. Please try again!");
 			throwables.printStackTrace();
+			return null;
+		} finally {
+			op.close();
 		}
 	}
 	
-	public static List<List<String>> ListCustomersWithBillLessThan100(MechanicShop esql) throws SQLException {//6
-		String query = "SELECT date, comment, bill "
-				+ "FROM Closed_Request CR "
-				+ "WHERE CR.bill < 100 ";
-		return esql.executeQueryAndReturnResult(query);
+	static final String BILL_LESS_THAN_100_SQL = "SELECT date, comment, bill "
+			+ "FROM Closed_Request CR "
+			+ "WHERE CR.bill < 100 ";
+
+	//one row per customer: the counts are grouped once and joined to Customer, without re-joining Owns
+	static final String MORE_THAN_20_CARS_SQL = "SELECT C.fname, C.lname " +
+			"FROM Customer C JOIN (" +
+			"SELECT customer_id " +
+			"FROM Owns " +
+			"GROUP BY customer_id " +
+			"HAVING COUNT(car_vin) > 20) O ON O.customer_id = C.id";
+
+	static final String MORE_THAN_20_CARS_VIEW_SQL = "SELECT C.fname, C.lname "
+			+ "FROM mv_customer_car_counts M JOIN Customer C ON C.id = M.customer_id "
+			+ "WHERE M.cars > 20";
+
+	//one row per car, however many of its services were under 50000 miles
+	static final String CARS_BEFORE_1995_SQL = "SELECT C.make, C.model, C.year "
+			+ "FROM Car	C "
+			+ "WHERE C.year < 1995 AND EXISTS ("
+			+ "SELECT 1 FROM Service_Request SR WHERE SR.car_vin = C.vin AND SR.odometer < 50000)";
+
+	static final String CARS_BEFORE_1995_VIEW_SQL = "SELECT C.make, C.model, C.year "
+			+ "FROM Car C JOIN mv_vin_service_counts S ON S.car_vin = C.vin "
+			+ "WHERE C.year < 1995 AND S.min_odometer < 50000";
+
+	//service counts per car, aggregated over the car_vin index before joining Car
+	static final String SERVICES_PER_CAR_SQL = "SELECT C.make, C.model, C.vin, S.services " +
+			"FROM (SELECT car_vin, COUNT(*) AS services " +
+			"FROM Service_Request " +
+			"GROUP BY car_vin) S " +
+			"JOIN Car C ON C.vin = S.car_vin ";
+
+	//ties on the count are broken by VIN so pages are stable
+	static final String CARS_WITH_MOST_SERVICES_SQL = SERVICES_PER_CAR_SQL +
+			"ORDER BY S.services DESC, C.vin " +
+			"LIMIT ?";
+
+	static final String NEXT_CARS_WITH_MOST_SERVICES_SQL = SERVICES_PER_CAR_SQL +
+			"WHERE S.services < ? OR (S.services = ? AND C.vin > ?) " +
+			"ORDER BY S.services DESC, C.vin " +
+			"LIMIT ?";
+
+	static final String RANKED_CARS_WITH_MOST_SERVICES_SQL = "SELECT make, model, vin, services, rank " +
+			"FROM (SELECT R.*, RANK() OVER (ORDER BY R.services DESC) AS rank " +
+			"FROM (" + SERVICES_PER_CAR_SQL + ") R) T " +
+			"WHERE rank <= ? " +
+			"ORDER BY rank, vin";
+
+	//the same three reports over the per-VIN counts of mv_vin_service_counts
+	static final String SERVICES_PER_CAR_VIEW_SQL = "SELECT C.make, C.model, C.vin, S.services " +
+			"FROM mv_vin_service_counts S " +
+			"JOIN Car C ON C.vin = S.car_vin ";
+
+	static final String CARS_WITH_MOST_SERVICES_VIEW_SQL = SERVICES_PER_CAR_VIEW_SQL +
+			"ORDER BY S.services DESC, C.vin " +
+			"LIMIT ?";
+
+	static final String NEXT_CARS_WITH_MOST_SERVICES_VIEW_SQL = SERVICES_PER_CAR_VIEW_SQL +
+			"WHERE S.services < ? OR (S.services = ? AND C.vin > ?) " +
+			"ORDER BY S.services DESC, C.vin " +
+			"LIMIT ?";
+
+	static final String RANKED_CARS_WITH_MOST_SERVICES_VIEW_SQL = "SELECT make, model, vin, services, rank " +
+			"FROM (SELECT R.*, RANK() OVER (ORDER BY R.services DESC) AS rank " +
+			"FROM (" + SERVICES_PER_CAR_VIEW_SQL + ") R) T " +
+			"WHERE rank <= ? " +
+			"ORDER BY rank, vin";
+
+	//reads the running totals maintained by the Customer_Bill_Total trigger, walking the (total DESC) index
+	static final String TOTAL_BILL_DESC_SQL = "SELECT C.id, C.fname, C.lname, T.total "
+			+ "FROM Customer_Bill_Total T JOIN Customer C ON C.id = T.customer_id "
+			+ "WHERE T.closed_count > 0 "
+			+ "ORDER BY T.total DESC, T.customer_id";
+
+	static final String TOP_K_TOTAL_BILL_SQL = TOTAL_BILL_DESC_SQL + " LIMIT ?";
+
+	//tables each report reads, so a write drops only the cached reports that depend on it
+	static final String[] BILL_LESS_THAN_100_TABLES = {"Closed_Request"};
+	static final String[] MORE_THAN_20_CARS_TABLES = {"Customer", "Owns"};
+	static final String[] CARS_BEFORE_1995_TABLES = {"Car", "Service_Request"};
+	static final String[] SERVICES_PER_CAR_TABLES = {"Car", "Service_Request"};
+	//a view changes only when it is refreshed, which counts as a write to it
+	static final String[] MORE_THAN_20_CARS_VIEW_TABLES = {"Customer", "mv_customer_car_counts"};
+	static final String[] VIN_SERVICE_COUNTS_VIEW_TABLES = {"Car", "mv_vin_service_counts"};
+	//Customer_Bill_Total is written by the trigger on Closed_Request
+	static final String[] TOTAL_BILL_TABLES = {"Customer", "Customer_Bill_Total", "Closed_Request"};
+
+	//the reports for the paged result view, each with a unique sort key; keys that are not report columns come last.
+	//Those with a materialized view read it while it is fresh, as the List* methods do
+	static final PagedReport BILL_LESS_THAN_100_PAGES = new PagedReport(BILL_LESS_THAN_100_TABLES,
+			"SELECT date, comment, bill, wid FROM Closed_Request CR WHERE CR.bill < 100", 3, "wid");
+
+	static final PagedReport MORE_THAN_20_CARS_PAGES = new PagedReport(MORE_THAN_20_CARS_TABLES,
+			"SELECT C.fname, C.lname, C.id "
+			+ "FROM Customer C JOIN (SELECT customer_id FROM Owns GROUP BY customer_id HAVING COUNT(car_vin) > 20) O "
+			+ "ON O.customer_id = C.id", 2, "lname", "fname", "id")
+			.overView(ViewRefresher.View.CUSTOMER_CAR_COUNTS, MORE_THAN_20_CARS_VIEW_TABLES,
+					"SELECT C.fname, C.lname, C.id "
+					+ "FROM mv_customer_car_counts M JOIN Customer C ON C.id = M.customer_id "
+					+ "WHERE M.cars > 20");
+
+	static final PagedReport CARS_BEFORE_1995_PAGES = new PagedReport(CARS_BEFORE_1995_TABLES,
+			"SELECT C.make, C.model, C.year, C.vin "
+			+ "FROM Car C "
+			+ "WHERE C.year < 1995 AND EXISTS ("
+			+ "SELECT 1 FROM Service_Request SR WHERE SR.car_vin = C.vin AND SR.odometer < 50000)", 3, "vin")
+			.overView(ViewRefresher.View.VIN_SERVICE_COUNTS, VIN_SERVICE_COUNTS_VIEW_TABLES,
+					"SELECT C.make, C.model, C.year, C.vin "
+					+ "FROM Car C JOIN mv_vin_service_counts S ON S.car_vin = C.vin "
+					+ "WHERE C.year < 1995 AND S.min_odometer < 50000");
+
+	static final PagedReport CARS_WITH_MOST_SERVICES_PAGES = new PagedReport(SERVICES_PER_CAR_TABLES, SERVICES_PER_CAR_SQL, 4,
+			"services DESC", "vin")
+			.overView(ViewRefresher.View.VIN_SERVICE_COUNTS, VIN_SERVICE_COUNTS_VIEW_TABLES, SERVICES_PER_CAR_VIEW_SQL);
+
+	static final PagedReport TOTAL_BILL_DESC_PAGES = new PagedReport(TOTAL_BILL_TABLES,
+			"SELECT C.id, C.fname, C.lname, T.total "
+			+ "FROM Customer_Bill_Total T JOIN Customer C ON C.id = T.customer_id "
+			+ "WHERE T.closed_count > 0", 4, "total DESC", "id");
+
+	/* The workflow described at InsertServiceRequest: given a last name, or its first letters, list the customers with
+	each of their cars and whether the car's latest service request is open or closed, see CustomerLookup. */
+	public static ResultTable FindCustomersByLastName(MechanicShop esql, String lname) throws SQLException {
+		return esql.measured("FindCustomersByLastName", () -> CustomerLookup.find(esql, lname));
+	}
+
+	public static ResultTable ListCustomersWithBillLessThan100(MechanicShop esql) throws SQLException {//6
+		return esql.measured("ListCustomersWithBillLessThan100", () -> {
+			SnapshotEngine snapshot = esql.getSnapshot();
+			return snapshot != null ? snapshot.customersWithBillLessThan100()
+					: esql.executeCachedQuery(BILL_LESS_THAN_100_TABLES, BILL_LESS_THAN_100_SQL);
+		});
+	}
+
+	public static int ListCustomersWithBillLessThan100(MechanicShop esql, RowHandler handler) throws SQLException {//6
+		return esql.measured("ListCustomersWithBillLessThan100 (streamed)", () ->
+				esql.executeQueryStreaming(BILL_LESS_THAN_100_SQL, DEFAULT_FETCH_SIZE, handler));
 	}
 	
-	public static List<List<String>> ListCustomersWithMoreThan20Cars(MechanicShop esql) throws SQLException {//7
-		return esql.executeQueryAndReturnResult("SELECT DISTINCT C.fname, C.lname " +
-                "FROM Customer C, Owns O " +
-                "WHERE C.id = O.customer_id AND C.id IN (" +
-                "SELECT customer_id " +
-                "FROM Owns " +
-                "GROUP BY customer_id " +
-				"HAVING COUNT(car_vin) > 20);"
-        );
+	public static ResultTable ListCustomersWithMoreThan20Cars(MechanicShop esql) throws SQLException {//7
+		return esql.measured("ListCustomersWithMoreThan20Cars", () -> {
+			SnapshotEngine snapshot = esql.getSnapshot();
+			return snapshot != null ? snapshot.customersWithMoreThan20Cars()
+					: esql.executeReportQuery(ViewRefresher.View.CUSTOMER_CAR_COUNTS,
+							MORE_THAN_20_CARS_VIEW_TABLES, MORE_THAN_20_CARS_VIEW_SQL, MORE_THAN_20_CARS_TABLES, MORE_THAN_20_CARS_SQL);
+		});
+	}
+
+	public static int ListCustomersWithMoreThan20Cars(MechanicShop esql, RowHandler handler) throws SQLException {//7
+		return esql.measured("ListCustomersWithMoreThan20Cars (streamed)", () ->
+				esql.executeQueryStreaming(esql.getViews().isFresh(ViewRefresher.View.CUSTOMER_CAR_COUNTS)
+						? MORE_THAN_20_CARS_VIEW_SQL : MORE_THAN_20_CARS_SQL, DEFAULT_FETCH_SIZE, handler));
 	}
 	
-	public static List<List<String>> ListCarsBefore1995With50000Milles(MechanicShop esql) throws SQLException {//8
-		String query = "SELECT C.make, C.model, C.year "
-				+ "FROM Car	C, Service_Request SR "
-				+ "WHERE C.vin = SR.car_vin "
-				+ "AND C.year < 1995 AND SR.odometer < 50000;";
-		return esql.executeQueryAndReturnResult(query);
+	public static ResultTable ListCarsBefore1995With50000Milles(MechanicShop esql) throws SQLException {//8
+		return esql.measured("ListCarsBefore1995With50000Milles", () -> {
+			SnapshotEngine snapshot = esql.getSnapshot();
+			return snapshot != null ? snapshot.carsBefore1995With50000Miles()
+					: esql.executeReportQuery(ViewRefresher.View.VIN_SERVICE_COUNTS,
+							VIN_SERVICE_COUNTS_VIEW_TABLES, CARS_BEFORE_1995_VIEW_SQL, CARS_BEFORE_1995_TABLES, CARS_BEFORE_1995_SQL);
+		});
+	}
+
+	public static int ListCarsBefore1995With50000Milles(MechanicShop esql, RowHandler handler) throws SQLException {//8
+		return esql.measured("ListCarsBefore1995With50000Milles (streamed)", () ->
+				esql.executeQueryStreaming(esql.getViews().isFresh(ViewRefresher.View.VIN_SERVICE_COUNTS)
+						? CARS_BEFORE_1995_VIEW_SQL : CARS_BEFORE_1995_SQL, DEFAULT_FETCH_SIZE, handler));
 	}
 	
-	public static List<List<String>> ListKCarsWithTheMostServices(MechanicShop esql, int k) throws SQLException {//9
-        List<List<String>> oldList = esql.executeQueryAndReturnResult("SELECT C.make, C.model, COUNT(S.rid) " +
-                "FROM Car C, Service_Request S " +
-                "WHERE C.vin = S.car_vin " +
-                "GROUP BY C.make, C.model, C.vin " +
-                "ORDER BY COUNT(S.rid) DESC;"
-        );
-
-        List<List<String>> newList = new ArrayList<>();
-        for (int i = 0; i < k; i++) {
-            newList.add(oldList.get(i));
-        }
-        return newList;
+	public static ResultTable ListKCarsWithTheMostServices(MechanicShop esql, int k) throws SQLException {//9
+		return esql.measured("ListKCarsWithTheMostServices", () -> {
+			SnapshotEngine snapshot = esql.getSnapshot();
+			return snapshot != null ? snapshot.carsWithTheMostServices(k)
+					: esql.executeReportQuery(ViewRefresher.View.VIN_SERVICE_COUNTS, VIN_SERVICE_COUNTS_VIEW_TABLES,
+							CARS_WITH_MOST_SERVICES_VIEW_SQL, SERVICES_PER_CAR_TABLES, CARS_WITH_MOST_SERVICES_SQL, Math.max(0, k));
+		});
+	}
+
+	public static int ListKCarsWithTheMostServices(MechanicShop esql, int k, RowHandler handler) throws SQLException {//9
+		return esql.measured("ListKCarsWithTheMostServices (streamed)", () ->
+				esql.executeQueryStreaming(esql.getViews().isFresh(ViewRefresher.View.VIN_SERVICE_COUNTS)
+						? CARS_WITH_MOST_SERVICES_VIEW_SQL : CARS_WITH_MOST_SERVICES_SQL, Math.max(1, Math.min(k, DEFAULT_FETCH_SIZE)),
+						handler, Math.max(0, k)));
+	}
+
+	/* Continues ListKCarsWithTheMostServices after the last row of the previous page, given that row's service count
+	and VIN. Keyset paging keeps every page as cheap as the first one. */
+	public static ResultTable ListNextKCarsWithTheMostServices(MechanicShop esql, int k, long afterServices, String afterVin) throws SQLException {//9
+		return esql.measured("ListNextKCarsWithTheMostServices", () ->
+				esql.executeReportQuery(ViewRefresher.View.VIN_SERVICE_COUNTS, VIN_SERVICE_COUNTS_VIEW_TABLES,
+						NEXT_CARS_WITH_MOST_SERVICES_VIEW_SQL, SERVICES_PER_CAR_TABLES, NEXT_CARS_WITH_MOST_SERVICES_SQL,
+						afterServices, afterServices, afterVin, Math.max(0, k)));
+	}
+
+	/* Ranked variant: every car whose service count ranks in the top k, so cars tied with the k-th car are all
+	returned and share its rank. */
+	public static ResultTable ListKCarsWithTheMostServicesRanked(MechanicShop esql, int k) throws SQLException {//9
+		return esql.measured("ListKCarsWithTheMostServicesRanked", () ->
+				esql.executeReportQuery(ViewRefresher.View.VIN_SERVICE_COUNTS, VIN_SERVICE_COUNTS_VIEW_TABLES,
+						RANKED_CARS_WITH_MOST_SERVICES_VIEW_SQL, SERVICES_PER_CAR_TABLES, RANKED_CARS_WITH_MOST_SERVICES_SQL,
+						Math.max(0, k)));
 	}
 	
-	public static List<List<String>> ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql) throws SQLException {//10
-		String query = "SELECT C.fname, C.lname, SUM(CR.bill) " // distinct?
-				+ "FROM Customer C, Closed_Request CR, Service_Request SR "
-				+ "WHERE CR.rid = SR.rid AND SR.customer_id = C.id "
-				+ "GROUP BY C.fname, C.lname "
-				+ "ORDER BY SUM(CR.bill) DESC;";
-		return esql.executeQueryAndReturnResult(query);
+	public static ResultTable ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql) throws SQLException {//10
+		return esql.measured("ListCustomersInDescendingOrderOfTheirTotalBill", () -> {
+			SnapshotEngine snapshot = esql.getSnapshot();
+			return snapshot != null ? snapshot.customersInDescendingOrderOfTheirTotalBill()
+					: esql.executeCachedQuery(TOTAL_BILL_TABLES, TOTAL_BILL_DESC_SQL);
+		});
+	}
+
+	public static int ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql, RowHandler handler) throws SQLException {//10
+		return esql.measured("ListCustomersInDescendingOrderOfTheirTotalBill (streamed)", () ->
+				esql.executeQueryStreaming(TOTAL_BILL_DESC_SQL, DEFAULT_FETCH_SIZE, handler));
+	}
+
+	/* First k rows of ListCustomersInDescendingOrderOfTheirTotalBill, read straight off the index on the totals. */
+	public static ResultTable ListKCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql, int k) throws SQLException {//10
+		return esql.measured("ListKCustomersInDescendingOrderOfTheirTotalBill", () ->
+				esql.executeCachedQuery(TOTAL_BILL_TABLES, TOP_K_TOTAL_BILL_SQL, Math.max(0, k)));
 	}
 	
-}
\ No newline at end of file
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * This class collects per-operation statistics of a MechanicShop handler:
+ * a latency histogram, rows returned, bytes materialized and errors. An
+ * operation is named by the shop method that runs it (AddCustomer,
+ * ListCustomersWithBillLessThan100, ...) through a Scope held by the
+ * calling thread; statements executed outside any scope are counted under
+ * the name of the execute method instead. Every operation is published as
+ * an MBean under MechanicShop:type=Operation and the registry itself under
+ * MechanicShop:type=Metrics, and dump() renders everything as a text table.
+ *
+ */
+
+public class Metrics {
+	private static final AtomicInteger HANDLERS = new AtomicInteger();
+
+	/**
+	 * Management interface of one operation.
+	 */
+	public interface OperationMBean {
+		long getCount();
+		long getErrorCount();
+		long getRowCount();
+		long getBytes();
+		double getMeanMillis();
+		double getP50Millis();
+		double getP90Millis();
+		double getP99Millis();
+		double getMaxMillis();
+		void reset();
+	}
+
+	/**
+	 * Management interface of the registry.
+	 */
+	public interface RegistryMBean {
+		int getOperationCount();
+		String dump();
+		void reset();
+	}
+
+	/**
+	 * Statistics of one named operation.
+	 */
+	public static final class Operation implements OperationMBean {
+		private final String _name;
+		private final LatencyHistogram _latency = new LatencyHistogram();
+		private final LongAdder _errors = new LongAdder();
+		private final LongAdder _rows = new LongAdder();
+		private final LongAdder _bytes = new LongAdder();
+
+		Operation(String name) {
+			this._name = name;
+		}
+
+		void record(long nanos, long rows, long bytes, boolean failed) {
+			this._latency.record(nanos);
+			this._rows.add(rows);
+			this._bytes.add(bytes);
+			if (failed) {
+				this._errors.increment();
+			}
+		}
+
+		public String getName() {
+			return this._name;
+		}
+
+		public LatencyHistogram getLatency() {
+			return this._latency;
+		}
+
+		@Override
+		public long getCount() {
+			return this._latency.getCount();
+		}
+
+		@Override
+		public long getErrorCount() {
+			return this._errors.sum();
+		}
+
+		@Override
+		public long getRowCount() {
+			return this._rows.sum();
+		}
+
+		@Override
+		public long getBytes() {
+			return this._bytes.sum();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			return this._latency.getMean() / 1e6;
+		}
+
+		@Override
+		public double getP50Millis() {
+			return this._latency.getValueAtPercentile(50) / 1e6;
+		}
+
+		@Override
+		public double getP90Millis() {
+			return this._latency.getValueAtPercentile(90) / 1e6;
+		}
+
+		@Override
+		public double getP99Millis() {
+			return this._latency.getValueAtPercentile(99) / 1e6;
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return this._latency.getMax() / 1e6;
+		}
+
+		@Override
+		public void reset() {
+			this._latency.reset();
+			this._errors.reset();
+			this._rows.reset();
+			this._bytes.reset();
+		}
+	}
+
+	/**
+	 * A named operation running on the current thread. Statements executed
+	 * while it is open add their rows, bytes and failures to it, and closing
+	 * it records one latency sample. Nested scopes join the outermost one.
+	 */
+	public final class Scope implements AutoCloseable {
+		private final String _name;
+		private final long _start = System.nanoTime();
+		private int _depth = 1;
+		private long _rows = 0;
+		private long _bytes = 0;
+		private boolean _failed = false;
+
+		private Scope(String name) {
+			this._name = name;
+		}
+
+		/**
+		 * Method to count the operation as failed, for errors that are handled
+		 * without an exception reaching the caller.
+		 */
+		public void fail() {
+			this._failed = true;
+		}
+
+		@Override
+		public void close() {
+			if (--this._depth > 0) {
+				return;
+			}
+			_current.remove();
+			operation(this._name).record(System.nanoTime() - this._start, this._rows, this._bytes, this._failed);
+		}
+	}
+
+	private final Map<String, Operation> _operations = new ConcurrentHashMap<>();
+	private final ThreadLocal<Scope> _current = new ThreadLocal<>();
+	private final boolean _jmx;
+	private final String _handler;
+	private final List<ObjectName> _registered = new ArrayList<>();
+
+	/**
+	 * @param jmx whether to publish the operations as MBeans
+	 */
+	public Metrics(boolean jmx) {
+		this._jmx = jmx;
+		this._handler = Integer.toString(HANDLERS.incrementAndGet());
+		if (jmx) {
+			register("MechanicShop:type=Metrics,handler=" + this._handler,
+					new StandardMBean(this.new Registry(), RegistryMBean.class, false));
+		}
+	}
+
+	private final class Registry implements RegistryMBean {
+		@Override
+		public int getOperationCount() {
+			return _operations.size();
+		}
+
+		@Override
+		public String dump() {
+			return Metrics.this.dump();
+		}
+
+		@Override
+		public void reset() {
+			Metrics.this.reset();
+		}
+	}
+
+	private void register(String name, Object mbean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(name);
+			server.registerMBean(mbean, objectName);
+			synchronized (this._registered) {
+				this._registered.add(objectName);
+			}
+		} catch (JMException e) {
+			System.err.println("Warning: could not register " + name + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to open a named operation on the current thread.
+	 *
+	 * @param name the operation, e.g. the shop method name
+	 * @return the scope to close when the operation ends
+	 */
+	public Scope begin(String name) {
+		Scope scope = this._current.get();
+		if (scope != null) {
+			scope._depth++;
+			return scope;
+		}
+		scope = new Scope(name);
+		this._current.set(scope);
+		return scope;
+	}
+
+	/**
+	 * @return the name of the operation open on the current thread, or null
+	 */
+	public String currentOperation() {
+		Scope scope = this._current.get();
+		return scope == null ? null : scope._name;
+	}
+
+	/**
+	 * Method to record one executed statement, against the operation open
+	 * on this thread or, without one, as an operation of its own.
+	 *
+	 * @param name the operation name to use outside any scope
+	 * @param nanos how long the statement took
+	 * @param rows rows returned or affected
+	 * @param bytes estimated heap taken by the materialized result
+	 * @param failed whether the statement threw
+	 */
+	public void statement(String name, long nanos, long rows, long bytes, boolean failed) {
+		Scope scope = this._current.get();
+		if (scope == null) {
+			operation(name).record(nanos, rows, bytes, failed);
+			return;
+		}
+		scope._rows += rows;
+		scope._bytes += bytes;
+		scope._failed |= failed;
+	}
+
+	/**
+	 * Method to look up an operation, creating it on first use.
+	 *
+	 * @param name the operation name
+	 * @return its statistics
+	 */
+	public Operation operation(String name) {
+		Operation operation = this._operations.get(name);
+		if (operation != null) {
+			return operation;
+		}
+		Operation created = new Operation(name);
+		operation = this._operations.putIfAbsent(name, created);
+		if (operation != null) {
+			return operation;
+		}
+		if (this._jmx) {
+			register("MechanicShop:type=Operation,handler=" + this._handler + ",name=" + ObjectName.quote(name),
+					new StandardMBean(created, OperationMBean.class, false));
+		}
+		return created;
+	}
+
+	/**
+	 * @return the operations seen so far, by name
+	 */
+	public Map<String, Operation> operations() {
+		return new TreeMap<>(this._operations);
+	}
+
+	/**
+	 * Method to clear the statistics of every operation.
+	 */
+	public void reset() {
+		for (Operation operation : this._operations.values()) {
+			operation.reset();
+		}
+	}
+
+	/**
+	 * Method to render the statistics of every operation as a text table.
+	 *
+	 * @return one line per operation, latencies in milliseconds
+	 */
+	public String dump() {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-48s %9s %7s %10s %12s %9s %9s %9s %9s%n",
+				"operation", "count", "errors", "rows", "bytes", "mean", "p50", "p99", "max"));
+		for (Operation op : operations().values()) {
+			out.append(String.format("%-48s %9d %7d %10d %12d %9.3f %9.3f %9.3f %9.3f%n", op.getName(), op.getCount(),
+					op.getErrorCount(), op.getRowCount(), op.getBytes(), op.getMeanMillis(), op.getP50Millis(),
+					op.getP99Millis(), op.getMaxMillis()));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Method to write the text dump to a file.
+	 *
+	 * @param file the output file, replaced if it exists
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public void writeTo(Path file) throws IOException {
+		Files.write(file, ("Metrics captured " + LocalDateTime.now() + "\n\n" + dump()).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to remove the MBeans published by this registry.
+	 */
+	public void close() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		synchronized (this._registered) {
+			for (ObjectName name : this._registered) {
+				try {
+					server.unregisterMBean(name);
+				} catch (JMException e) {
+					// ignored.
+				}
+			}
+			this._registered.clear();
+		}
+	}
+}
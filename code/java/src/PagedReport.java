@@ -0,0 +1,249 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class reads a report one page at a time with keyset pagination. The
+ * report query is wrapped as a subquery and ordered by a unique sort key;
+ * the next page starts after the key of the last row seen, so a page costs
+ * the same wherever it is in the result instead of growing with an OFFSET.
+ * Key columns that are not part of the report itself are selected after
+ * the visible columns and are not shown. The first page goes through the
+ * report cache under the tables the report reads, like the List* report
+ * methods, so opening a report again costs nothing until one of them is
+ * written. A report with a materialized view of the same rows reads the
+ * view while ViewRefresher counts it fresh; both queries have the same
+ * key columns, so paging goes on across a change between them.
+ *
+ */
+
+public class PagedReport {
+	/**
+	 * One column of the sort key.
+	 */
+	public record Key(String column, boolean descending) {
+	}
+
+	/**
+	 * What is needed to show a report: its first rows, and its size when
+	 * those are all there is (-1 when more rows may follow).
+	 */
+	public record FirstPage(int rowCount, ResultTable rows) {
+	}
+
+	private final String[] _tables;
+	private final String _sql;
+	private final int _visibleColumns;
+	private final Key[] _keys;
+	private final int _limit;
+	private final boolean _uniform;
+	private final String _firstPageSql;
+	private final String _nextPageSql;
+	//the same report over a materialized view, read while the view is fresh; null when there is none
+	private final ViewRefresher.View _view;
+	private final PagedReport _overView;
+
+	/**
+	 * Creates the pager of a report.
+	 *
+	 * @param tables the tables the report reads, for the report cache
+	 * @param sql the report query without ORDER BY or LIMIT
+	 * @param visibleColumns how many leading columns are shown to the user
+	 * @param keys the sort key, e.g. "services DESC", "vin"; together unique per row
+	 */
+	public PagedReport(String[] tables, String sql, int visibleColumns, String... keys) {
+		this(tables, sql, visibleColumns, parse(keys), -1, null, null);
+	}
+
+	private PagedReport(String[] tables, String sql, int visibleColumns, Key[] keys, int limit, ViewRefresher.View view,
+			PagedReport overView) {
+		this._view = view;
+		this._overView = overView;
+		this._tables = tables;
+		this._sql = sql;
+		this._visibleColumns = visibleColumns;
+		this._keys = keys;
+		this._limit = limit;
+		boolean uniform = true;
+		for (Key key : keys) {
+			uniform &= key.descending() == keys[0].descending();
+		}
+		this._uniform = uniform;
+		StringBuilder orderBy = new StringBuilder(" ORDER BY ");
+		for (int i = 0; i < keys.length; i++) {
+			orderBy.append(i == 0 ? "" : ", ").append("R.").append(keys[i].column()).append(keys[i].descending() ? " DESC" : "");
+		}
+		this._firstPageSql = "SELECT * FROM (" + sql + ") R" + orderBy + " LIMIT ? OFFSET ?";
+		this._nextPageSql = "SELECT * FROM (" + sql + ") R WHERE " + after(keys, uniform) + orderBy + " LIMIT ? OFFSET ?";
+	}
+
+	private static Key[] parse(String[] keys) {
+		Key[] parsed = new Key[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			String[] parts = keys[i].trim().split("\\s+");
+			parsed[i] = new Key(parts[0], parts.length > 1 && parts[1].equalsIgnoreCase("DESC"));
+		}
+		return parsed;
+	}
+
+	/*
+	 * Rows after a key: a row comparison when all key columns sort the same way, so the
+	 * planner can use a matching index, otherwise the expanded form
+	 * (k1 > ?) OR (k1 = ? AND k2 < ?) ...
+	 */
+	private static String after(Key[] keys, boolean uniform) {
+		if (uniform) {
+			StringBuilder columns = new StringBuilder();
+			StringBuilder marks = new StringBuilder();
+			for (int i = 0; i < keys.length; i++) {
+				columns.append(i == 0 ? "" : ", ").append("R.").append(keys[i].column());
+				marks.append(i == 0 ? "?" : ", ?");
+			}
+			return "(" + columns + ") " + (keys[0].descending() ? "<" : ">") + " (" + marks + ")";
+		}
+		StringBuilder where = new StringBuilder();
+		for (int i = 0; i < keys.length; i++) {
+			where.append(i == 0 ? "(" : " OR (");
+			for (int j = 0; j < i; j++) {
+				where.append("R.").append(keys[j].column()).append(" = ? AND ");
+			}
+			where.append("R.").append(keys[i].column()).append(keys[i].descending() ? " < ?" : " > ?").append(")");
+		}
+		return where.toString();
+	}
+
+	/**
+	 * Method to read the report from a materialized view while it is fresh,
+	 * as executeReportQuery does.
+	 *
+	 * @param view the view
+	 * @param viewTables the tables the view query reads, for the report cache
+	 * @param viewSql the report over the view, with the same columns and key columns as the report
+	 * @return a pager that reads the view when it may
+	 */
+	public PagedReport overView(ViewRefresher.View view, String[] viewTables, String viewSql) {
+		return new PagedReport(this._tables, this._sql, this._visibleColumns, this._keys, this._limit, view,
+				new PagedReport(viewTables, viewSql, this._visibleColumns, this._keys, this._limit, null, null));
+	}
+
+	/**
+	 * Method to restrict the report to its first rows, as for the top k cars.
+	 *
+	 * @param limit the maximum number of rows
+	 * @return a pager over at most limit rows
+	 */
+	public PagedReport limit(int limit) {
+		return new PagedReport(this._tables, this._sql, this._visibleColumns, this._keys, Math.max(0, limit), this._view,
+				this._overView == null ? null : this._overView.limit(limit));
+	}
+
+	/*
+	 * The pager to read now: the one over the view while the view is fresh, otherwise this one.
+	 */
+	private PagedReport source(MechanicShop esql) {
+		return this._view != null && esql.getViews().isFresh(this._view) ? this._overView : this;
+	}
+
+	public int getVisibleColumns() {
+		return this._visibleColumns;
+	}
+
+	/**
+	 * @return the maximum number of rows, or -1 for all of them
+	 */
+	public int getLimit() {
+		return this._limit;
+	}
+
+	/**
+	 * Method to count the rows of the report.
+	 *
+	 * @param esql the database handler
+	 * @return the number of rows, at most the limit
+	 * @throws java.sql.SQLException when the count failed
+	 */
+	public int count(MechanicShop esql) throws SQLException {
+		PagedReport source = source(esql);
+		if (source != this) {
+			return source.count(esql);
+		}
+		ResultTable count = esql.executeQueryAndReturnTable("SELECT count(*) FROM (" + this._sql + ") R");
+		long rows = count.getLong(0, 0);
+		return (int) (this._limit < 0 ? rows : Math.min(rows, this._limit));
+	}
+
+	/**
+	 * Method to read the first page. The report is not counted: a short
+	 * first page is the whole report, otherwise its size is only known once
+	 * the page where it ends has been read. The page comes from the report
+	 * cache when it is there.
+	 *
+	 * @param esql the database handler
+	 * @param size the page size
+	 * @return the first page, with the row count when it holds every row
+	 * @throws java.sql.SQLException when the report could not be read
+	 */
+	public FirstPage open(MechanicShop esql, int size) throws SQLException {
+		PagedReport source = source(esql);
+		if (source != this) {
+			return source.open(esql, size);
+		}
+		int wanted = this._limit < 0 ? size : Math.min(size, this._limit);
+		ResultTable rows = esql.executeCachedQuery(this._tables, this._firstPageSql, wanted, 0);
+		boolean whole = rows.getRowCount() < size || rows.getRowCount() == this._limit;
+		return new FirstPage(whole ? rows.getRowCount() : -1, rows);
+	}
+
+	/**
+	 * Method to read a page.
+	 *
+	 * @param esql the database handler
+	 * @param after the key of the row before the page as returned by lastKey, or null from the start
+	 * @param skip rows to skip after that key, to reach a page whose predecessor was never read
+	 * @param size the page size
+	 * @return the rows of the page, key columns included
+	 * @throws java.sql.SQLException when the page could not be read
+	 */
+	public ResultTable page(MechanicShop esql, Object[] after, int skip, int size) throws SQLException {
+		PagedReport source = source(esql);
+		if (source != this) {
+			return source.page(esql, after, skip, size);
+		}
+		if (after == null) {
+			return esql.executeQueryAndReturnTable(this._firstPageSql, size, skip);
+		}
+		List<Object> params = new ArrayList<>();
+		if (this._uniform) {
+			params.addAll(Arrays.asList(after));
+		} else {
+			for (int i = 0; i < this._keys.length; i++) {
+				params.addAll(Arrays.asList(after).subList(0, i + 1));
+			}
+		}
+		params.add(size);
+		params.add(skip);
+		return esql.executeQueryAndReturnTable(this._nextPageSql, params.toArray());
+	}
+
+	/**
+	 * Method to read the sort key of the last row of a page.
+	 *
+	 * @param page a page returned by page()
+	 * @return the key values, or null for an empty page
+	 */
+	public Object[] lastKey(ResultTable page) {
+		int row = page.getRowCount() - 1;
+		if (row < 0) {
+			return null;
+		}
+		Object[] key = new Object[this._keys.length];
+		for (int i = 0; i < this._keys.length; i++) {
+			Object value = page.getObject(row, page.findColumn(this._keys[i].column()));
+			//bound as numeric so the comparison stays on the column's own type
+			key[i] = value instanceof Double ? BigDecimal.valueOf((Double) value) : value;
+		}
+		return key;
+	}
+}
@@ -0,0 +1,175 @@
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * TableView over a report that is read page by page while the user scrolls.
+ * The report is not counted up front: until the page where it ends has been
+ * read, the table reaches one page past the rows read so far. A cell whose
+ * page is not in memory shows a placeholder and asks for the page, which is
+ * fetched in the background with keyset pagination. At most WINDOW_PAGES pages are kept,
+ * the least recently used one is dropped first, so memory does not grow
+ * with the size of the report.
+ */
+public class PagedTableView {
+    static final int PAGE_SIZE = 200;
+    static final int WINDOW_PAGES = 8;
+    static final String PLACEHOLDER = "...";
+
+    private PagedTableView() {
+    }
+
+    /**
+     * Row indexes 0..n-1 of the report, with the pages behind them.
+     */
+    private static final class PagedRowList extends ObservableListBase<Integer> {
+        private final AsyncMechanicShop shop;
+        private final PagedReport report;
+        private int size;
+        // false once the page holding the last row has been read
+        private boolean more;
+        private final Map<Integer, ResultTable> pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ResultTable> eldest) {
+                return size() > WINDOW_PAGES;
+            }
+        };
+        // key of the last row before each page that has been read so far; page 0 starts at null
+        private final TreeMap<Integer, Object[]> starts = new TreeMap<>();
+        private final Set<Integer> loading = new HashSet<>();
+
+        PagedRowList(AsyncMechanicShop shop, PagedReport report, PagedReport.FirstPage first) {
+            this.shop = shop;
+            this.report = report;
+            this.more = first.rowCount() < 0;
+            this.size = more ? extent(first.rows().getRowCount()) : first.rowCount();
+            this.starts.put(0, null);
+            this.pages.put(0, first.rows());
+            Object[] last = report.lastKey(first.rows());
+            if (last != null) {
+                this.starts.put(1, last);
+            }
+        }
+
+        /*
+         * Size while the end is unknown: the rows read so far and one page more, within the report's limit.
+         */
+        private int extent(int known) {
+            int limit = report.getLimit();
+            return limit < 0 ? known + PAGE_SIZE : Math.min(known + PAGE_SIZE, limit);
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+            }
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Value of a cell, or the placeholder while its page is being read.
+         * Called on the JavaFX thread only, like every other method here.
+         */
+        String getString(int row, int column) {
+            int page = row / PAGE_SIZE;
+            ResultTable table = pages.get(page);
+            if (table == null) {
+                load(page);
+                return PLACEHOLDER;
+            }
+            int offset = row - page * PAGE_SIZE;
+            return offset < table.getRowCount() ? table.getString(offset, column) : null;
+        }
+
+        private void load(int page) {
+            if (!loading.add(page)) {
+                return;
+            }
+            // start from the nearest page whose starting key is known; jumping past unread pages
+            // skips the rows in between
+            Map.Entry<Integer, Object[]> start = starts.floorEntry(page);
+            int skip = (page - start.getKey()) * PAGE_SIZE;
+            Object[] after = start.getValue();
+            shop.submit(esql -> report.page(esql, after, skip, PAGE_SIZE)).whenComplete((table, error) ->
+                    Platform.runLater(() -> {
+                        loading.remove(page);
+                        if (error != null) {
+                            System.err.println("Could not read rows " + page * PAGE_SIZE + "-" + ((page + 1) * PAGE_SIZE - 1)
+                                    + ": " + error.getMessage());
+                            return;
+                        }
+                        pages.put(page, table);
+                        Object[] last = report.lastKey(table);
+                        if (last != null) {
+                            starts.put(page + 1, last);
+                        }
+                        int from = page * PAGE_SIZE;
+                        int to = Math.min(size, from + table.getRowCount());
+                        int oldSize = size;
+                        if (more && table.getRowCount() < PAGE_SIZE) {
+                            // the report ends on this page
+                            more = false;
+                            size = Math.min(size, from + table.getRowCount());
+                        } else if (more) {
+                            size = Math.max(size, extent(from + table.getRowCount()));
+                            more = size < report.getLimit() || report.getLimit() < 0;
+                        }
+                        if (from < to || size != oldSize) {
+                            beginChange();
+                            for (int i = from; i < to; i++) {
+                                nextUpdate(i);
+                            }
+                            if (size > oldSize) {
+                                nextAdd(oldSize, size);
+                            } else if (size < oldSize) {
+                                List<Integer> removed = new ArrayList<>(oldSize - size);
+                                for (int i = size; i < oldSize; i++) {
+                                    removed.add(i);
+                                }
+                                nextRemove(size, removed);
+                            }
+                            endChange();
+                        }
+                    }));
+        }
+    }
+
+    /**
+     * Method to build the view of a report from its first page.
+     *
+     * @param shop the handler the other pages are read through
+     * @param report the report and its sort key
+     * @param first the first page, see PagedReport.open
+     * @return a table that reads its rows on demand
+     */
+    public static TableView<Integer> create(AsyncMechanicShop shop, PagedReport report, PagedReport.FirstPage first) {
+        PagedRowList rows = new PagedRowList(shop, report, first);
+        TableView<Integer> table = new TableView<>(rows);
+        for (int i = 0; i < report.getVisibleColumns(); i++) {
+            final int colNo = i;
+            TableColumn<Integer, String> tc = new TableColumn<>(first.rows().getColumnName(i));
+            tc.setCellValueFactory(p -> new ReadOnlyStringWrapper(rows.getString(p.getValue(), colNo)));
+            tc.setPrefWidth(90);
+            // sorting would reorder the row indexes only, not the pages behind them
+            tc.setSortable(false);
+            table.getColumns().add(tc);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class records the EXPLAIN (ANALYZE, BUFFERS) output of the report
+ * queries so a schema change can be judged by its plans. SchemaMigrator
+ * captures the plans before and after applying migrations and writes both
+ * side by side with a summary of estimated cost and execution time.
+ *
+ */
+
+public class PlanCheck {
+	private static final Pattern TOTAL_COST = Pattern.compile("cost=[0-9.]+\\.\\.([0-9.]+)");
+	private static final Pattern EXECUTION_TIME = Pattern.compile("Execution [Tt]ime: ([0-9.]+) ms");
+	//undefined table, column and function: the report needs a migration that has not been applied yet
+	private static final Set<String> UNDEFINED_OBJECT_STATES = Set.of("42P01", "42703", "42883");
+
+	/**
+	 * The captured plan of one report.
+	 */
+	public record Plan(String text, double totalCost, double executionMillis) {
+	}
+
+	/**
+	 * A report query with sample values for its parameters.
+	 */
+	record Query(String sql, Object... params) {
+	}
+
+	private PlanCheck() {
+	}
+
+	/**
+	 * Method to list the report queries that are checked.
+	 *
+	 * @return the SQL of each report by report name
+	 */
+	static Map<String, Query> reports() {
+		Map<String, Query> reports = new LinkedHashMap<>();
+		reports.put("ListCustomersWithBillLessThan100", new Query(MechanicShop.BILL_LESS_THAN_100_SQL));
+		reports.put("ListCustomersWithMoreThan20Cars", new Query(MechanicShop.MORE_THAN_20_CARS_SQL));
+		reports.put("ListCarsBefore1995With50000Milles", new Query(MechanicShop.CARS_BEFORE_1995_SQL));
+		reports.put("ListKCarsWithTheMostServices", new Query(MechanicShop.CARS_WITH_MOST_SERVICES_SQL, 10));
+		reports.put("ListCustomersInDescendingOrderOfTheirTotalBill", new Query(MechanicShop.TOTAL_BILL_DESC_SQL));
+		return reports;
+	}
+
+	/**
+	 * Method to run EXPLAIN (ANALYZE, BUFFERS) on every report query. The
+	 * reports are read-only, so actually executing them is harmless. A
+	 * report that reads a table, column or function a pending migration
+	 * adds, e.g. Customer_Bill_Total before V7, gets an empty plan.
+	 *
+	 * @param esql the database handler
+	 * @return the plan of each report by report name
+	 * @throws java.sql.SQLException when a query cannot be explained
+	 */
+	public static Map<String, Plan> capture(MechanicShop esql) throws SQLException {
+		Map<String, Plan> plans = new LinkedHashMap<>();
+		for (Map.Entry<String, Query> report : reports().entrySet()) {
+			Query query = report.getValue();
+			try {
+				plans.put(report.getKey(), explain(esql, query.sql(), query.params()));
+			} catch (SQLException e) {
+				if (!UNDEFINED_OBJECT_STATES.contains(e.getSQLState())) {
+					throw e;
+				}
+				plans.put(report.getKey(), new Plan("no plan: " + e.getMessage() + "\n", Double.NaN, Double.NaN));
+			}
+		}
+		return plans;
+	}
+
+	/**
+	 * Method to explain a single statement.
+	 *
+	 * @param esql the database handler
+	 * @param sql the statement to explain
+	 * @param params the values bound to its placeholders
+	 * @return the plan text with its total cost and execution time
+	 * @throws java.sql.SQLException when the statement cannot be explained
+	 */
+	public static Plan explain(MechanicShop esql, String sql, Object... params) throws SQLException {
+		StringBuilder text = new StringBuilder();
+		for (List<String> line : esql.executeQueryAndReturnResult("EXPLAIN (ANALYZE, BUFFERS) " + sql, params)) {
+			text.append(line.get(0)).append('\n');
+		}
+		return new Plan(text.toString(), match(TOTAL_COST, text), match(EXECUTION_TIME, text));
+	}
+
+	private static double match(Pattern pattern, CharSequence text) {
+		Matcher m = pattern.matcher(text);
+		return m.find() ? Double.parseDouble(m.group(1)) : Double.NaN;
+	}
+
+	/**
+	 * Method to write the before and after plans of every report to a file.
+	 *
+	 * @param file the output file, replaced if it exists
+	 * @param before plans captured before the change
+	 * @param after plans captured after the change
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public static void write(Path file, Map<String, Plan> before, Map<String, Plan> after) throws IOException {
+		try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			out.write("Report plans captured " + LocalDateTime.now() + "\n\n");
+			out.write(String.format("%-48s %14s %14s %12s %12s%n", "report", "cost before", "cost after", "ms before", "ms after"));
+			for (String report : before.keySet()) {
+				Plan b = before.get(report);
+				Plan a = after.get(report);
+				out.write(String.format("%-48s %14.2f %14.2f %12.3f %12.3f%n", report,
+						b.totalCost(), a.totalCost(), b.executionMillis(), a.executionMillis()));
+			}
+			for (String report : before.keySet()) {
+				out.write("\n=== " + report + " ===\n--- before ---\n");
+				out.write(before.get(report).text());
+				out.write("--- after ---\n");
+				out.write(after.get(report).text());
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.core.BaseConnection;
+
+/**
+ * This class wraps a physical database connection handed out by a
+ * ConnectionPool. It remembers when the connection was created and last
+ * returned so the pool can evict connections that have been idle too long.
+ * Each connection also owns an LRU cache of prepared statements keyed by
+ * their SQL text, so repeated statements are parsed and planned by the
+ * server only once per connection.
+ *
+ */
+
+public class PooledConnection {
+	//maximum prepared statements kept open per connection, overridable with -Dmechanicshop.statementCacheSize
+	static final int STATEMENT_CACHE_SIZE = Integer.getInteger("mechanicshop.statementCacheSize", 64);
+
+	//reference to physical database connection
+	private final Connection _connection;
+	private final long _createdAt;
+	private long _lastReturnedAt;
+	private final Map<String, PreparedStatement> _statements;
+	private long _statementHits = 0;
+	private long _statementMisses = 0;
+
+	PooledConnection(Connection connection) {
+		this._connection = connection;
+		this._createdAt = System.nanoTime();
+		this._lastReturnedAt = this._createdAt;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > STATEMENT_CACHE_SIZE) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Method to access the underlying JDBC connection.
+	 *
+	 * @return the physical connection
+	 */
+	public Connection connection() {
+		return this._connection;
+	}
+
+	/**
+	 * Method to obtain a prepared statement for the given SQL text. The
+	 * statement is cached on this connection and must not be closed by the
+	 * caller; only its result sets should be closed.
+	 *
+	 * @param sql the parameterized SQL string
+	 * @return a cached or newly prepared statement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()) {
+			this._statementHits++;
+			stmt.clearParameters();
+			return stmt;
+		}
+		this._statementMisses++;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Method to drop a cached statement, e.g. after it failed in a way that
+	 * leaves it unusable.
+	 *
+	 * @param sql the SQL text the statement was prepared with
+	 */
+	public void evictStatement(String sql) {
+		closeQuietly(this._statements.remove(sql));
+	}
+
+	public int getCachedStatementCount() {
+		return this._statements.size();
+	}
+
+	public long getStatementHits() {
+		return this._statementHits;
+	}
+
+	public long getStatementMisses() {
+		return this._statementMisses;
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		if (stmt == null) {
+			return;
+		}
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	/**
+	 * Method to ask the server to cancel whatever statement is running on
+	 * this connection. Safe to call from any thread.
+	 *
+	 * @return true if the cancel request was sent
+	 */
+	public boolean cancelRunningStatement() {
+		try {
+			this._connection.unwrap(BaseConnection.class).cancelQuery();
+			return true;
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	long createdAt() {
+		return this._createdAt;
+	}
+
+	long lastReturnedAt() {
+		return this._lastReturnedAt;
+	}
+
+	void markReturned() {
+		this._lastReturnedAt = System.nanoTime();
+	}
+
+	/**
+	 * Method to check that the physical connection is still usable.
+	 *
+	 * @param timeoutSeconds how long the driver may wait for the server
+	 * @return true if the connection answered in time
+	 */
+	boolean isValid(int timeoutSeconds) {
+		try {
+			return !this._connection.isClosed() && this._connection.isValid(timeoutSeconds);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Method to close the physical connection, ignoring errors.
+	 */
+	void close() {
+		for (PreparedStatement stmt : this._statements.values()) {
+			closeQuietly(stmt);
+		}
+		this._statements.clear();
+		try {
+			this._connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,193 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class keeps the results of the report queries between calls. An
+ * entry is keyed by the report SQL and its parameter values and remembers
+ * the tables the report reads; a write to one of those tables drops it.
+ * The cache is bounded by the estimated heap size of the cached tables,
+ * evicting the least recently used entries first. Cached tables are shared
+ * between callers and must be treated as read-only.
+ *
+ */
+
+public class ReportCache {
+	/**
+	 * Loads a report on a cache miss.
+	 */
+	public interface Loader {
+		ResultTable load() throws SQLException;
+	}
+
+	private record Key(String sql, List<Object> params) {
+	}
+
+	private record Entry(ResultTable table, long bytes, String[] tables) {
+	}
+
+	private final long _maxBytes;
+	private final LinkedHashMap<Key, Entry> _entries = new LinkedHashMap<>(16, 0.75f, true);
+	//bumped on every write to a table; a load that overlapped a write is not cached
+	private final Map<String, Long> _versions = new HashMap<>();
+	private long _epoch = 0;
+	private long _bytes = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _invalidations = 0;
+
+	/**
+	 * @param maxBytes the total estimated size of the cached tables; 0 disables caching
+	 */
+	public ReportCache(long maxBytes) {
+		this._maxBytes = maxBytes;
+	}
+
+	/**
+	 * Method to return a cached report or load and cache it.
+	 *
+	 * @param tables the tables the report reads
+	 * @param sql the report query
+	 * @param params the values bound to its placeholders
+	 * @param loader runs the query on a miss
+	 * @return the report, possibly shared with other callers
+	 * @throws java.sql.SQLException when the report had to be loaded and failed
+	 */
+	public ResultTable get(String[] tables, String sql, Object[] params, Loader loader) throws SQLException {
+		Key key = new Key(sql, Arrays.asList(params.clone()));
+		long version;
+		synchronized (this) {
+			Entry entry = this._entries.get(key);
+			if (entry != null) {
+				this._hits++;
+				return entry.table();
+			}
+			this._misses++;
+			version = version(tables);
+		}
+		ResultTable table = loader.load();
+		long bytes = table.estimatedBytes();
+		synchronized (this) {
+			if (bytes <= this._maxBytes && version == version(tables)) {
+				Entry previous = this._entries.put(key, new Entry(table, bytes, tables));
+				if (previous != null) {
+					this._bytes -= previous.bytes();
+				}
+				this._bytes += bytes;
+				evict();
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Method to return a cached report without loading it on a miss. Peeks
+	 * are not counted as hits or misses.
+	 *
+	 * @param sql the report query
+	 * @param params the values bound to its placeholders
+	 * @return the cached report, shared with other callers, or null
+	 */
+	public synchronized ResultTable peek(String sql, Object[] params) {
+		Entry entry = this._entries.get(new Key(sql, Arrays.asList(params.clone())));
+		return entry == null ? null : entry.table();
+	}
+
+	private long version(String[] tables) {
+		long version = this._epoch;
+		for (String table : tables) {
+			version += this._versions.getOrDefault(table.toLowerCase(Locale.ROOT), 0L);
+		}
+		return version;
+	}
+
+	private void evict() {
+		Iterator<Entry> eldest = this._entries.values().iterator();
+		while (this._bytes > this._maxBytes && eldest.hasNext()) {
+			this._bytes -= eldest.next().bytes();
+			eldest.remove();
+			this._evictions++;
+		}
+	}
+
+	/**
+	 * Method to drop every report that reads a table.
+	 *
+	 * @param table the table that was written
+	 */
+	public synchronized void invalidate(String table) {
+		String name = table.toLowerCase(Locale.ROOT);
+		this._versions.merge(name, 1L, Long::sum);
+		Iterator<Entry> entries = this._entries.values().iterator();
+		while (entries.hasNext()) {
+			Entry entry = entries.next();
+			for (String read : entry.tables()) {
+				if (read.equalsIgnoreCase(name)) {
+					this._bytes -= entry.bytes();
+					entries.remove();
+					this._invalidations++;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to drop every cached report, e.g. after a schema change.
+	 */
+	public synchronized void invalidateAll() {
+		this._epoch++;
+		this._invalidations += this._entries.size();
+		this._entries.clear();
+		this._bytes = 0;
+	}
+
+	public synchronized long getHitCount() {
+		return this._hits;
+	}
+
+	public synchronized long getMissCount() {
+		return this._misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return this._evictions;
+	}
+
+	public synchronized long getInvalidationCount() {
+		return this._invalidations;
+	}
+
+	public synchronized int getEntryCount() {
+		return this._entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return this._bytes;
+	}
+
+	public long getMaxBytes() {
+		return this._maxBytes;
+	}
+
+	/**
+	 * @return the fraction of lookups answered from the cache
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0 : (double) this._hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ReportCache[entries=" + this._entries.size() + ", bytes=" + this._bytes + "/" + this._maxBytes
+				+ ", hits=" + this._hits + ", misses=" + this._misses + ", evictions=" + this._evictions
+				+ ", invalidations=" + this._invalidations + "]";
+	}
+}
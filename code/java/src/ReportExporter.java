@@ -0,0 +1,700 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class exports a report to a file while its rows arrive from a
+ * server-side cursor, so memory stays the same however large the report
+ * is. Rows are encoded into a large direct buffer that is written to a
+ * FileChannel whenever it fills up; with gzip the buffer is deflated into
+ * a second direct buffer first. The file is written under a .part name and
+ * moved into place once complete, so a failed export leaves nothing behind.
+ *
+ * Two formats are written. CSV follows RFC 4180: a header line, fields
+ * quoted when they hold a comma, quote or line break, NULL as an empty
+ * field. BINARY is typed and columnar, all numbers big-endian:
+ *
+ *   header  "MSRB", short version, short columns, then per column a byte
+ *           (the ResultTable.ColumnType ordinal) and a short-prefixed
+ *           UTF-8 label
+ *   block   int rows (0 ends the file), then per column an int byte count
+ *           and its section: a null bitmap of (rows + 7) / 8 bytes, bit
+ *           r % 8 of byte r / 8 set for a NULL in row r, followed by the
+ *           values of the non-NULL rows: 4 bytes per INT, 8 per LONG and
+ *           DOUBLE, epoch milliseconds per TIMESTAMP and DATE; a STRING section
+ *           holds a varint dictionary size, the entries as varint length
+ *           and UTF-8 bytes, then a varint dictionary code per value
+ *
+ * A block holds up to BLOCK_ROWS rows. read() loads such a file back.
+ *
+ */
+
+public class ReportExporter implements MechanicShop.RowHandler, AutoCloseable {
+	/**
+	 * File formats of an export.
+	 */
+	public enum Format { CSV, BINARY }
+
+	/**
+	 * Size and speed of a finished export.
+	 */
+	public record ExportResult(Path file, long rows, long bytes, long fileBytes, double seconds) {
+		/**
+		 * @return encoded megabytes, before compression, per second
+		 */
+		public double getMegabytesPerSecond() {
+			return this.seconds == 0 ? 0 : this.bytes / 1e6 / this.seconds;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Exported %d rows to %s: %.1f MB (%.1f MB on disk) in %.3f s, %.1f MB/s", this.rows, this.file,
+					this.bytes / 1e6, this.fileBytes / 1e6, this.seconds, getMegabytesPerSecond());
+		}
+	}
+
+	/**
+	 * A report that hands its rows to a handler, like the streamed report
+	 * methods of MechanicShop.
+	 */
+	public interface Streamed {
+		int run(MechanicShop.RowHandler handler) throws SQLException;
+	}
+
+	//size of each direct buffer
+	static final int BUFFER_BYTES = Integer.getInteger("mechanicshop.export.bufferBytes", 4 << 20);
+	//rows per block of the binary format
+	static final int BLOCK_ROWS = Integer.getInteger("mechanicshop.export.blockRows", 8192);
+	//exports are large and read once: favour speed over ratio
+	static final int GZIP_LEVEL = Integer.getInteger("mechanicshop.export.gzipLevel", Deflater.BEST_SPEED);
+	static final byte[] MAGIC = {'M', 'S', 'R', 'B'};
+	static final short VERSION = 1;
+	static final int DEFAULT_K = 10;
+
+	//the five reports, by the name they are exported and served under
+	static final String[] REPORTS = {
+			"customers-with-bill-less-than-100",
+			"customers-with-more-than-20-cars",
+			"cars-before-1995-with-50000-miles",
+			"k-cars-with-the-most-services",
+			"customers-in-descending-order-of-their-total-bill"};
+
+	/**
+	 * Method to stream a report by name through its cursor-backed method.
+	 *
+	 * @param esql the handler the report runs on
+	 * @param report one of REPORTS
+	 * @param k the number of cars of k-cars-with-the-most-services
+	 * @param handler receives the rows
+	 * @return the number of rows streamed
+	 * @throws java.sql.SQLException when the report query failed
+	 * @throws java.lang.IllegalArgumentException when there is no such report
+	 */
+	public static int streamReport(MechanicShop esql, String report, int k, MechanicShop.RowHandler handler) throws SQLException {
+		switch (report) {
+			case "customers-with-bill-less-than-100": return MechanicShop.ListCustomersWithBillLessThan100(esql, handler);
+			case "customers-with-more-than-20-cars": return MechanicShop.ListCustomersWithMoreThan20Cars(esql, handler);
+			case "cars-before-1995-with-50000-miles": return MechanicShop.ListCarsBefore1995With50000Milles(esql, handler);
+			case "k-cars-with-the-most-services": return MechanicShop.ListKCarsWithTheMostServices(esql, k, handler);
+			case "customers-in-descending-order-of-their-total-bill": return MechanicShop.ListCustomersInDescendingOrderOfTheirTotalBill(esql, handler);
+			default: throw new IllegalArgumentException("no such report: " + report + ", expected one of " + String.join(", ", REPORTS));
+		}
+	}
+
+	/**
+	 * Method to export a report to a file.
+	 *
+	 * @param file the file to write; replaced if it exists
+	 * @param format the file format
+	 * @param gzip whether to compress the file
+	 * @param report streams the rows
+	 * @return rows and bytes written, and the speed
+	 * @throws java.sql.SQLException when the report failed
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public static ExportResult export(Path file, Format format, boolean gzip, Streamed report) throws SQLException, IOException {
+		long start = System.nanoTime();
+		Path part = file.resolveSibling(file.getFileName() + ".part");
+		ReportExporter exporter = new ReportExporter(part, format, gzip);
+		boolean done = false;
+		try {
+			try {
+				report.run(exporter);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			exporter.finish();
+			exporter.close();
+			Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+			done = true;
+			return new ExportResult(file, exporter._rows, exporter._sink._bytes, Files.size(file), (System.nanoTime() - start) / 1e9);
+		} finally {
+			if (!done) {
+				exporter.close();
+				Files.deleteIfExists(part);
+			}
+		}
+	}
+
+	/**
+	 * Method to export a report named on a command line.
+	 *
+	 * @param esql the handler the report runs on
+	 * @param report one of REPORTS
+	 * @param file the file to write
+	 * @param options any of csv, binary, gzip and a number for k; CSV without gzip when none
+	 * @return rows and bytes written, and the speed
+	 * @throws java.sql.SQLException when the report failed
+	 * @throws java.io.IOException when the file could not be written
+	 * @throws java.lang.IllegalArgumentException when an option is not known
+	 */
+	static ExportResult export(MechanicShop esql, String report, Path file, String... options) throws SQLException, IOException {
+		Format format = Format.CSV;
+		boolean gzip = false;
+		int k = DEFAULT_K;
+		for (String option : options) {
+			if (option.equalsIgnoreCase("gzip")) {
+				gzip = true;
+			} else if (option.matches("\\d+")) {
+				k = Integer.parseInt(option);
+			} else {
+				try {
+					format = Format.valueOf(option.toUpperCase(Locale.ROOT));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException("unknown option " + option + ", expected csv, binary, gzip or k");
+				}
+			}
+		}
+		if (!Arrays.asList(REPORTS).contains(report)) {
+			throw new IllegalArgumentException("no such report: " + report + ", expected one of " + String.join(", ", REPORTS));
+		}
+		int top = k;
+		return export(file, format, gzip, handler -> streamReport(esql, report, top, handler));
+	}
+
+	/*
+	 * The encoded bytes on their way to the file: a direct buffer drained into the channel, through a deflater with gzip.
+	 */
+	private static final class Sink {
+		private final FileChannel _channel;
+		private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+		private final Deflater _deflater;
+		private final ByteBuffer _deflated;
+		private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+		private final CRC32 _crc = new CRC32();
+		//bytes encoded so far, before compression
+		private long _bytes = 0;
+
+		Sink(Path file, boolean gzip) throws IOException {
+			this._channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			this._deflater = gzip ? new Deflater(GZIP_LEVEL, true) : null;
+			this._deflated = gzip ? ByteBuffer.allocateDirect(BUFFER_BYTES) : null;
+			if (gzip) {
+				//member header: magic, deflate, no flags, no mtime, no extra flags, unknown OS
+				write(ByteBuffer.wrap(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}));
+			}
+		}
+
+		ByteBuffer room(int bytes) throws IOException {
+			if (this._buffer.remaining() < bytes) {
+				drain();
+			}
+			return this._buffer;
+		}
+
+		void put(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				if (!this._buffer.hasRemaining()) {
+					drain();
+				}
+				int n = Math.min(length, this._buffer.remaining());
+				this._buffer.put(bytes, offset, n);
+				offset += n;
+				length -= n;
+			}
+		}
+
+		void putVarint(int value) throws IOException {
+			ByteBuffer buffer = room(5);
+			while ((value & ~0x7f) != 0) {
+				buffer.put((byte) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		private void drain() throws IOException {
+			this._buffer.flip();
+			this._bytes += this._buffer.remaining();
+			if (this._deflater == null) {
+				write(this._buffer);
+			} else {
+				this._crc.update(this._buffer.duplicate());
+				this._deflater.setInput(this._buffer);
+				while (!this._deflater.needsInput()) {
+					this._deflater.deflate(this._deflated);
+					if (!this._deflated.hasRemaining()) {
+						writeDeflated();
+					}
+				}
+				//the deflater keeps the buffer as its input, and clearing it would offer the same bytes again
+				this._deflater.setInput(EMPTY);
+			}
+			this._buffer.clear();
+		}
+
+		private void writeDeflated() throws IOException {
+			this._deflated.flip();
+			write(this._deflated);
+			this._deflated.clear();
+		}
+
+		private void write(ByteBuffer bytes) throws IOException {
+			while (bytes.hasRemaining()) {
+				this._channel.write(bytes);
+			}
+		}
+
+		void finish() throws IOException {
+			drain();
+			if (this._deflater != null) {
+				this._deflater.finish();
+				while (!this._deflater.finished()) {
+					this._deflater.deflate(this._deflated);
+					if (!this._deflated.hasRemaining()) {
+						writeDeflated();
+					}
+				}
+				writeDeflated();
+				//member trailer: CRC-32 and length of the uncompressed data, little-endian
+				ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				trailer.putInt((int) this._crc.getValue()).putInt((int) this._bytes).flip();
+				write(trailer);
+			}
+		}
+
+		void close() throws IOException {
+			if (this._deflater != null) {
+				this._deflater.end();
+			}
+			this._channel.close();
+		}
+	}
+
+	/*
+	 * The values of one column in the block being filled.
+	 */
+	private static final class Column {
+		final ResultTable.ColumnType type;
+		final byte[] nulls = new byte[(BLOCK_ROWS + 7) / 8];
+		ByteBuffer values = ByteBuffer.allocate(1024);
+		//STRING only: dictionary codes by value, and the encoded entries in code order
+		final Map<String, Integer> codes;
+		final List<byte[]> entries;
+		int entryBytes = 0;
+
+		Column(ResultTable.ColumnType type) {
+			this.type = type;
+			this.codes = type == ResultTable.ColumnType.STRING ? new HashMap<>() : null;
+			this.entries = type == ResultTable.ColumnType.STRING ? new ArrayList<>() : null;
+		}
+
+		ByteBuffer room(int bytes) {
+			if (this.values.remaining() < bytes) {
+				ByteBuffer grown = ByteBuffer.allocate(Math.max(this.values.capacity() * 2, this.values.position() + bytes));
+				this.values.flip();
+				this.values = grown.put(this.values);
+			}
+			return this.values;
+		}
+
+		void putVarint(int value) {
+			ByteBuffer buffer = room(5);
+			while ((value & ~0x7f) != 0) {
+				buffer.put((byte) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			buffer.put((byte) value);
+		}
+
+		int code(String value) {
+			Integer code = this.codes.get(value);
+			if (code == null) {
+				byte[] entry = value.getBytes(StandardCharsets.UTF_8);
+				code = this.entries.size();
+				this.codes.put(value, code);
+				this.entries.add(entry);
+				this.entryBytes += varintBytes(entry.length) + entry.length;
+			}
+			return code;
+		}
+
+		void clear() {
+			Arrays.fill(this.nulls, (byte) 0);
+			this.values.clear();
+			if (this.codes != null) {
+				this.codes.clear();
+				this.entries.clear();
+				this.entryBytes = 0;
+			}
+		}
+	}
+
+	private final Format _format;
+	private final Sink _sink;
+	private Column[] _columns = null;
+	private int _blockRows = 0;
+	private long _rows = 0;
+	private boolean _finished = false;
+
+	/**
+	 * @param file the file to write; replaced if it exists
+	 * @param format the file format
+	 * @param gzip whether to compress the file
+	 * @throws java.io.IOException when the file cannot be opened
+	 */
+	public ReportExporter(Path file, Format format, boolean gzip) throws IOException {
+		this._format = format;
+		this._sink = new Sink(file, gzip);
+	}
+
+	@Override
+	public void columns(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		this._columns = new Column[numCol];
+		try {
+			if (this._format == Format.CSV) {
+				for (int i = 1; i <= numCol; i++) {
+					if (i > 1) {
+						this._sink.room(1).put((byte) ',');
+					}
+					putCsv(rsmd.getColumnLabel(i));
+				}
+				this._sink.room(2).put((byte) '\r').put((byte) '\n');
+				return;
+			}
+			this._sink.put(MAGIC, 0, MAGIC.length);
+			this._sink.room(4).putShort(VERSION).putShort((short) numCol);
+			for (int i = 1; i <= numCol; i++) {
+				ResultTable.ColumnType type = ResultTable.columnType(rsmd.getColumnType(i));
+				this._columns[i - 1] = new Column(type);
+				byte[] label = rsmd.getColumnLabel(i).getBytes(StandardCharsets.UTF_8);
+				this._sink.room(3).put((byte) type.ordinal()).putShort((short) label.length);
+				this._sink.put(label, 0, label.length);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public boolean row(ResultSet rs) throws SQLException {
+		try {
+			if (this._format == Format.CSV) {
+				for (int i = 1; i <= this._columns.length; i++) {
+					if (i > 1) {
+						this._sink.room(1).put((byte) ',');
+					}
+					String value = rs.getString(i);
+					if (value != null) {
+						putCsv(value);
+					}
+				}
+				this._sink.room(2).put((byte) '\r').put((byte) '\n');
+			} else {
+				addRow(rs);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this._rows++;
+		return true;
+	}
+
+	private void putCsv(String value) throws IOException {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (quote) {
+			value = '"' + value.replace("\"", "\"\"") + '"';
+		}
+		//ASCII, nearly every value, goes straight into the buffer
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c >= 0x80) {
+				byte[] rest = value.substring(i).getBytes(StandardCharsets.UTF_8);
+				this._sink.put(rest, 0, rest.length);
+				return;
+			}
+			this._sink.room(1).put((byte) c);
+		}
+	}
+
+	private void addRow(ResultSet rs) throws SQLException, IOException {
+		int row = this._blockRows;
+		for (int i = 0; i < this._columns.length; i++) {
+			Column column = this._columns[i];
+			boolean isNull;
+			switch (column.type) {
+				case INT: {
+					int value = rs.getInt(i + 1);
+					isNull = rs.wasNull();
+					if (!isNull) {
+						column.room(4).putInt(value);
+					}
+					break;
+				}
+				case LONG: {
+					long value = rs.getLong(i + 1);
+					isNull = rs.wasNull();
+					if (!isNull) {
+						column.room(8).putLong(value);
+					}
+					break;
+				}
+				case DOUBLE: {
+					double value = rs.getDouble(i + 1);
+					isNull = rs.wasNull();
+					if (!isNull) {
+						column.room(8).putDouble(value);
+					}
+					break;
+				}
+				case TIMESTAMP: {
+					Timestamp value = rs.getTimestamp(i + 1);
+					isNull = value == null;
+					if (!isNull) {
+						column.room(8).putLong(value.getTime());
+					}
+					break;
+				}
+				case DATE: {
+					Date value = rs.getDate(i + 1);
+					isNull = value == null;
+					if (!isNull) {
+						column.room(8).putLong(value.getTime());
+					}
+					break;
+				}
+				default: {
+					String value = rs.getString(i + 1);
+					isNull = value == null;
+					if (!isNull) {
+						column.putVarint(column.code(value));
+					}
+				}
+			}
+			if (isNull) {
+				column.nulls[row >> 3] |= (byte) (1 << (row & 7));
+			}
+		}
+		if (++this._blockRows == BLOCK_ROWS) {
+			writeBlock();
+		}
+	}
+
+	private void writeBlock() throws IOException {
+		int rows = this._blockRows;
+		this._sink.room(4).putInt(rows);
+		int nullBytes = (rows + 7) / 8;
+		for (Column column : this._columns) {
+			int section = nullBytes + column.values.position();
+			if (column.entries != null) {
+				section += varintBytes(column.entries.size()) + column.entryBytes;
+			}
+			this._sink.room(4).putInt(section);
+			this._sink.put(column.nulls, 0, nullBytes);
+			if (column.entries != null) {
+				this._sink.putVarint(column.entries.size());
+				for (byte[] entry : column.entries) {
+					this._sink.putVarint(entry.length);
+					this._sink.put(entry, 0, entry.length);
+				}
+			}
+			this._sink.put(column.values.array(), 0, column.values.position());
+			column.clear();
+		}
+		this._blockRows = 0;
+	}
+
+	private static int varintBytes(int value) {
+		int bytes = 1;
+		while ((value & ~0x7f) != 0) {
+			value >>>= 7;
+			bytes++;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to write what is left of the file after the last row.
+	 *
+	 * @throws java.io.IOException when the file could not be written
+	 */
+	public void finish() throws IOException {
+		if (this._finished) {
+			return;
+		}
+		if (this._columns == null) {
+			throw new IllegalStateException("no columns were received");
+		}
+		if (this._format == Format.BINARY) {
+			if (this._blockRows > 0) {
+				writeBlock();
+			}
+			this._sink.room(4).putInt(0);
+		}
+		this._sink.finish();
+		this._finished = true;
+	}
+
+	public long getRowCount() {
+		return this._rows;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this._sink.close();
+	}
+
+	/**
+	 * Method to load a file of the binary format, compressed or not.
+	 *
+	 * @param file the exported file
+	 * @return its rows; timestamps as epoch milliseconds
+	 * @throws java.io.IOException when the file cannot be read or is not in the format
+	 */
+	public static ResultTable read(Path file) throws IOException {
+		try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			raw.mark(2);
+			boolean gzip = raw.read() == 0x1f && raw.read() == 0x8b;
+			raw.reset();
+			DataInputStream in = new DataInputStream(gzip ? new BufferedInputStream(new GZIPInputStream(raw, 1 << 16), 1 << 16) : raw);
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || in.readShort() != VERSION) {
+				throw new IOException(file + " is not a binary report export");
+			}
+			int numCol = in.readShort();
+			String[] names = new String[numCol];
+			ResultTable.ColumnType[] types = new ResultTable.ColumnType[numCol];
+			for (int c = 0; c < numCol; c++) {
+				types[c] = ResultTable.ColumnType.values()[in.readByte()];
+				byte[] label = new byte[in.readShort()];
+				in.readFully(label);
+				names[c] = new String(label, StandardCharsets.UTF_8);
+			}
+			ResultTable table = ResultTable.of(names, types);
+			for (int rows = in.readInt(); rows != 0; rows = in.readInt()) {
+				Object[][] columns = new Object[numCol][rows];
+				for (int c = 0; c < numCol; c++) {
+					in.readInt();
+					byte[] nulls = new byte[(rows + 7) / 8];
+					in.readFully(nulls);
+					String[] dictionary = null;
+					if (types[c] == ResultTable.ColumnType.STRING) {
+						dictionary = new String[readVarint(in)];
+						for (int d = 0; d < dictionary.length; d++) {
+							byte[] entry = new byte[readVarint(in)];
+							in.readFully(entry);
+							dictionary[d] = new String(entry, StandardCharsets.UTF_8);
+						}
+					}
+					for (int r = 0; r < rows; r++) {
+						if ((nulls[r >> 3] & (1 << (r & 7))) != 0) {
+							continue;
+						}
+						switch (types[c]) {
+							case INT: columns[c][r] = in.readInt(); break;
+							case LONG: case TIMESTAMP: case DATE: columns[c][r] = in.readLong(); break;
+							case DOUBLE: columns[c][r] = in.readDouble(); break;
+							default: columns[c][r] = dictionary[readVarint(in)];
+						}
+					}
+				}
+				Object[] values = new Object[numCol];
+				for (int r = 0; r < rows; r++) {
+					for (int c = 0; c < numCol; c++) {
+						values[c] = columns[c][r];
+					}
+					table.appendRow(values);
+				}
+			}
+			table.trim();
+			return table;
+		} catch (EOFException | ArrayIndexOutOfBoundsException e) {
+			throw new IOException(file + " is truncated or corrupt", e);
+		}
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("malformed varint");
+	}
+
+	/**
+	 * Exports one report and prints the size and speed of the export.
+	 *
+	 * @param args <dbname> <port> <user> <report> <file> [csv|binary] [gzip] [k]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 5) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + ReportExporter.class.getName() +
+					" <dbname> <port> <user> <report> <file> [csv|binary] [gzip] [k]");
+			System.err.println("Reports: " + String.join(", ", REPORTS));
+			return;
+		}
+		MechanicShop esql = null;
+		boolean failed = false;
+		try {
+			esql = new MechanicShop(args[0], args[1], args[2], "password");
+			System.out.println(export(esql, args[3], Path.of(args[4]), Arrays.copyOfRange(args, 5, args.length)));
+		} catch (SQLException | IOException | IllegalArgumentException e) {
+			System.err.println("Export failed: " + e.getMessage());
+			failed = true;
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,544 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds a query result column by column. Integer columns are
+ * kept in int[] or long[], timestamps and dates as epoch milliseconds in
+ * long[], and text columns are dictionary encoded so repeated values such
+ * as makes, models and names are stored once. Values are read back with typed
+ * accessors, so numbers do not need to be re-parsed from strings.
+ *
+ */
+
+public class ResultTable {
+	/**
+	 * Physical representation of a column.
+	 */
+	public enum ColumnType { INT, LONG, DOUBLE, TIMESTAMP, STRING, DATE }
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final String[] _names;
+	private final ColumnType[] _types;
+	private final Object[] _columns;
+	private final BitSet[] _nulls;
+	//per text column: the distinct values and their codes
+	private final List<List<String>> _dictionaries;
+	private final List<Map<String, Integer>> _codes;
+	private int _rowCount = 0;
+	private int _capacity;
+
+	private ResultTable(String[] names, ColumnType[] types) {
+		this._names = names;
+		this._types = types;
+		this._columns = new Object[types.length];
+		this._nulls = new BitSet[types.length];
+		this._dictionaries = new ArrayList<>(types.length);
+		this._codes = new ArrayList<>(types.length);
+		this._capacity = INITIAL_CAPACITY;
+		for (int c = 0; c < types.length; c++) {
+			this._columns[c] = allocate(types[c], this._capacity);
+			this._nulls[c] = new BitSet();
+			boolean text = types[c] == ColumnType.STRING;
+			this._dictionaries.add(text ? new ArrayList<>() : null);
+			this._codes.add(text ? new HashMap<>() : null);
+		}
+	}
+
+	private static Object allocate(ColumnType type, int capacity) {
+		switch (type) {
+			case INT: case STRING: return new int[capacity];
+			case LONG: case TIMESTAMP: case DATE: return new long[capacity];
+			default: return new double[capacity];
+		}
+	}
+
+	/**
+	 * Method to map a JDBC column type to the storage used for it.
+	 *
+	 * @param sqlType a java.sql.Types constant
+	 * @return the column representation
+	 */
+	static ColumnType columnType(int sqlType) {
+		switch (sqlType) {
+			case Types.SMALLINT: case Types.INTEGER: case Types.TINYINT:
+				return ColumnType.INT;
+			case Types.BIGINT:
+				return ColumnType.LONG;
+			case Types.DOUBLE: case Types.FLOAT: case Types.REAL:
+				return ColumnType.DOUBLE;
+			case Types.TIMESTAMP: case Types.TIMESTAMP_WITH_TIMEZONE:
+				return ColumnType.TIMESTAMP;
+			case Types.DATE:
+				return ColumnType.DATE;
+			default:
+				//NUMERIC and DECIMAL too: kept as the driver's text, a double would lose digits and scale
+				return ColumnType.STRING;
+		}
+	}
+
+	/**
+	 * Method to read the remaining rows of a result set into a new table.
+	 *
+	 * @param rs the result set, positioned before its first row
+	 * @return the materialized result
+	 * @throws java.sql.SQLException when reading the result failed
+	 */
+	public static ResultTable from(ResultSet rs) throws SQLException {
+		ResultTable table = forMetaData(rs.getMetaData());
+		while (rs.next()) {
+			table.append(rs);
+		}
+		table.trim();
+		return table;
+	}
+
+	/**
+	 * Method to create an empty table shaped like a result set.
+	 *
+	 * @param rsmd the metadata of the result set
+	 * @return an empty table ready for append()
+	 * @throws java.sql.SQLException when the metadata cannot be read
+	 */
+	public static ResultTable forMetaData(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		ColumnType[] types = new ColumnType[numCol];
+		for (int i = 1; i <= numCol; i++) {
+			names[i - 1] = rsmd.getColumnLabel(i);
+			types[i - 1] = columnType(rsmd.getColumnType(i));
+		}
+		return new ResultTable(names, types);
+	}
+
+	/**
+	 * Method to create an empty table with the given columns, for results
+	 * computed outside the database.
+	 *
+	 * @param names the column labels
+	 * @param types the storage of each column
+	 * @return an empty table ready for appendRow()
+	 */
+	public static ResultTable of(String[] names, ColumnType[] types) {
+		return new ResultTable(names.clone(), types.clone());
+	}
+
+	/**
+	 * Method to append a row of values.
+	 *
+	 * @param values one per column: a Number for INT, LONG and DOUBLE, a
+	 *        Timestamp or epoch milliseconds for TIMESTAMP, a Date or epoch
+	 *        milliseconds for DATE, a String for
+	 *        STRING; null for SQL NULL
+	 */
+	public void appendRow(Object... values) {
+		if (values.length != this._types.length) {
+			throw new IllegalArgumentException(values.length + " values for " + this._types.length + " columns");
+		}
+		if (this._rowCount == this._capacity) {
+			//a trimmed empty table has no capacity to double
+			grow(Math.max(INITIAL_CAPACITY, this._capacity * 2));
+		}
+		int row = this._rowCount;
+		for (int c = 0; c < this._types.length; c++) {
+			Object value = values[c];
+			if (value == null) {
+				this._nulls[c].set(row);
+			}
+			switch (this._types[c]) {
+				case INT:
+					((int[]) this._columns[c])[row] = value == null ? 0 : ((Number) value).intValue();
+					break;
+				case LONG:
+					((long[]) this._columns[c])[row] = value == null ? 0L : ((Number) value).longValue();
+					break;
+				case DOUBLE:
+					((double[]) this._columns[c])[row] = value == null ? 0.0 : ((Number) value).doubleValue();
+					break;
+				case TIMESTAMP: case DATE:
+					((long[]) this._columns[c])[row] = value == null ? 0L
+							: value instanceof java.util.Date ? ((java.util.Date) value).getTime() : ((Number) value).longValue();
+					break;
+				default:
+					((int[]) this._columns[c])[row] = value == null ? -1 : encode(c, value.toString());
+					break;
+			}
+		}
+		this._rowCount++;
+	}
+
+	/**
+	 * Method to append the current row of a result set.
+	 *
+	 * @param rs the result set positioned on a row
+	 * @throws java.sql.SQLException when reading the row failed
+	 */
+	public void append(ResultSet rs) throws SQLException {
+		if (this._rowCount == this._capacity) {
+			grow(Math.max(INITIAL_CAPACITY, this._capacity * 2));
+		}
+		int row = this._rowCount;
+		for (int c = 0; c < this._types.length; c++) {
+			int i = c + 1;
+			switch (this._types[c]) {
+				case INT: {
+					int value = rs.getInt(i);
+					if (rs.wasNull()) this._nulls[c].set(row);
+					((int[]) this._columns[c])[row] = value;
+					break;
+				}
+				case LONG: {
+					long value = rs.getLong(i);
+					if (rs.wasNull()) this._nulls[c].set(row);
+					((long[]) this._columns[c])[row] = value;
+					break;
+				}
+				case DOUBLE: {
+					double value = rs.getDouble(i);
+					if (rs.wasNull()) this._nulls[c].set(row);
+					((double[]) this._columns[c])[row] = value;
+					break;
+				}
+				case TIMESTAMP: {
+					Timestamp value = rs.getTimestamp(i);
+					if (value == null) this._nulls[c].set(row);
+					((long[]) this._columns[c])[row] = value == null ? 0L : value.getTime();
+					break;
+				}
+				case DATE: {
+					Date value = rs.getDate(i);
+					if (value == null) this._nulls[c].set(row);
+					((long[]) this._columns[c])[row] = value == null ? 0L : value.getTime();
+					break;
+				}
+				default: {
+					String value = rs.getString(i);
+					if (value == null) this._nulls[c].set(row);
+					((int[]) this._columns[c])[row] = value == null ? -1 : encode(c, value);
+					break;
+				}
+			}
+		}
+		this._rowCount++;
+	}
+
+	private int encode(int column, String value) {
+		Map<String, Integer> codes = this._codes.get(column);
+		if (codes == null) {
+			//appending after trim(), or to a copy sharing another table's dictionary: rebuild the codes on a private copy
+			List<String> dictionary = new ArrayList<>(this._dictionaries.get(column));
+			codes = new HashMap<>(dictionary.size() * 2);
+			for (int code = 0; code < dictionary.size(); code++) {
+				codes.put(dictionary.get(code), code);
+			}
+			this._dictionaries.set(column, dictionary);
+			this._codes.set(column, codes);
+		}
+		Integer code = codes.get(value);
+		if (code == null) {
+			List<String> dictionary = this._dictionaries.get(column);
+			code = dictionary.size();
+			dictionary.add(value);
+			codes.put(value, code);
+		}
+		return code;
+	}
+
+	private void grow(int capacity) {
+		for (int c = 0; c < this._columns.length; c++) {
+			Object column = this._columns[c];
+			if (column instanceof int[]) {
+				this._columns[c] = Arrays.copyOf((int[]) column, capacity);
+			} else if (column instanceof long[]) {
+				this._columns[c] = Arrays.copyOf((long[]) column, capacity);
+			} else {
+				this._columns[c] = Arrays.copyOf((double[]) column, capacity);
+			}
+		}
+		this._capacity = capacity;
+	}
+
+	/**
+	 * Method to release the spare capacity once all rows are appended. The
+	 * value-to-code maps are dropped as well; a later append rebuilds them.
+	 */
+	public void trim() {
+		if (this._capacity != this._rowCount) {
+			grow(this._rowCount);
+		}
+		for (int c = 0; c < this._codes.size(); c++) {
+			this._codes.set(c, null);
+		}
+	}
+
+	public int getRowCount() {
+		return this._rowCount;
+	}
+
+	public int getColumnCount() {
+		return this._names.length;
+	}
+
+	public String getColumnName(int column) {
+		return this._names[column];
+	}
+
+	public ColumnType getColumnType(int column) {
+		return this._types[column];
+	}
+
+	/**
+	 * Method to find a column by its label.
+	 *
+	 * @param name the column label, case-insensitive
+	 * @return the zero-based column index, or -1
+	 */
+	public int findColumn(String name) {
+		for (int c = 0; c < this._names.length; c++) {
+			if (this._names[c].equalsIgnoreCase(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	public boolean isNull(int row, int column) {
+		checkRow(row);
+		return this._nulls[column].get(row);
+	}
+
+	public int getInt(int row, int column) {
+		checkRow(row);
+		switch (this._types[column]) {
+			case INT: return ((int[]) this._columns[column])[row];
+			case LONG: return Math.toIntExact(((long[]) this._columns[column])[row]);
+			default: throw new IllegalArgumentException("Column " + this._names[column] + " is " + this._types[column]);
+		}
+	}
+
+	public long getLong(int row, int column) {
+		checkRow(row);
+		switch (this._types[column]) {
+			case INT: return ((int[]) this._columns[column])[row];
+			case LONG: case TIMESTAMP: case DATE: return ((long[]) this._columns[column])[row];
+			default: throw new IllegalArgumentException("Column " + this._names[column] + " is " + this._types[column]);
+		}
+	}
+
+	public double getDouble(int row, int column) {
+		checkRow(row);
+		switch (this._types[column]) {
+			case DOUBLE: return ((double[]) this._columns[column])[row];
+			case INT: case LONG: return getLong(row, column);
+			default: throw new IllegalArgumentException("Column " + this._names[column] + " is " + this._types[column]);
+		}
+	}
+
+	public Timestamp getTimestamp(int row, int column) {
+		checkRow(row);
+		if (this._types[column] != ColumnType.TIMESTAMP && this._types[column] != ColumnType.DATE) {
+			throw new IllegalArgumentException("Column " + this._names[column] + " is " + this._types[column]);
+		}
+		return isNull(row, column) ? null : new Timestamp(((long[]) this._columns[column])[row]);
+	}
+
+	public Date getDate(int row, int column) {
+		checkRow(row);
+		if (this._types[column] != ColumnType.DATE) {
+			throw new IllegalArgumentException("Column " + this._names[column] + " is " + this._types[column]);
+		}
+		return isNull(row, column) ? null : new Date(((long[]) this._columns[column])[row]);
+	}
+
+	/**
+	 * Method to read any value as text, formatted the way the JDBC driver
+	 * would have returned it from getString.
+	 *
+	 * @param row zero-based row index
+	 * @param column zero-based column index
+	 * @return the value, or null for SQL NULL
+	 */
+	public String getString(int row, int column) {
+		checkRow(row);
+		if (this._nulls[column].get(row)) {
+			return null;
+		}
+		switch (this._types[column]) {
+			case INT: return Integer.toString(((int[]) this._columns[column])[row]);
+			case LONG: return Long.toString(((long[]) this._columns[column])[row]);
+			case DOUBLE: return Double.toString(((double[]) this._columns[column])[row]);
+			case TIMESTAMP: return formatTimestamp(((long[]) this._columns[column])[row]);
+			case DATE: return new Date(((long[]) this._columns[column])[row]).toString();
+			default: return this._dictionaries.get(column).get(((int[]) this._columns[column])[row]);
+		}
+	}
+
+	/**
+	 * Method to read a value boxed in the Java type of its column, suitable
+	 * for binding back into a query.
+	 *
+	 * @param row zero-based row index
+	 * @param column zero-based column index
+	 * @return an Integer, Long, Double, Timestamp, Date or String, or null for SQL NULL
+	 */
+	public Object getObject(int row, int column) {
+		if (isNull(row, column)) {
+			return null;
+		}
+		switch (this._types[column]) {
+			case INT: return getInt(row, column);
+			case LONG: return getLong(row, column);
+			case DOUBLE: return getDouble(row, column);
+			case TIMESTAMP: return getTimestamp(row, column);
+			case DATE: return getDate(row, column);
+			default: return getString(row, column);
+		}
+	}
+
+	/*
+	 * Formats like the driver's getString: no fraction for whole seconds.
+	 */
+	private static String formatTimestamp(long millis) {
+		String text = new Timestamp(millis).toString();
+		return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+	}
+
+	/**
+	 * Method to copy the first rows of this table into a new table.
+	 *
+	 * @param k the maximum number of rows to keep
+	 * @return a table with at most k rows sharing this table's dictionaries
+	 */
+	public ResultTable head(int k) {
+		ResultTable head = new ResultTable(this._names, this._types);
+		int rows = Math.max(0, Math.min(k, this._rowCount));
+		for (int c = 0; c < this._columns.length; c++) {
+			Object column = this._columns[c];
+			if (column instanceof int[]) {
+				head._columns[c] = Arrays.copyOf((int[]) column, rows);
+			} else if (column instanceof long[]) {
+				head._columns[c] = Arrays.copyOf((long[]) column, rows);
+			} else {
+				head._columns[c] = Arrays.copyOf((double[]) column, rows);
+			}
+			head._nulls[c] = this._nulls[c].get(0, rows);
+			head._dictionaries.set(c, this._dictionaries.get(c));
+			head._codes.set(c, null);
+		}
+		head._rowCount = rows;
+		head._capacity = rows;
+		return head;
+	}
+
+	/**
+	 * Method to copy some rows of this table into a new table.
+	 *
+	 * @param rows the indexes of the rows to keep, in the order wanted
+	 * @return a table with those rows sharing this table's dictionaries
+	 */
+	public ResultTable select(int[] rows) {
+		for (int row : rows) {
+			checkRow(row);
+		}
+		ResultTable selected = new ResultTable(this._names, this._types);
+		for (int c = 0; c < this._columns.length; c++) {
+			Object column = this._columns[c];
+			BitSet nulls = new BitSet();
+			if (column instanceof int[]) {
+				int[] from = (int[]) column;
+				int[] to = new int[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					to[i] = from[rows[i]];
+				}
+				selected._columns[c] = to;
+			} else if (column instanceof long[]) {
+				long[] from = (long[]) column;
+				long[] to = new long[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					to[i] = from[rows[i]];
+				}
+				selected._columns[c] = to;
+			} else {
+				double[] from = (double[]) column;
+				double[] to = new double[rows.length];
+				for (int i = 0; i < rows.length; i++) {
+					to[i] = from[rows[i]];
+				}
+				selected._columns[c] = to;
+			}
+			for (int i = 0; i < rows.length; i++) {
+				if (this._nulls[c].get(rows[i])) {
+					nulls.set(i);
+				}
+			}
+			selected._nulls[c] = nulls;
+			selected._dictionaries.set(c, this._dictionaries.get(c));
+			selected._codes.set(c, null);
+		}
+		selected._rowCount = rows.length;
+		selected._capacity = rows.length;
+		return selected;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= this._rowCount) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._rowCount);
+		}
+	}
+
+	/**
+	 * Method to estimate the heap held by this table: the column arrays and
+	 * the dictionary strings.
+	 *
+	 * @return approximate size in bytes
+	 */
+	public long estimatedBytes() {
+		long bytes = 64;
+		for (int c = 0; c < this._columns.length; c++) {
+			Object column = this._columns[c];
+			if (column instanceof int[]) {
+				bytes += 16 + 4L * ((int[]) column).length;
+			} else if (column instanceof long[]) {
+				bytes += 16 + 8L * ((long[]) column).length;
+			} else {
+				bytes += 16 + 8L * ((double[]) column).length;
+			}
+			bytes += 16 + this._nulls[c].size() / 8;
+			List<String> dictionary = this._dictionaries.get(c);
+			if (dictionary != null) {
+				for (String value : dictionary) {
+					bytes += 56 + value.length();
+				}
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Method to convert the table to the row-oriented form returned by
+	 * executeQueryAndReturnResult.
+	 *
+	 * @return a list of records, each a list of attribute values
+	 */
+	public List<List<String>> toRows() {
+		List<List<String>> rows = new ArrayList<>(this._rowCount);
+		for (int r = 0; r < this._rowCount; r++) {
+			List<String> record = new ArrayList<>(this._names.length);
+			for (int c = 0; c < this._names.length; c++) {
+				record.add(getString(r, c));
+			}
+			rows.add(record);
+		}
+		return rows;
+	}
+}
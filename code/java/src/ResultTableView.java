@@ -0,0 +1,50 @@
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+
+/**
+ * Adapter that shows a ResultTable in a JavaFX TableView. The table items
+ * are plain row indexes and every cell reads its value straight from the
+ * column storage, so nothing is copied into per-row String arrays.
+ */
+public class ResultTableView {
+    private ResultTableView() {
+    }
+
+    /**
+     * Read-only list of the row indexes 0..n-1 of a result.
+     */
+    private static final class RowIndexList extends ObservableListBase<Integer> {
+        private final int size;
+
+        RowIndexList(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Row " + index + " of " + size);
+            }
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    public static TableView<Integer> create(ResultTable result) {
+        TableView<Integer> table = new TableView<>(new RowIndexList(result.getRowCount()));
+        for (int i = 0; i < result.getColumnCount(); i++) {
+            final int colNo = i;
+            TableColumn<Integer, String> tc = new TableColumn<>(result.getColumnName(i));
+            tc.setCellValueFactory(p -> new ReadOnlyStringWrapper(result.getString(p.getValue(), colNo)));
+            tc.setPrefWidth(90);
+            table.getColumns().add(tc);
+        }
+        return table;
+    }
+}
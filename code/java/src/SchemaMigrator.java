@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * This class brings a database created by create.sql up to the current
+ * schema. Migrations are the files V<version>__<description>.sql in
+ * code/sql/migrations; each pending one runs in its own transaction and is
+ * recorded in the Schema_Version table together with a checksum of the
+ * file, so it is applied exactly once. Statistics are refreshed with
+ * ANALYZE after anything was applied.
+ *
+ */
+
+public class SchemaMigrator {
+	private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+	static final String VERSION_TABLE_SQL = "CREATE TABLE IF NOT EXISTS Schema_Version ("
+			+ "version INTEGER NOT NULL, "
+			+ "description TEXT NOT NULL, "
+			+ "checksum BIGINT NOT NULL, "
+			+ "applied_at TIMESTAMP NOT NULL DEFAULT now(), "
+			+ "PRIMARY KEY (version))";
+
+	/**
+	 * A migration file found on disk.
+	 */
+	public record Migration(int version, String description, Path file, String sql, long checksum) {
+	}
+
+	private final MechanicShop _esql;
+	private final Path _directory;
+
+	public SchemaMigrator(MechanicShop esql, Path directory) {
+		this._esql = esql;
+		this._directory = directory;
+	}
+
+	/**
+	 * Method to read the migration files, ordered by version.
+	 *
+	 * @return every migration in the directory
+	 * @throws java.io.IOException when the directory cannot be read
+	 */
+	public List<Migration> discover() throws IOException {
+		List<Migration> migrations = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(this._directory, "V*__*.sql")) {
+			for (Path file : files) {
+				Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+				if (!m.matches()) {
+					continue;
+				}
+				byte[] bytes = Files.readAllBytes(file);
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				migrations.add(new Migration(Integer.parseInt(m.group(1)), m.group(2).replace('_', ' '), file,
+						new String(bytes, StandardCharsets.UTF_8), crc.getValue()));
+			}
+		}
+		migrations.sort((a, b) -> Integer.compare(a.version(), b.version()));
+		for (int i = 1; i < migrations.size(); i++) {
+			if (migrations.get(i).version() == migrations.get(i - 1).version()) {
+				throw new IllegalStateException("Duplicate migration version " + migrations.get(i).version());
+			}
+		}
+		return migrations;
+	}
+
+	/**
+	 * Method to read the versions already applied and their checksums.
+	 *
+	 * @return checksum by applied version
+	 * @throws java.sql.SQLException when the version table cannot be read
+	 */
+	public Map<Integer, Long> applied() throws SQLException {
+		this._esql.executeUpdate(VERSION_TABLE_SQL);
+		Map<Integer, Long> applied = new HashMap<>();
+		this._esql.executeQueryStreaming("SELECT version, checksum FROM Schema_Version", 100, rs -> {
+			applied.put(rs.getInt(1), rs.getLong(2));
+			return true;
+		});
+		return applied;
+	}
+
+	/**
+	 * Method to apply every pending migration in version order, each in its
+	 * own transaction, then ANALYZE the database.
+	 *
+	 * @return the migrations that were applied by this call
+	 * @throws java.sql.SQLException when a migration failed; it is rolled back
+	 * @throws java.io.IOException when the migration files cannot be read
+	 */
+	public List<Migration> migrate() throws SQLException, IOException {
+		Map<Integer, Long> applied = applied();
+		List<Migration> done = new ArrayList<>();
+		for (Migration migration : discover()) {
+			Long checksum = applied.get(migration.version());
+			if (checksum != null) {
+				if (checksum != migration.checksum()) {
+					System.err.println("Warning: " + migration.file().getFileName()
+							+ " changed after it was applied; the change is not re-run");
+				}
+				continue;
+			}
+			System.out.print("Applying V" + migration.version() + " " + migration.description() + "...");
+			this._esql.inTransaction(pooled -> {
+				try (Statement stmt = pooled.connection().createStatement()) {
+					stmt.execute(migration.sql());
+				}
+				this._esql.executeUpdate("INSERT INTO Schema_Version (version, description, checksum) VALUES (?, ?, ?)",
+						migration.version(), migration.description(), migration.checksum());
+				return null;
+			});
+			System.out.println("Done");
+			done.add(migration);
+		}
+		if (!done.isEmpty()) {
+			this._esql.executeUpdate("ANALYZE");
+		}
+		return done;
+	}
+
+	/**
+	 * Method to report the highest applied version.
+	 *
+	 * @return the current schema version, 0 for a baseline database
+	 * @throws java.sql.SQLException when the version table cannot be read
+	 */
+	public int currentVersion() throws SQLException {
+		int version = 0;
+		for (int v : applied().keySet()) {
+			version = Math.max(version, v);
+		}
+		return version;
+	}
+
+	/**
+	 * Migrates the database named on the command line and records the plans
+	 * of the report queries before and after in a text file.
+	 *
+	 * @param args <dbname> <port> <user> [migrations directory] [plan file]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 5) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + SchemaMigrator.class.getName() +
+					" <dbname> <port> <user> [migrations directory] [plan file]");
+			return;
+		}
+		Path directory = Paths.get(args.length >= 4 ? args[3] : "../sql/migrations");
+		Path planFile = Paths.get(args.length == 5 ? args[4] : "explain-plans.txt");
+
+		MechanicShop esql = null;
+		boolean failed = false;
+		try {
+			esql = new MechanicShop(args[0], args[1], args[2], "password");
+			SchemaMigrator migrator = new SchemaMigrator(esql, directory);
+			Map<String, PlanCheck.Plan> before = PlanCheck.capture(esql);
+			List<Migration> done = migrator.migrate();
+			System.out.println("Applied " + done.size() + " migration(s); schema is at version " + migrator.currentVersion());
+			if (!done.isEmpty()) {
+				Map<String, PlanCheck.Plan> after = PlanCheck.capture(esql);
+				PlanCheck.write(planFile, before, after);
+				System.out.println("Plans before and after written to " + planFile.toAbsolutePath());
+			}
+		} catch (Exception e) {
+			System.err.println("Migration failed: " + e.getMessage());
+			failed = true;
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,11 @@
+import java.sql.Timestamp;
+
+/**
+ * A row of the Service_Request table, used by the bulk ingestion paths. A
+ * null rid takes the next key of service_request_rid_seq; 0 is a key like
+ * any other.
+ *
+ */
+
+public record ServiceRequest(Integer rid, int customerId, String carVin, Timestamp date, int odometer, String complain) {
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs every shop operation as its own task, one thread per
+ * task. On a Java 21+ runtime the threads are virtual threads, so a clerk
+ * session blocked on Postgres does not tie up a platform thread; on older
+ * runtimes it falls back to a cached pool of platform threads. A semaphore
+ * with one permit per pooled connection bounds how many operations talk to
+ * the database at once, so tasks wait cheaply for a permit instead of
+ * piling up inside the connection pool.
+ *
+ */
+
+public class SessionExecutor implements AutoCloseable {
+	private final MechanicShop _esql;
+	private final ExecutorService _executor;
+	private final boolean _virtual;
+	private final Semaphore _permits;
+	private final int _maxConcurrency;
+	private final AtomicInteger _waiting = new AtomicInteger();
+
+	/**
+	 * Creates an executor bounded to the pool size of the given handler.
+	 *
+	 * @param esql the database handler the tasks run against
+	 */
+	public SessionExecutor(MechanicShop esql) {
+		this(esql, esql.getPool().getMaxSize());
+	}
+
+	public SessionExecutor(MechanicShop esql, int maxConcurrency) {
+		this._esql = esql;
+		this._maxConcurrency = maxConcurrency;
+		this._permits = new Semaphore(maxConcurrency, true);
+		ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+		this._virtual = virtual != null;
+		this._executor = virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads("shop-session-"));
+	}
+
+	/**
+	 * Method to create an executor that starts a virtual thread per task.
+	 * Looked up reflectively so the code still runs on Java 17.
+	 *
+	 * @return the executor, or null when the runtime has no virtual threads
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Method to create an executor for client sessions: virtual threads when
+	 * available, daemon platform threads otherwise.
+	 *
+	 * @return a thread-per-task executor
+	 */
+	static ExecutorService newSessionThreads() {
+		ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+		return virtual != null ? virtual : Executors.newCachedThreadPool(daemonThreads("shop-client-"));
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger threads = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, prefix + threads.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
+	/**
+	 * Method to run an operation on its own thread once a database permit
+	 * is free.
+	 *
+	 * @param call the operation
+	 * @return a future of its result
+	 */
+	public <T> CompletableFuture<T> submit(AsyncMechanicShop.ShopCall<T> call) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		this._executor.execute(() -> {
+			this._waiting.incrementAndGet();
+			try {
+				this._permits.acquire();
+			} catch (InterruptedException e) {
+				this._waiting.decrementAndGet();
+				Thread.currentThread().interrupt();
+				future.completeExceptionally(e);
+				return;
+			}
+			this._waiting.decrementAndGet();
+			try {
+				future.complete(call.call(this._esql));
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				this._permits.release();
+			}
+		});
+		return future;
+	}
+
+	public boolean usesVirtualThreads() {
+		return this._virtual;
+	}
+
+	public int getMaxConcurrency() {
+		return this._maxConcurrency;
+	}
+
+	/**
+	 * @return operations currently holding a database permit
+	 */
+	public int getInFlight() {
+		return this._maxConcurrency - this._permits.availablePermits();
+	}
+
+	/**
+	 * @return operations started but still waiting for a permit
+	 */
+	public int getWaiting() {
+		return this._waiting.get();
+	}
+
+	@Override
+	public void close() {
+		this._executor.shutdown();
+	}
+}
@@ -0,0 +1,735 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class serves the shop operations as JSON over HTTP, for the systems
+ * that cannot use the JavaFX front end. It runs on the JDK's HttpServer,
+ * every exchange on a session thread of its own (virtual threads on Java
+ * 21+, see SessionExecutor), and the database work of an exchange goes
+ * through a SessionExecutor, so no more operations talk to Postgres at once
+ * than the pool has connections. Clients keep their connection open between
+ * requests (HTTP/1.1 persistent connections). Reports are written as a
+ * chunked JSON array while they are rendered; with ?stream=true the rows
+ * come from a server-side cursor instead of the report cache, so a large
+ * report is never held in memory. A streamed report that fails after its
+ * first rows went out cannot change its 200 status; it ends the array with
+ * an {"error": message} object instead, and the request counts as failed.
+ * The latency of every request is recorded
+ * under its route in a Metrics registry of its own, served by GET /metrics
+ * with the operation table of the handler.
+ *
+ *   POST /customers         {"fname", "lname", "phone", "address"}
+ *   POST /mechanics         {"fname", "lname", "experience"}
+ *   POST /cars              {"vin", "make", "model", "year"}
+ *   POST /service-requests  {"rid"?, "customer_id", "vin", "odometer", "complain", "date"?}
+ *   POST /closed-requests   {"wid"?, "rid", "mid", "comment", "bill", "date"?}
+ *   GET  /customers?lname=
+ *   GET  /reports/{name}[?k=][&stream=true], one name per report in ReportExporter.REPORTS
+ *   GET  /metrics
+ *
+ */
+
+public class ShopServer {
+	static final int DEFAULT_PORT = 8080;
+	//connections the kernel queues before the server accepts them
+	static final int BACKLOG = Integer.getInteger("mechanicshop.http.backlog", 1024);
+	//bytes of a report buffered before they are sent as one chunk
+	static final int CHUNK_BYTES = Integer.getInteger("mechanicshop.http.chunkBytes", 8192);
+	static final int DEFAULT_K = 10;
+
+	/*
+	 * A request that cannot be served, answered with its status and message.
+	 */
+	static final class HttpError extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private interface Route {
+		void handle(HttpExchange exchange) throws IOException, SQLException;
+	}
+
+	private final MechanicShop _esql;
+	private final SessionExecutor _executor;
+	private final ExecutorService _sessions = SessionExecutor.newSessionThreads();
+	private final HttpServer _server;
+	private final Metrics _requests = new Metrics(true);
+	private final Map<String, Route> _routes = new HashMap<>();
+	private final Set<String> _paths = new HashSet<>();
+
+	/**
+	 * @param esql the handler the operations run against
+	 * @param executor bounds the operations running at once
+	 * @param address where to listen
+	 * @throws java.io.IOException when the address cannot be bound
+	 */
+	public ShopServer(MechanicShop esql, SessionExecutor executor, InetSocketAddress address) throws IOException {
+		this._esql = esql;
+		this._executor = executor;
+		this._server = HttpServer.create(address, BACKLOG);
+		this._server.setExecutor(this._sessions);
+		this._server.createContext("/", this::handle);
+		route("POST", "/customers", this::addCustomer);
+		route("POST", "/mechanics", this::addMechanic);
+		route("POST", "/cars", this::addCar);
+		route("POST", "/service-requests", this::insertServiceRequest);
+		route("POST", "/closed-requests", this::closeServiceRequest);
+		route("GET", "/customers", this::findCustomers);
+		for (String report : ReportExporter.REPORTS) {
+			route("GET", "/reports/" + report, exchange -> report(exchange, report));
+		}
+		route("GET", "/metrics", this::metrics);
+	}
+
+	private void route(String method, String path, Route route) {
+		this._routes.put(method + " " + path, route);
+		this._paths.add(path);
+	}
+
+	public void start() {
+		this._server.start();
+	}
+
+	/**
+	 * Method to stop accepting requests and wait for the running ones.
+	 *
+	 * @param delaySeconds how long to wait for the running requests
+	 */
+	public void stop(int delaySeconds) {
+		this._server.stop(delaySeconds);
+		this._sessions.shutdown();
+		this._requests.close();
+	}
+
+	public InetSocketAddress getAddress() {
+		return this._server.getAddress();
+	}
+
+	/**
+	 * @return the latency of the requests served so far, by route
+	 */
+	public Metrics getRequestMetrics() {
+		return this._requests;
+	}
+
+	private void handle(HttpExchange exchange) {
+		String path = exchange.getRequestURI().getPath();
+		String name = exchange.getRequestMethod() + " " + path;
+		Route route = this._routes.get(name);
+		Metrics.Scope request = this._requests.begin(route != null ? name : "unrouted");
+		try {
+			try {
+				if (route == null) {
+					throw this._paths.contains(path) ? new HttpError(405, "method not allowed")
+							: new HttpError(404, "no such resource");
+				}
+				route.handle(exchange);
+			} catch (HttpError e) {
+				sendError(exchange, e.status, e.getMessage());
+			} catch (SQLException | RuntimeException e) {
+				if (exchange.getResponseCode() >= 0) {
+					//a streamed report failed after its 200 went out
+					request.fail();
+				}
+				sendError(exchange, 500, String.valueOf(e.getMessage()));
+			}
+		} catch (IOException | UncheckedIOException e) {
+			//the client went away; nothing left to answer
+		} finally {
+			if (exchange.getResponseCode() < 0 || exchange.getResponseCode() >= 500) {
+				request.fail();
+			}
+			request.close();
+			exchange.close();
+		}
+	}
+
+	/*
+	 * Runs an operation under a database permit and rethrows what it threw.
+	 */
+	private <T> T call(AsyncMechanicShop.ShopCall<T> call) throws SQLException {
+		try {
+			return this._executor.submit(call).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/*
+	 * Runs a write as the named shop operation. Input the database rejects (SQLSTATE class 22, a bad value, or 23, a
+	 * violated constraint) is answered with 422; any other failure, such as a lost connection, goes on to be a 500.
+	 */
+	private <T> T write(String operation, AsyncMechanicShop.ShopCall<T> write, String failure) throws SQLException {
+		try {
+			return call(esql -> esql.measured(operation, () -> write.call(esql)));
+		} catch (SQLException e) {
+			String state = e.getSQLState();
+			if (state != null && (state.startsWith("22") || state.startsWith("23"))) {
+				throw new HttpError(422, failure + ": " + e.getMessage());
+			}
+			throw e;
+		}
+	}
+
+	private void addCustomer(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> body = readObject(exchange);
+		String fname = required(body, "fname");
+		String lname = required(body, "lname");
+		String phone = required(body, "phone");
+		String address = required(body, "address");
+		ResultTable row = write("AddCustomer", esql -> esql.addCustomer(fname, lname, phone, address),
+				"customer was not inserted");
+		sendRow(exchange, 201, row);
+	}
+
+	private void addMechanic(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> body = readObject(exchange);
+		String fname = required(body, "fname");
+		String lname = required(body, "lname");
+		String experience = integer(body, "experience");
+		ResultTable row = write("AddMechanic", esql -> esql.addMechanic(fname, lname, Integer.parseInt(experience)),
+				"mechanic was not inserted");
+		sendRow(exchange, 201, row);
+	}
+
+	private void addCar(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> body = readObject(exchange);
+		String vin = required(body, "vin");
+		String make = required(body, "make");
+		String model = required(body, "model");
+		String year = integer(body, "year");
+		write("AddCar", esql -> {
+			esql.addCar(vin, make, model, Integer.parseInt(year));
+			return null;
+		}, "car was not inserted");
+		send(exchange, 201, "{\"vin\":" + quote(vin) + "}");
+	}
+
+	private void insertServiceRequest(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> body = readObject(exchange);
+		String rid = optionalInteger(body, "rid");
+		String cid = integer(body, "customer_id");
+		String vin = required(body, "vin");
+		String odometer = integer(body, "odometer");
+		String complain = required(body, "complain");
+		LocalDate date = date(body);
+		int inserted = write("InsertServiceRequest", esql -> esql.insertServiceRequest(MechanicShop.optionalId(rid),
+				Integer.parseInt(cid), vin, Timestamp.valueOf(date.atStartOfDay()), Integer.parseInt(odometer), complain),
+				"service request was not inserted");
+		send(exchange, 201, "{\"rid\":" + inserted + "}");
+	}
+
+	private void closeServiceRequest(HttpExchange exchange) throws IOException, SQLException {
+		Map<String, String> body = readObject(exchange);
+		String wid = optionalInteger(body, "wid");
+		String rid = integer(body, "rid");
+		String mid = integer(body, "mid");
+		String comment = required(body, "comment");
+		String bill = integer(body, "bill");
+		LocalDate date = date(body);
+		CloseOutcome outcome = write("CloseServiceRequest", esql -> esql.closeServiceRequest(MechanicShop.optionalId(wid),
+				Integer.parseInt(rid), Integer.parseInt(mid), Timestamp.valueOf(date.atStartOfDay()), comment,
+				Integer.parseInt(bill)), "service request was not closed");
+		int status;
+		switch (outcome.status()) {
+			case CLOSED: status = 201; break;
+			case NO_SUCH_MECHANIC: case NO_SUCH_REQUEST: status = 404; break;
+			case ALREADY_CLOSED: case WID_TAKEN: case CONFLICT: status = 409; break;
+			default: status = 422;
+		}
+		StringBuilder json = new StringBuilder();
+		json.append("{\"status\":").append(quote(outcome.status().name()));
+		if (outcome.wid() != 0) {
+			json.append(",\"wid\":").append(outcome.wid());
+		}
+		if (outcome.requestDate() != null) {
+			json.append(",\"request_date\":").append(quote(outcome.requestDate().toString()));
+		}
+		send(exchange, status, json.append('}').toString());
+	}
+
+	private void findCustomers(HttpExchange exchange) throws IOException, SQLException {
+		String lname = query(exchange).get("lname");
+		if (lname == null || lname.trim().isEmpty()) {
+			throw new HttpError(400, "lname is required");
+		}
+		sendTable(exchange, call(esql -> MechanicShop.FindCustomersByLastName(esql, lname)));
+	}
+
+	private void report(HttpExchange exchange, String report) throws IOException, SQLException {
+		Map<String, String> query = query(exchange);
+		int k = DEFAULT_K;
+		if (query.containsKey("k")) {
+			try {
+				k = Integer.parseInt(query.get("k"));
+			} catch (NumberFormatException e) {
+				throw new HttpError(400, "k must be a number");
+			}
+		}
+		int top = k;
+		if (!Boolean.parseBoolean(query.get("stream"))) {
+			ResultTable table = call(esql -> {
+				switch (report) {
+					case "customers-with-bill-less-than-100": return MechanicShop.ListCustomersWithBillLessThan100(esql);
+					case "customers-with-more-than-20-cars": return MechanicShop.ListCustomersWithMoreThan20Cars(esql);
+					case "cars-before-1995-with-50000-miles": return MechanicShop.ListCarsBefore1995With50000Milles(esql);
+					case "k-cars-with-the-most-services": return MechanicShop.ListKCarsWithTheMostServices(esql, top);
+					default: return MechanicShop.ListCustomersInDescendingOrderOfTheirTotalBill(esql);
+				}
+			});
+			sendTable(exchange, table);
+			return;
+		}
+		JsonRows rows = new JsonRows(exchange);
+		MechanicShop.RowHandler handler = rs -> {
+			rows.row(rs);
+			return true;
+		};
+		try {
+			call(esql -> ReportExporter.streamReport(esql, report, top, handler));
+		} catch (SQLException | RuntimeException e) {
+			rows.fail(String.valueOf(e.getMessage()));
+			throw e;
+		}
+		rows.finish();
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		String text = "Requests (" + this._executor.getInFlight() + " in flight, " + this._executor.getWaiting()
+				+ " waiting for a permit)\n" + this._requests.dump()
+				+ "\nOperations (" + this._esql.getPool() + ")\n" + this._esql.getMetrics().dump();
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/*
+	 * Writes a JSON array of row objects as a chunked response. The headers go out with the first chunk, so a
+	 * report that fails before any row was written can still be answered with an error.
+	 */
+	private static final class JsonRows {
+		private final HttpExchange _exchange;
+		private Writer _out = null;
+		private String[] _names = null;
+		private int _rows = 0;
+
+		JsonRows(HttpExchange exchange) {
+			this._exchange = exchange;
+		}
+
+		void row(String[] names, Object[] values) throws IOException {
+			if (this._out == null) {
+				open();
+			}
+			this._out.write(this._rows++ == 0 ? "\n" : ",\n");
+			writeObject(this._out, names, values);
+		}
+
+		/*
+		 * Called by the row handler of a streamed report, which may only throw SQLException.
+		 */
+		void row(ResultSet rs) throws SQLException {
+			if (this._names == null) {
+				ResultSetMetaData rsmd = rs.getMetaData();
+				this._names = new String[rsmd.getColumnCount()];
+				for (int i = 0; i < this._names.length; i++) {
+					this._names[i] = rsmd.getColumnLabel(i + 1);
+				}
+			}
+			Object[] values = new Object[this._names.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = rs.getObject(i + 1);
+			}
+			try {
+				row(this._names, values);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void open() throws IOException {
+			this._exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			//a length of 0 selects chunked transfer encoding
+			this._exchange.sendResponseHeaders(200, 0);
+			this._out = new BufferedWriter(new OutputStreamWriter(this._exchange.getResponseBody(), StandardCharsets.UTF_8),
+					CHUNK_BYTES);
+			this._out.write('[');
+		}
+
+		void finish() throws IOException {
+			if (this._out == null) {
+				open();
+			}
+			this._out.write(this._rows == 0 ? "]" : "\n]");
+			this._out.close();
+		}
+
+		/*
+		 * Ends the array of a report that failed once its headers were sent with an error object as the last
+		 * element, so a client does not take the rows so far for the whole report. Before that it does nothing,
+		 * and the failure is answered with an error status.
+		 */
+		void fail(String message) {
+			if (this._out == null) {
+				return;
+			}
+			try {
+				this._out.write(this._rows == 0 ? "\n" : ",\n");
+				this._out.write("{\"error\":" + quote(message) + "}\n]");
+				this._out.close();
+			} catch (IOException e) {
+				//the client went away
+			}
+		}
+	}
+
+	private static void sendTable(HttpExchange exchange, ResultTable table) throws IOException {
+		JsonRows rows = new JsonRows(exchange);
+		String[] names = new String[table.getColumnCount()];
+		for (int c = 0; c < names.length; c++) {
+			names[c] = table.getColumnName(c);
+		}
+		Object[] values = new Object[names.length];
+		for (int r = 0; r < table.getRowCount(); r++) {
+			for (int c = 0; c < values.length; c++) {
+				values[c] = table.getObject(r, c);
+			}
+			rows.row(names, values);
+		}
+		rows.finish();
+	}
+
+	private static void sendRow(HttpExchange exchange, int status, ResultTable table) throws IOException {
+		StringBuilder json = new StringBuilder();
+		String[] names = new String[table.getColumnCount()];
+		Object[] values = new Object[names.length];
+		for (int c = 0; c < names.length; c++) {
+			names[c] = table.getColumnName(c);
+			values[c] = table.getObject(0, c);
+		}
+		writeObject(json, names, values);
+		send(exchange, status, json.toString());
+	}
+
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		//a streamed report that fails halfway already sent its status and ended its array with the error
+		if (exchange.getResponseCode() < 0) {
+			send(exchange, status, "{\"error\":" + quote(message) + "}");
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static void writeObject(Appendable out, String[] names, Object[] values) throws IOException {
+		out.append('{');
+		for (int i = 0; i < names.length; i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			out.append(quote(names[i])).append(':');
+			Object value = values[i];
+			if (value == null) {
+				out.append("null");
+			} else if (value instanceof BigDecimal) {
+				out.append(((BigDecimal) value).toPlainString());
+			} else if (value instanceof Number || value instanceof Boolean) {
+				out.append(value.toString());
+			} else {
+				//timestamps in the JDBC escape format, e.g. 2020-03-01 00:00:00.0
+				out.append(quote(value.toString()));
+			}
+		}
+		out.append('}');
+	}
+
+	/**
+	 * Method to quote a string as a JSON string literal.
+	 *
+	 * @param text the string
+	 * @return the literal, quotes included
+	 */
+	static String quote(String text) {
+		StringBuilder out = new StringBuilder(text.length() + 2).append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.append(String.format("\\u%04x", (int) c));
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		return out.append('"').toString();
+	}
+
+	private static Map<String, String> readObject(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return parseObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Method to parse a flat JSON object, the only shape the endpoints take.
+	 * Strings are unescaped; numbers and booleans are kept as written, and
+	 * null becomes a null value.
+	 *
+	 * @param json the request body
+	 * @return the members by name
+	 * @throws HttpError 400 when the body is not a flat JSON object
+	 */
+	static Map<String, String> parseObject(String json) {
+		Map<String, String> members = new HashMap<>();
+		int[] at = {skipSpace(json, 0)};
+		expect(json, at, '{');
+		if (peek(json, at) == '}') {
+			at[0]++;
+		} else {
+			do {
+				String name = parseString(json, at);
+				expect(json, at, ':');
+				members.put(name, parseValue(json, at));
+			} while (next(json, at, ',', '}') == ',');
+		}
+		if (skipSpace(json, at[0]) != json.length()) {
+			throw new HttpError(400, "unexpected text after the object at offset " + at[0]);
+		}
+		return members;
+	}
+
+	private static String parseValue(String json, int[] at) {
+		char c = peek(json, at);
+		if (c == '"') {
+			return parseString(json, at);
+		}
+		if (c == '{' || c == '[') {
+			throw new HttpError(400, "nested values are not supported, at offset " + at[0]);
+		}
+		int start = at[0];
+		while (at[0] < json.length() && "{}[],: \t\r\n\"".indexOf(json.charAt(at[0])) < 0) {
+			at[0]++;
+		}
+		String literal = json.substring(start, at[0]);
+		if (literal.equals("null")) {
+			return null;
+		}
+		if (literal.equals("true") || literal.equals("false") || literal.matches("-?\\d+(\\.\\d+)?([eE][-+]?\\d+)?")) {
+			return literal;
+		}
+		throw new HttpError(400, "malformed value at offset " + start);
+	}
+
+	private static String parseString(String json, int[] at) {
+		expect(json, at, '"');
+		StringBuilder text = new StringBuilder();
+		while (at[0] < json.length()) {
+			char c = json.charAt(at[0]++);
+			if (c == '"') {
+				return text.toString();
+			}
+			if (c != '\\') {
+				text.append(c);
+				continue;
+			}
+			if (at[0] >= json.length()) {
+				break;
+			}
+			char escaped = json.charAt(at[0]++);
+			switch (escaped) {
+				case 'n': text.append('\n'); break;
+				case 'r': text.append('\r'); break;
+				case 't': text.append('\t'); break;
+				case 'b': text.append('\b'); break;
+				case 'f': text.append('\f'); break;
+				case 'u':
+					if (at[0] + 4 > json.length()) {
+						throw new HttpError(400, "malformed escape at offset " + at[0]);
+					}
+					try {
+						text.append((char) Integer.parseInt(json.substring(at[0], at[0] + 4), 16));
+					} catch (NumberFormatException e) {
+						throw new HttpError(400, "malformed escape at offset " + at[0]);
+					}
+					at[0] += 4;
+					break;
+				default: text.append(escaped);
+			}
+		}
+		throw new HttpError(400, "unterminated string");
+	}
+
+	private static char peek(String json, int[] at) {
+		at[0] = skipSpace(json, at[0]);
+		if (at[0] >= json.length()) {
+			throw new HttpError(400, "unexpected end of the body");
+		}
+		return json.charAt(at[0]);
+	}
+
+	private static void expect(String json, int[] at, char c) {
+		if (peek(json, at) != c) {
+			throw new HttpError(400, "expected '" + c + "' at offset " + at[0]);
+		}
+		at[0]++;
+	}
+
+	private static char next(String json, int[] at, char a, char b) {
+		char c = peek(json, at);
+		if (c != a && c != b) {
+			throw new HttpError(400, "expected '" + a + "' or '" + b + "' at offset " + at[0]);
+		}
+		at[0]++;
+		return c;
+	}
+
+	private static int skipSpace(String json, int at) {
+		while (at < json.length() && Character.isWhitespace(json.charAt(at))) {
+			at++;
+		}
+		return at;
+	}
+
+	private static String required(Map<String, String> body, String name) {
+		String value = body.get(name);
+		if (value == null) {
+			throw new HttpError(400, name + " is required");
+		}
+		return value;
+	}
+
+	private static String integer(Map<String, String> body, String name) {
+		String value = required(body, name);
+		try {
+			Integer.parseInt(value.trim());
+			return value.trim();
+		} catch (NumberFormatException e) {
+			throw new HttpError(400, name + " must be an integer");
+		}
+	}
+
+	/*
+	 * A missing or null id is left to the key sequence.
+	 */
+	private static String optionalInteger(Map<String, String> body, String name) {
+		return body.get(name) == null ? null : integer(body, name);
+	}
+
+	private static LocalDate date(Map<String, String> body) {
+		String date = body.get("date");
+		try {
+			return date == null ? LocalDate.now() : LocalDate.parse(date);
+		} catch (DateTimeParseException e) {
+			throw new HttpError(400, "date must be yyyy-mm-dd");
+		}
+	}
+
+	private static Map<String, String> query(HttpExchange exchange) {
+		Map<String, String> params = new HashMap<>();
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	/**
+	 * Serves the shop until the process is stopped.
+	 *
+	 * @param args <dbname> <port> <user> [http port]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + ShopServer.class.getName() +
+					" <dbname> <port> <user> [http port]");
+			return;
+		}
+		int httpPort = args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+
+		PrintStream out = System.out;
+		MechanicShop esql = null;
+		try {
+			esql = new MechanicShop(args[0], args[1], args[2], "password");
+			SessionExecutor executor = new SessionExecutor(esql);
+			ShopServer server = new ShopServer(esql, executor, new InetSocketAddress(httpPort));
+			MechanicShop shop = esql;
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop(1);
+				executor.close();
+				System.setOut(out);
+				out.print(server.getRequestMetrics().dump());
+				shop.cleanup();
+			}));
+			server.start();
+			out.println("Serving on http://localhost:" + server.getAddress().getPort() + "/ with "
+					+ (executor.usesVirtualThreads() ? "virtual" : "platform") + " threads, "
+					+ executor.getMaxConcurrency() + " database permits; stop with Ctrl-C");
+			//the shop operations print their results; keep them off the console
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		} catch (SQLException | IOException e) {
+			System.err.println("Could not start the server: " + e.getMessage());
+			if (esql != null) {
+				esql.cleanup();
+			}
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * This class writes the statements that took longer than a threshold to a
+ * local log file: SQL text, bound parameters, duration, row count and the
+ * operation that ran them. The first time a query shape (its SQL text with
+ * placeholders) is slow, its plan is captured with EXPLAIN (ANALYZE,
+ * BUFFERS) on a background thread and written after it, so the plan is
+ * recorded while the data that made it slow is still there. Only SELECT
+ * statements are explained, since EXPLAIN ANALYZE executes the statement,
+ * and not those with side effects such as nextval or setval calls or row
+ * locks.
+ * The file is rotated once it reaches its size limit.
+ *
+ */
+
+public class SlowQueryLog {
+	//longest parameter value written in full
+	private static final int MAX_PARAM_CHARS = 200;
+	//a SELECT that changes something when run again: sequence calls (IdAllocator, CsvLoader), locks, notifications
+	private static final Pattern SIDE_EFFECTS = Pattern.compile(
+			"\\b(nextval|setval|pg_advisory\\w*|pg_notify|pg_cancel_backend|pg_terminate_backend|lo_\\w+)\\s*\\("
+			+ "|\\bFOR\\s+(NO\\s+KEY\\s+)?(UPDATE|SHARE)\\b|\\bFOR\\s+KEY\\s+SHARE\\b", Pattern.CASE_INSENSITIVE);
+
+	private final MechanicShop _esql;
+	private final long _thresholdNanos;
+	private final boolean _explain;
+	private final Path _file;
+	private final long _maxBytes;
+	private final int _keepFiles;
+	private final Set<String> _explained = ConcurrentHashMap.newKeySet();
+	private final ThreadPoolExecutor _explainer;
+
+	/**
+	 * @param esql the handler used to run EXPLAIN
+	 * @param thresholdMillis statements slower than this are logged
+	 * @param explain whether to capture a plan for each slow query shape
+	 * @param file the log file
+	 * @param maxBytes size at which the file is rotated
+	 * @param keepFiles how many rotated files are kept, as file.1 .. file.n
+	 */
+	public SlowQueryLog(MechanicShop esql, long thresholdMillis, boolean explain, Path file, long maxBytes, int keepFiles) {
+		this._esql = esql;
+		this._thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+		this._explain = explain;
+		this._file = file;
+		this._maxBytes = maxBytes;
+		this._keepFiles = keepFiles;
+		//one plan at a time; plans that would queue up behind a busy explainer are skipped
+		this._explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(16), r -> {
+			Thread t = new Thread(r, "slow-query-explain");
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	public long getThresholdMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(this._thresholdNanos);
+	}
+
+	/**
+	 * Method to log a statement if it was slow.
+	 *
+	 * @param operation the operation that ran it, or null
+	 * @param sql the statement
+	 * @param params the values bound to its placeholders
+	 * @param nanos how long it took
+	 * @param rows rows returned or affected
+	 */
+	public void record(String operation, String sql, Object[] params, long nanos, long rows) {
+		if (nanos < this._thresholdNanos || isExplain(sql)) {
+			return;
+		}
+		StringBuilder entry = new StringBuilder();
+		entry.append(LocalDateTime.now()).append(" slow query ")
+				.append(String.format(Locale.ROOT, "%.3f ms, %d rows", nanos / 1e6, rows));
+		if (operation != null) {
+			entry.append(", operation ").append(operation);
+		}
+		entry.append("\n  sql: ").append(sql.replaceAll("\\s+", " ").trim());
+		entry.append("\n  params: ").append(format(params)).append('\n');
+		write(entry.toString());
+		if (this._explain && isSelect(sql) && this._explained.add(sql)) {
+			Object[] bound = params.clone();
+			this._explainer.execute(() -> explain(sql, bound));
+		}
+	}
+
+	private void explain(String sql, Object[] params) {
+		StringBuilder entry = new StringBuilder();
+		entry.append(LocalDateTime.now()).append(" plan of slow query\n  sql: ").append(sql.replaceAll("\\s+", " ").trim()).append('\n');
+		try {
+			PlanCheck.Plan plan = PlanCheck.explain(this._esql, sql, params);
+			for (String line : plan.text().split("\n")) {
+				entry.append("    ").append(line).append('\n');
+			}
+		} catch (Exception e) {
+			//the shape is tried again the next time it is slow
+			this._explained.remove(sql);
+			entry.append("  EXPLAIN failed: ").append(e.getMessage()).append('\n');
+		}
+		write(entry.toString());
+	}
+
+	private static boolean isExplain(String sql) {
+		return sql.stripLeading().regionMatches(true, 0, "EXPLAIN", 0, 7);
+	}
+
+	private static boolean isSelect(String sql) {
+		String text = sql.stripLeading();
+		return text.regionMatches(true, 0, "SELECT", 0, 6) && !SIDE_EFFECTS.matcher(text).find();
+	}
+
+	private static String format(Object[] params) {
+		StringBuilder text = new StringBuilder("[");
+		for (int i = 0; i < params.length; i++) {
+			String value = String.valueOf(params[i]);
+			if (value.length() > MAX_PARAM_CHARS) {
+				value = value.substring(0, MAX_PARAM_CHARS) + "...";
+			}
+			text.append(i == 0 ? "" : ", ").append(params[i] instanceof String ? "'" + value + "'" : value);
+		}
+		return text.append(']').toString();
+	}
+
+	private synchronized void write(String entry) {
+		byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+		try {
+			if (Files.exists(this._file) && Files.size(this._file) + bytes.length > this._maxBytes) {
+				rotate();
+			}
+			try (Writer out = Files.newBufferedWriter(this._file, StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+				out.write(entry);
+			}
+		} catch (IOException e) {
+			System.err.println("Could not write slow query log " + this._file + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * file.n-1 -> file.n, ..., file -> file.1; the oldest file is dropped.
+	 */
+	private void rotate() throws IOException {
+		Files.deleteIfExists(rotated(this._keepFiles));
+		for (int i = this._keepFiles - 1; i >= 1; i--) {
+			if (Files.exists(rotated(i))) {
+				Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		if (this._keepFiles > 0) {
+			Files.move(this._file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(this._file);
+		}
+	}
+
+	private Path rotated(int generation) {
+		return this._file.resolveSibling(this._file.getFileName() + "." + generation);
+	}
+
+	/**
+	 * Method to stop the background EXPLAIN thread.
+	 */
+	public void close() {
+		this._explainer.shutdownNow();
+	}
+}
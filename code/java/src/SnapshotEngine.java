@@ -0,0 +1,667 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * This class answers the five reports from an in-memory snapshot of the
+ * shop instead of the database. The columns the reports read are loaded
+ * once, in one REPEATABLE READ transaction, into parallel primitive arrays
+ * (one array per column, a row is an index). References between tables are
+ * resolved at load time to row indexes, so the joins of the reports are
+ * array lookups, and the aggregations run as parallel streams over the
+ * fork-join pool. Single-row writes made through MechanicShop are applied
+ * to the snapshot as they happen; bulk writes drop it, and it is loaded
+ * again on the next report. A row whose key the snapshot already holds is
+ * ignored, so a write that the load has also read is not counted twice.
+ * Mechanic and the text columns no report reads (phone, address, complain)
+ * are not loaded.
+ *
+ * The reports have the columns and types of their SQL versions and, where
+ * the SQL orders its result, the same order; text is ordered by
+ * String.compareTo, which agrees with the database under the C collation.
+ * Run main(), or snapshot-check.sh, to compare every report against the
+ * database.
+ *
+ */
+
+public class SnapshotEngine {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/*
+	 * Maps an int key to a row index by open addressing; -1 when absent.
+	 */
+	private static final class IntIndex {
+		private int[] _keys = new int[64];
+		private int[] _rows = new int[64];
+		private boolean[] _used = new boolean[64];
+		private int _size = 0;
+
+		int get(int key) {
+			int mask = this._keys.length - 1;
+			for (int slot = mix(key) & mask; this._used[slot]; slot = (slot + 1) & mask) {
+				if (this._keys[slot] == key) {
+					return this._rows[slot];
+				}
+			}
+			return -1;
+		}
+
+		void put(int key, int row) {
+			if (2 * (this._size + 1) > this._keys.length) {
+				rehash(this._keys.length * 2);
+			}
+			int mask = this._keys.length - 1;
+			int slot = mix(key) & mask;
+			while (this._used[slot] && this._keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			if (!this._used[slot]) {
+				this._used[slot] = true;
+				this._keys[slot] = key;
+				this._size++;
+			}
+			this._rows[slot] = row;
+		}
+
+		private void rehash(int capacity) {
+			int[] keys = this._keys;
+			int[] rows = this._rows;
+			boolean[] used = this._used;
+			this._keys = new int[capacity];
+			this._rows = new int[capacity];
+			this._used = new boolean[capacity];
+			this._size = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (used[i]) {
+					put(keys[i], rows[i]);
+				}
+			}
+		}
+
+		private static int mix(int key) {
+			int h = key * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	//Customer
+	private int _customers = 0;
+	private int[] _customerId = new int[INITIAL_CAPACITY];
+	private String[] _customerFname = new String[INITIAL_CAPACITY];
+	private String[] _customerLname = new String[INITIAL_CAPACITY];
+	private final IntIndex _customerRow = new IntIndex();
+
+	//Car
+	private int _cars = 0;
+	private String[] _carVin = new String[INITIAL_CAPACITY];
+	private String[] _carMake = new String[INITIAL_CAPACITY];
+	private String[] _carModel = new String[INITIAL_CAPACITY];
+	private int[] _carYear = new int[INITIAL_CAPACITY];
+	private final Map<String, Integer> _carRow = new HashMap<>();
+
+	//Owns, as rows of Customer and Car
+	private int _owns = 0;
+	private int[] _ownsCustomer = new int[INITIAL_CAPACITY];
+	private int[] _ownsCar = new int[INITIAL_CAPACITY];
+
+	//Service_Request, customer and car as rows
+	private int _requests = 0;
+	private int[] _requestRid = new int[INITIAL_CAPACITY];
+	private int[] _requestCustomer = new int[INITIAL_CAPACITY];
+	private int[] _requestCar = new int[INITIAL_CAPACITY];
+	private int[] _requestOdometer = new int[INITIAL_CAPACITY];
+	private final IntIndex _requestRow = new IntIndex();
+
+	//Closed_Request, the request as a row
+	private int _closed = 0;
+	private int[] _closedWid = new int[INITIAL_CAPACITY];
+	private int[] _closedRequest = new int[INITIAL_CAPACITY];
+	private long[] _closedDate = new long[INITIAL_CAPACITY];
+	private String[] _closedComment = new String[INITIAL_CAPACITY];
+	private int[] _closedBill = new int[INITIAL_CAPACITY];
+	private final IntIndex _closedRow = new IntIndex();
+
+	private SnapshotEngine() {
+	}
+
+	/**
+	 * Method to load a snapshot of the tables the reports read. All tables
+	 * are read in one REPEATABLE READ transaction, so they are consistent
+	 * with each other.
+	 *
+	 * @param esql the database handler
+	 * @return the loaded snapshot
+	 * @throws java.sql.SQLException when a table cannot be read
+	 */
+	public static SnapshotEngine load(MechanicShop esql) throws SQLException {
+		SnapshotEngine engine = new SnapshotEngine();
+		esql.inTransaction(pooled -> {
+			try (Statement stmt = pooled.connection().createStatement()) {
+				stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+			}
+			ResultTable customers = esql.executeQueryAndReturnTable("SELECT id, fname, lname FROM Customer");
+			for (int r = 0; r < customers.getRowCount(); r++) {
+				engine.addCustomer(customers.getInt(r, 0), customers.getString(r, 1), customers.getString(r, 2));
+			}
+			ResultTable cars = esql.executeQueryAndReturnTable("SELECT vin, make, model, year::integer FROM Car");
+			for (int r = 0; r < cars.getRowCount(); r++) {
+				engine.addCar(cars.getString(r, 0), cars.getString(r, 1), cars.getString(r, 2), cars.getInt(r, 3));
+			}
+			ResultTable owns = esql.executeQueryAndReturnTable("SELECT customer_id, car_vin FROM Owns");
+			for (int r = 0; r < owns.getRowCount(); r++) {
+				engine.addOwnership(owns.getInt(r, 0), owns.getString(r, 1));
+			}
+			ResultTable requests = esql.executeQueryAndReturnTable(
+					"SELECT rid, customer_id, car_vin, odometer::integer FROM Service_Request");
+			for (int r = 0; r < requests.getRowCount(); r++) {
+				engine.addServiceRequest(requests.getInt(r, 0), requests.getInt(r, 1), requests.getString(r, 2),
+						requests.getInt(r, 3));
+			}
+			ResultTable closed = esql.executeQueryAndReturnTable("SELECT wid, rid, date, comment, bill::integer FROM Closed_Request");
+			for (int r = 0; r < closed.getRowCount(); r++) {
+				engine.closeServiceRequest(closed.getInt(r, 0), closed.getInt(r, 1), closed.getTimestamp(r, 2),
+						closed.getString(r, 3), closed.getInt(r, 4));
+			}
+			return null;
+		});
+		return engine;
+	}
+
+	/**
+	 * Method to add a customer, unless the snapshot holds its id.
+	 *
+	 * @param id the customer id
+	 * @param fname first name
+	 * @param lname last name
+	 */
+	public void addCustomer(int id, String fname, String lname) {
+		this._lock.writeLock().lock();
+		try {
+			if (this._customerRow.get(id) >= 0) {
+				return;
+			}
+			int row = this._customers;
+			if (row == this._customerId.length) {
+				int capacity = 2 * row;
+				this._customerId = Arrays.copyOf(this._customerId, capacity);
+				this._customerFname = Arrays.copyOf(this._customerFname, capacity);
+				this._customerLname = Arrays.copyOf(this._customerLname, capacity);
+			}
+			this._customerId[row] = id;
+			this._customerFname[row] = fname;
+			this._customerLname[row] = lname;
+			this._customerRow.put(id, row);
+			this._customers++;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to add a car, unless the snapshot holds its VIN.
+	 *
+	 * @param vin the car's VIN
+	 * @param make the make
+	 * @param model the model
+	 * @param year the model year
+	 */
+	public void addCar(String vin, String make, String model, int year) {
+		this._lock.writeLock().lock();
+		try {
+			if (this._carRow.containsKey(vin)) {
+				return;
+			}
+			int row = this._cars;
+			if (row == this._carVin.length) {
+				int capacity = 2 * row;
+				this._carVin = Arrays.copyOf(this._carVin, capacity);
+				this._carMake = Arrays.copyOf(this._carMake, capacity);
+				this._carModel = Arrays.copyOf(this._carModel, capacity);
+				this._carYear = Arrays.copyOf(this._carYear, capacity);
+			}
+			this._carVin[row] = vin;
+			this._carMake[row] = make;
+			this._carModel[row] = model;
+			this._carYear[row] = year;
+			this._carRow.put(vin, row);
+			this._cars++;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to record that a customer owns a car.
+	 *
+	 * @param customerId a customer in the snapshot
+	 * @param vin a car in the snapshot
+	 */
+	public void addOwnership(int customerId, String vin) {
+		this._lock.writeLock().lock();
+		try {
+			int row = this._owns;
+			if (row == this._ownsCustomer.length) {
+				int capacity = 2 * row;
+				this._ownsCustomer = Arrays.copyOf(this._ownsCustomer, capacity);
+				this._ownsCar = Arrays.copyOf(this._ownsCar, capacity);
+			}
+			this._ownsCustomer[row] = customer(customerId);
+			this._ownsCar[row] = car(vin);
+			this._owns++;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to add a service request, unless the snapshot holds its rid.
+	 *
+	 * @param rid the request id
+	 * @param customerId a customer in the snapshot
+	 * @param vin a car in the snapshot
+	 * @param odometer the odometer reading
+	 */
+	public void addServiceRequest(int rid, int customerId, String vin, int odometer) {
+		this._lock.writeLock().lock();
+		try {
+			if (this._requestRow.get(rid) >= 0) {
+				return;
+			}
+			int row = this._requests;
+			if (row == this._requestRid.length) {
+				int capacity = 2 * row;
+				this._requestRid = Arrays.copyOf(this._requestRid, capacity);
+				this._requestCustomer = Arrays.copyOf(this._requestCustomer, capacity);
+				this._requestCar = Arrays.copyOf(this._requestCar, capacity);
+				this._requestOdometer = Arrays.copyOf(this._requestOdometer, capacity);
+			}
+			this._requestRid[row] = rid;
+			this._requestCustomer[row] = customer(customerId);
+			this._requestCar[row] = car(vin);
+			this._requestOdometer[row] = odometer;
+			this._requestRow.put(rid, row);
+			this._requests++;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to add a closed request, unless the snapshot holds its wid.
+	 *
+	 * @param wid the id of the closing
+	 * @param rid a service request in the snapshot
+	 * @param date the closing date
+	 * @param comment the mechanic's comment
+	 * @param bill the amount billed
+	 */
+	public void closeServiceRequest(int wid, int rid, Timestamp date, String comment, int bill) {
+		this._lock.writeLock().lock();
+		try {
+			if (this._closedRow.get(wid) >= 0) {
+				return;
+			}
+			int request = this._requestRow.get(rid);
+			if (request < 0) {
+				throw new IllegalArgumentException("No service request " + rid + " in the snapshot");
+			}
+			int row = this._closed;
+			if (row == this._closedWid.length) {
+				int capacity = 2 * row;
+				this._closedWid = Arrays.copyOf(this._closedWid, capacity);
+				this._closedRequest = Arrays.copyOf(this._closedRequest, capacity);
+				this._closedDate = Arrays.copyOf(this._closedDate, capacity);
+				this._closedComment = Arrays.copyOf(this._closedComment, capacity);
+				this._closedBill = Arrays.copyOf(this._closedBill, capacity);
+			}
+			this._closedWid[row] = wid;
+			this._closedRequest[row] = request;
+			this._closedDate[row] = date.getTime();
+			this._closedComment[row] = comment;
+			this._closedBill[row] = bill;
+			this._closedRow.put(wid, row);
+			this._closed++;
+		} finally {
+			this._lock.writeLock().unlock();
+		}
+	}
+
+	private int customer(int id) {
+		int row = this._customerRow.get(id);
+		if (row < 0) {
+			throw new IllegalArgumentException("No customer " + id + " in the snapshot");
+		}
+		return row;
+	}
+
+	private int car(String vin) {
+		Integer row = this._carRow.get(vin);
+		if (row == null) {
+			throw new IllegalArgumentException("No car " + vin + " in the snapshot");
+		}
+		return row;
+	}
+
+	/**
+	 * Method to list the closed requests billed under 100, as
+	 * MechanicShop.BILL_LESS_THAN_100_SQL.
+	 *
+	 * @return date, comment, bill
+	 */
+	public ResultTable customersWithBillLessThan100() {
+		this._lock.readLock().lock();
+		try {
+			int[] bill = this._closedBill;
+			int[] rows = IntStream.range(0, this._closed).parallel().filter(i -> bill[i] < 100).toArray();
+			ResultTable result = ResultTable.of(new String[] {"date", "comment", "bill"}, new ResultTable.ColumnType[] {
+				ResultTable.ColumnType.TIMESTAMP, ResultTable.ColumnType.STRING, ResultTable.ColumnType.INT});
+			for (int i : rows) {
+				result.appendRow(this._closedDate[i], this._closedComment[i], bill[i]);
+			}
+			result.trim();
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to list the customers owning more than 20 cars, as
+	 * MechanicShop.MORE_THAN_20_CARS_SQL.
+	 *
+	 * @return fname, lname
+	 */
+	public ResultTable customersWithMoreThan20Cars() {
+		this._lock.readLock().lock();
+		try {
+			int customers = this._customers;
+			int[] owner = this._ownsCustomer;
+			int[] cars = IntStream.range(0, this._owns).parallel()
+					.collect(() -> new int[customers], (counts, i) -> counts[owner[i]]++, SnapshotEngine::add);
+			ResultTable result = ResultTable.of(new String[] {"fname", "lname"}, new ResultTable.ColumnType[] {
+				ResultTable.ColumnType.STRING, ResultTable.ColumnType.STRING});
+			for (int c : IntStream.range(0, customers).parallel().filter(c -> cars[c] > 20).toArray()) {
+				result.appendRow(this._customerFname[c], this._customerLname[c]);
+			}
+			result.trim();
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to list the cars made before 1995 with a service under 50000
+	 * miles, once per car, as MechanicShop.CARS_BEFORE_1995_SQL.
+	 *
+	 * @return make, model, year
+	 */
+	public ResultTable carsBefore1995With50000Miles() {
+		this._lock.readLock().lock();
+		try {
+			int[] odometer = this._requestOdometer;
+			int[] car = this._requestCar;
+			BitSet lowMileage = IntStream.range(0, this._requests).parallel()
+					.collect(BitSet::new, (seen, i) -> {
+						if (odometer[i] < 50000) {
+							seen.set(car[i]);
+						}
+					}, BitSet::or);
+			int[] year = this._carYear;
+			ResultTable result = ResultTable.of(new String[] {"make", "model", "year"}, new ResultTable.ColumnType[] {
+				ResultTable.ColumnType.STRING, ResultTable.ColumnType.STRING, ResultTable.ColumnType.INT});
+			for (int c : IntStream.range(0, this._cars).parallel().filter(c -> year[c] < 1995 && lowMileage.get(c)).toArray()) {
+				result.appendRow(this._carMake[c], this._carModel[c], year[c]);
+			}
+			result.trim();
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to list the k cars with the most service requests, ties broken
+	 * by VIN, as MechanicShop.CARS_WITH_MOST_SERVICES_SQL.
+	 *
+	 * @param k how many cars to list
+	 * @return make, model, vin, services
+	 */
+	public ResultTable carsWithTheMostServices(int k) {
+		this._lock.readLock().lock();
+		try {
+			int cars = this._cars;
+			int[] car = this._requestCar;
+			int[] services = IntStream.range(0, this._requests).parallel()
+					.collect(() -> new int[cars], (counts, i) -> counts[car[i]]++, SnapshotEngine::add);
+			String[] vin = this._carVin;
+			Comparator<Integer> order = Comparator.<Integer>comparingInt(c -> -services[c]).thenComparing(c -> vin[c]);
+			ResultTable result = ResultTable.of(new String[] {"make", "model", "vin", "services"}, new ResultTable.ColumnType[] {
+				ResultTable.ColumnType.STRING, ResultTable.ColumnType.STRING, ResultTable.ColumnType.STRING,
+				ResultTable.ColumnType.LONG});
+			IntStream.range(0, cars).parallel().filter(c -> services[c] > 0).boxed().sorted(order).limit(Math.max(0, k))
+					.forEachOrdered(c -> result.appendRow(this._carMake[c], this._carModel[c], vin[c], (long) services[c]));
+			result.trim();
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Method to list the customers with closed requests by their total bill,
+	 * highest first, ties broken by id, as MechanicShop.TOTAL_BILL_DESC_SQL.
+	 *
+	 * @return id, fname, lname, total
+	 */
+	public ResultTable customersInDescendingOrderOfTheirTotalBill() {
+		this._lock.readLock().lock();
+		try {
+			int customers = this._customers;
+			int[] request = this._closedRequest;
+			int[] customer = this._requestCustomer;
+			int[] bill = this._closedBill;
+			long[] totals = IntStream.range(0, this._closed).parallel()
+					.collect(() -> new long[customers], (sums, i) -> sums[customer[request[i]]] += bill[i], SnapshotEngine::add);
+			BitSet closed = IntStream.range(0, this._closed).parallel()
+					.collect(BitSet::new, (seen, i) -> seen.set(customer[request[i]]), BitSet::or);
+			int[] id = this._customerId;
+			Comparator<Integer> order = Comparator.<Integer>comparingLong(c -> -totals[c]).thenComparingInt(c -> id[c]);
+			ResultTable result = ResultTable.of(new String[] {"id", "fname", "lname", "total"}, new ResultTable.ColumnType[] {
+				ResultTable.ColumnType.INT, ResultTable.ColumnType.STRING, ResultTable.ColumnType.STRING,
+				ResultTable.ColumnType.LONG});
+			closed.stream().parallel().boxed().sorted(order).forEachOrdered(c ->
+					result.appendRow(id[c], this._customerFname[c], this._customerLname[c], totals[c]));
+			result.trim();
+			return result;
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+
+	private static void add(int[] into, int[] from) {
+		for (int i = 0; i < into.length; i++) {
+			into[i] += from[i];
+		}
+	}
+
+	private static void add(long[] into, long[] from) {
+		for (int i = 0; i < into.length; i++) {
+			into[i] += from[i];
+		}
+	}
+
+	/**
+	 * Method to compare a report computed by the snapshot with its SQL
+	 * version. Reports whose SQL has no ORDER BY are compared as multisets.
+	 *
+	 * @param expected the rows returned by the database
+	 * @param actual the rows computed by the snapshot
+	 * @param ordered whether the order of the rows must agree as well
+	 * @return null when they agree, else a description of the first difference
+	 */
+	static String difference(ResultTable expected, ResultTable actual, boolean ordered) {
+		for (int c = 0; c < Math.max(expected.getColumnCount(), actual.getColumnCount()); c++) {
+			if (c >= expected.getColumnCount() || c >= actual.getColumnCount()
+					|| !expected.getColumnName(c).equals(actual.getColumnName(c))) {
+				return "columns differ";
+			}
+		}
+		List<List<String>> want = expected.toRows();
+		List<List<String>> got = actual.toRows();
+		if (!ordered) {
+			Comparator<List<String>> byText = Comparator.comparing(Object::toString);
+			want.sort(byText);
+			got.sort(byText);
+		}
+		for (int r = 0; r < Math.min(want.size(), got.size()); r++) {
+			if (!want.get(r).equals(got.get(r))) {
+				return "row " + r + ": database " + want.get(r) + ", snapshot " + got.get(r);
+			}
+		}
+		return want.size() == got.size() ? null : "database " + want.size() + " rows, snapshot " + got.size() + " rows";
+	}
+
+	/*
+	 * Runs every report on the database and on the snapshot; null values mean they agree.
+	 */
+	private static Map<String, String> compare(MechanicShop esql, SnapshotEngine engine, int k) throws SQLException {
+		Map<String, String> differences = new LinkedHashMap<>();
+		differences.put("ListCustomersWithBillLessThan100", difference(
+				esql.executeQueryAndReturnTable(MechanicShop.BILL_LESS_THAN_100_SQL), engine.customersWithBillLessThan100(), false));
+		differences.put("ListCustomersWithMoreThan20Cars", difference(
+				esql.executeQueryAndReturnTable(MechanicShop.MORE_THAN_20_CARS_SQL), engine.customersWithMoreThan20Cars(), false));
+		differences.put("ListCarsBefore1995With50000Milles", difference(
+				esql.executeQueryAndReturnTable(MechanicShop.CARS_BEFORE_1995_SQL), engine.carsBefore1995With50000Miles(), false));
+		differences.put("ListKCarsWithTheMostServices", difference(
+				esql.executeQueryAndReturnTable(MechanicShop.CARS_WITH_MOST_SERVICES_SQL, k), engine.carsWithTheMostServices(k), true));
+		differences.put("ListCustomersInDescendingOrderOfTheirTotalBill", difference(
+				esql.executeQueryAndReturnTable(MechanicShop.TOTAL_BILL_DESC_SQL),
+				engine.customersInDescendingOrderOfTheirTotalBill(), true));
+		return differences;
+	}
+
+	/*
+	 * Thrown to roll back the rows written by the differential check.
+	 */
+	private static final class RolledBack extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final Map<String, String> differences;
+
+		RolledBack(Map<String, String> differences) {
+			super(null, null, false, false);
+			this.differences = differences;
+		}
+	}
+
+	/*
+	 * Writes a customer owning 21 cars built in 1990, one of them with a service request closed under 100, applies
+	 * the same writes to the snapshot and compares again, so every report sees an incremental change. The writes are
+	 * rolled back at the end.
+	 */
+	private static Map<String, String> compareAfterWrites(MechanicShop esql, SnapshotEngine engine, int k) throws SQLException {
+		try {
+			esql.inTransaction(pooled -> {
+				int id = esql.executeUpdateAndReturnTable("INSERT INTO Customer (id, fname, lname, phone, address) "
+						+ "SELECT COALESCE(MAX(id), 0) + 1, ?, ?, ?, ? FROM Customer RETURNING id",
+						"Snapshot", "Check", "(000)000-0000", "rolled back").getInt(0, 0);
+				engine.addCustomer(id, "Snapshot", "Check");
+				for (int i = 0; i <= 20; i++) {
+					String vin = "SNAPSHOTCHECK" + i;
+					esql.executeUpdate("INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?)", vin, "Make", "Model", 1990);
+					engine.addCar(vin, "Make", "Model", 1990);
+					esql.executeUpdate("INSERT INTO Owns (ownership_id, customer_id, car_vin) "
+							+ "SELECT COALESCE(MAX(ownership_id), 0) + 1, ?, ? FROM Owns", id, vin);
+					engine.addOwnership(id, vin);
+				}
+				Timestamp opened = Timestamp.valueOf("2000-01-01 00:00:00");
+				Timestamp closed = Timestamp.valueOf("2000-01-02 00:00:00");
+				int rid = esql.executeUpdateAndReturnTable("INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain) "
+						+ "SELECT COALESCE(MAX(rid), 0) + 1, ?, ?, ?, ?, ? FROM Service_Request RETURNING rid",
+						id, "SNAPSHOTCHECK0", opened, 1000, "rolled back").getInt(0, 0);
+				engine.addServiceRequest(rid, id, "SNAPSHOTCHECK0", 1000);
+				int wid = esql.executeUpdateAndReturnTable("INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill) "
+						+ "SELECT COALESCE(MAX(wid), 0) + 1, ?, (SELECT MIN(id) FROM Mechanic), ?, ?, ? FROM Closed_Request RETURNING wid",
+						rid, closed, "rolled back", 42).getInt(0, 0);
+				engine.closeServiceRequest(wid, rid, closed, "rolled back", 42);
+				throw new RolledBack(compare(esql, engine, k));
+			});
+		} catch (RolledBack e) {
+			return e.differences;
+		}
+		throw new IllegalStateException("the check transaction was not rolled back");
+	}
+
+	private static boolean report(String title, Map<String, String> differences) {
+		boolean agree = true;
+		System.out.println(title);
+		for (Map.Entry<String, String> report : differences.entrySet()) {
+			System.out.println(String.format("  %-48s %s", report.getKey(), report.getValue() == null ? "OK" : "MISMATCH " + report.getValue()));
+			agree &= report.getValue() == null;
+		}
+		return agree;
+	}
+
+	/**
+	 * Differential check: loads a snapshot and compares all five reports
+	 * with the database, then again after incremental writes that are
+	 * rolled back. Exits with status 1 when anything disagrees.
+	 *
+	 * @param args <dbname> <port> <user> [k]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length > 4) {
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + SnapshotEngine.class.getName() +
+					" <dbname> <port> <user> [k]");
+			return;
+		}
+		int k = args.length == 4 ? Integer.parseInt(args[3]) : 10;
+
+		MechanicShop esql = null;
+		boolean agree = false;
+		try {
+			esql = new MechanicShop(args[0], args[1], args[2], "password");
+			long start = System.nanoTime();
+			SnapshotEngine engine = load(esql);
+			System.out.println(String.format("Loaded %s in %.1f ms", engine, (System.nanoTime() - start) / 1e6));
+			agree = report("Snapshot as loaded:", compare(esql, engine, k));
+			agree &= report("After incremental writes (rolled back):", compareAfterWrites(esql, engine, k));
+		} catch (Exception e) {
+			System.err.println("Check failed: " + e.getMessage());
+		} finally {
+			if (esql != null) {
+				esql.cleanup();
+			}
+		}
+		System.out.println(agree ? "Snapshot agrees with the database" : "Snapshot DISAGREES with the database");
+		if (!agree) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return rows held per table, for diagnostics
+	 */
+	@Override
+	public String toString() {
+		this._lock.readLock().lock();
+		try {
+			return "SnapshotEngine[customers=" + this._customers + ", cars=" + this._cars + ", owns=" + this._owns
+					+ ", requests=" + this._requests + ", closed=" + this._closed + "]";
+		} finally {
+			this._lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the materialized views of the reports (migration V6)
+ * fresh. Each view is refreshed with REFRESH MATERIALIZED VIEW CONCURRENTLY,
+ * so readers are never blocked, on a background thread: on a timer, and as
+ * soon as the given number of writes to its source tables went through this
+ * handler. A report reads a view only while the view was refreshed within
+ * the staleness bound; before the first refresh, after failed refreshes or
+ * with views turned off, it reads the live tables instead. The thread is
+ * started by the first report that asks, so tools that never read a report
+ * do not refresh anything.
+ *
+ */
+
+public class ViewRefresher {
+	/**
+	 * A materialized view and the tables it is computed from.
+	 */
+	public enum View {
+		CUSTOMER_CAR_COUNTS("mv_customer_car_counts", "Owns"),
+		VIN_SERVICE_COUNTS("mv_vin_service_counts", "Service_Request");
+
+		final String name;
+		final String[] sources;
+
+		View(String name, String... sources) {
+			this.name = name;
+			this.sources = sources;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+	}
+
+	/*
+	 * Refresh state of one view.
+	 */
+	private static final class State {
+		//System.nanoTime() at the start of the last successful refresh, valid when refreshed is set
+		volatile long refreshedAt = 0;
+		volatile boolean refreshed = false;
+		//writes to the source tables since the last refresh started
+		final AtomicLong writes = new AtomicLong();
+		//a refresh is queued or running
+		final AtomicBoolean pending = new AtomicBoolean();
+		volatile boolean warned = false;
+	}
+
+	private final MechanicShop _esql;
+	private final long _maxStalenessNanos;
+	private final long _periodMillis;
+	private final long _refreshAfterWrites;
+	private final Map<View, State> _states = new EnumMap<>(View.class);
+	private ScheduledExecutorService _scheduler = null;
+	private boolean _closed = false;
+
+	/**
+	 * @param esql the handler that runs the refreshes
+	 * @param maxStalenessMillis how old a view may be and still be read; negative turns the views off
+	 * @param periodMillis delay between timed refreshes of every view; 0 refreshes on writes only
+	 * @param refreshAfterWrites writes to the source tables that trigger a refresh; 0 refreshes on the timer only
+	 */
+	public ViewRefresher(MechanicShop esql, long maxStalenessMillis, long periodMillis, long refreshAfterWrites) {
+		this._esql = esql;
+		this._maxStalenessNanos = maxStalenessMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(maxStalenessMillis);
+		this._periodMillis = periodMillis;
+		this._refreshAfterWrites = refreshAfterWrites;
+		for (View view : View.values()) {
+			this._states.put(view, new State());
+		}
+	}
+
+	/**
+	 * Method to decide whether a report may read a view, starting the
+	 * background refreshes on first use.
+	 *
+	 * @param view the view the report would read
+	 * @return true when the view was refreshed within the staleness bound
+	 */
+	public boolean isFresh(View view) {
+		if (this._maxStalenessNanos < 0) {
+			return false;
+		}
+		start();
+		State state = this._states.get(view);
+		return state.refreshed && System.nanoTime() - state.refreshedAt <= this._maxStalenessNanos;
+	}
+
+	private synchronized void start() {
+		if (this._scheduler != null || this._closed) {
+			return;
+		}
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread t = new Thread(r, "view-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this._scheduler = scheduler;
+		if (this._periodMillis > 0) {
+			scheduler.scheduleWithFixedDelay(this::refreshAll, 0, this._periodMillis, TimeUnit.MILLISECONDS);
+		} else {
+			scheduler.execute(this::refreshAll);
+		}
+	}
+
+	/**
+	 * Method to count a write to a table, queueing a refresh of the views
+	 * computed from it once enough writes have accumulated.
+	 *
+	 * @param table the table that was written
+	 */
+	void written(String table) {
+		for (View view : View.values()) {
+			for (String source : view.sources) {
+				if (source.equalsIgnoreCase(table)) {
+					State state = this._states.get(view);
+					long writes = state.writes.incrementAndGet();
+					if (this._refreshAfterWrites > 0 && writes >= this._refreshAfterWrites) {
+						queue(view);
+					}
+				}
+			}
+		}
+	}
+
+	private synchronized void queue(View view) {
+		State state = this._states.get(view);
+		if (this._scheduler == null || this._scheduler.isShutdown() || !state.pending.compareAndSet(false, true)) {
+			return;
+		}
+		this._scheduler.execute(() -> {
+			try {
+				refreshQuietly(view);
+			} finally {
+				state.pending.set(false);
+			}
+		});
+	}
+
+	private void refreshAll() {
+		for (View view : View.values()) {
+			refreshQuietly(view);
+		}
+	}
+
+	private void refreshQuietly(View view) {
+		try {
+			refresh(view);
+		} catch (SQLException e) {
+			State state = this._states.get(view);
+			if (!state.warned) {
+				state.warned = true;
+				System.err.println("Warning: could not refresh " + view.name + ", reports read the live tables: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Method to refresh a view now, on the calling thread.
+	 *
+	 * @param view the view to refresh
+	 * @throws java.sql.SQLException when the refresh failed, e.g. the view does not exist yet
+	 */
+	public void refresh(View view) throws SQLException {
+		State state = this._states.get(view);
+		long start = System.nanoTime();
+		long writes = state.writes.get();
+		this._esql.measured("Refresh " + view.name, () -> {
+			this._esql.executeUpdate("REFRESH MATERIALIZED VIEW CONCURRENTLY " + view.name);
+			return null;
+		});
+		state.writes.addAndGet(-writes);
+		state.refreshedAt = start;
+		state.refreshed = true;
+		state.warned = false;
+	}
+
+	/**
+	 * @param view a view
+	 * @return milliseconds since the start of its last refresh, or -1 if it was not refreshed yet
+	 */
+	public long getAgeMillis(View view) {
+		State state = this._states.get(view);
+		return state.refreshed ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - state.refreshedAt) : -1;
+	}
+
+	/**
+	 * Method to stop the background refreshes.
+	 */
+	public synchronized void close() {
+		this._closed = true;
+		if (this._scheduler != null) {
+			this._scheduler.shutdownNow();
+		}
+	}
+}
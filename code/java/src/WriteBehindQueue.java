@@ -0,0 +1,438 @@
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is the write-behind path of the counter desk, turned on with
+ * -Dmechanicshop.writeBehind=true. New customers, cars and service
+ * requests are put on a lock-free queue and the caller gets a future at
+ * once. A flusher thread drains the queue into one transaction per batch
+ * (group commit), as soon as BATCH_SIZE writes are waiting or the oldest
+ * has waited MAX_DELAY_MILLIS, so a rush of check-ins shares one commit
+ * and one fsync instead of paying one each. Within a batch the rows of a
+ * table go out as one JDBC batch, which the driver rewrites into
+ * multi-row INSERTs, customers and cars ahead of the service requests that
+ * may refer to them. Keys come from blocks of the key sequences
+ * (IdAllocator), so no row needs RETURNING.
+ *
+ * A future completes when the transaction holding its row has committed,
+ * that is once the write is durable. A batch that fails is replayed with
+ * a savepoint per write, so only the writes at fault fail. At most
+ * CAPACITY writes are queued or being flushed; beyond that callers wait
+ * for room, and after OFFER_TIMEOUT_MILLIS their write is rejected. A
+ * write whose future is cancelled while it is still queued is dropped.
+ *
+ */
+
+public class WriteBehindQueue implements AutoCloseable {
+	static final boolean ENABLED = Boolean.getBoolean("mechanicshop.writeBehind");
+	//writes queued or being flushed before callers have to wait
+	static final int CAPACITY = Integer.getInteger("mechanicshop.writeBehind.capacity", 10000);
+	//writes per transaction, and the queue depth that starts a flush right away
+	static final int BATCH_SIZE = Integer.getInteger("mechanicshop.writeBehind.batchSize", 200);
+	//longest a write waits for its batch to fill up
+	static final long MAX_DELAY_MILLIS = Long.getLong("mechanicshop.writeBehind.maxDelayMillis", 5);
+	//longest a caller waits for room before its write is rejected
+	static final long OFFER_TIMEOUT_MILLIS = Long.getLong("mechanicshop.writeBehind.offerTimeoutMillis", 10000);
+
+	static final String CUSTOMER_INSERT = "INSERT INTO Customer (id, fname, lname, phone, address) VALUES (?, ?, ?, ?, ?)";
+	static final String CAR_INSERT = "INSERT INTO Car (vin, make, model, year) VALUES (?, ?, ?, ?)";
+
+	/*
+	 * The tables written, in the order their rows are inserted within a batch.
+	 */
+	private enum Kind {
+		CUSTOMER("Customer", CUSTOMER_INSERT),
+		CAR("Car", CAR_INSERT),
+		SERVICE_REQUEST("Service_Request", BulkIngest.SERVICE_REQUEST_INSERT);
+
+		final String table;
+		final String sql;
+
+		Kind(String table, String sql) {
+			this.table = table;
+			this.sql = sql;
+		}
+	}
+
+	/*
+	 * One queued row. The key is the customer id or rid, null until taken from its sequence; 0 is a real key.
+	 */
+	private static final class Write {
+		final Kind kind;
+		final Object[] values;
+		final CompletableFuture<Integer> future = new CompletableFuture<>();
+		final long enqueued = System.nanoTime();
+		Integer key;
+
+		Write(Kind kind, Integer key, Object... values) {
+			this.kind = kind;
+			this.key = key;
+			this.values = values;
+		}
+
+		void bind(PreparedStatement stmt) throws SQLException {
+			int i = 1;
+			if (this.kind != Kind.CAR) {
+				stmt.setInt(i++, this.key);
+			}
+			for (Object value : this.values) {
+				stmt.setObject(i++, value);
+			}
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final IdAllocator _customerIds = new IdAllocator("customer_id_seq", MechanicShop.ID_BLOCK_SIZE);
+	private final IdAllocator _rids = new IdAllocator("service_request_rid_seq", MechanicShop.ID_BLOCK_SIZE);
+	private final ConcurrentLinkedQueue<Write> _queue = new ConcurrentLinkedQueue<>();
+	//one permit per write that may still be queued or flushed
+	private final Semaphore _room = new Semaphore(CAPACITY);
+	private final AtomicInteger _depth = new AtomicInteger();
+	private final AtomicInteger _maxDepth = new AtomicInteger();
+	private final LongAdder _flushes = new LongAdder();
+	private final LongAdder _flushed = new LongAdder();
+	private final LongAdder _failed = new LongAdder();
+	private final LongAdder _replays = new LongAdder();
+	private final LongAdder _waited = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	//from enqueue to commit
+	private final LatencyHistogram _latency = new LatencyHistogram();
+	private final Thread _flusher;
+	private volatile boolean _closed = false;
+
+	/**
+	 * Starts the flusher thread.
+	 *
+	 * @param esql the handler the batches are written through
+	 */
+	public WriteBehindQueue(MechanicShop esql) {
+		this._esql = esql;
+		this._flusher = new Thread(this::flushLoop, "write-behind");
+		this._flusher.setDaemon(true);
+		this._flusher.start();
+	}
+
+	/**
+	 * Method to queue a new customer.
+	 *
+	 * @return a future of the customer id, completed once the row is committed
+	 */
+	public CompletableFuture<Integer> addCustomer(String fname, String lname, String phone, String address) {
+		return enqueue(new Write(Kind.CUSTOMER, null, fname, lname, phone, address));
+	}
+
+	/**
+	 * Method to queue a new car.
+	 *
+	 * @return a future completed once the row is committed
+	 */
+	public CompletableFuture<Void> addCar(String vin, String make, String model, int year) {
+		CompletableFuture<Integer> queued = enqueue(new Write(Kind.CAR, null, vin, make, model, year));
+		CompletableFuture<Void> car = queued.thenApply(key -> null);
+		//thenApply does not pass a cancel back to the queued write
+		car.whenComplete((result, error) -> {
+			if (car.isCancelled()) {
+				queued.cancel(false);
+			}
+		});
+		return car;
+	}
+
+	/**
+	 * Method to queue a new service request.
+	 *
+	 * @param rid the request id, or null for the next value of service_request_rid_seq
+	 * @return a future of the rid, completed once the row is committed
+	 */
+	public CompletableFuture<Integer> insertServiceRequest(Integer rid, int customerId, String vin, Timestamp date,
+			int odometer, String complain) {
+		return enqueue(new Write(Kind.SERVICE_REQUEST, rid, customerId, vin, date, odometer, complain));
+	}
+
+	private CompletableFuture<Integer> enqueue(Write write) {
+		if (this._closed) {
+			write.future.completeExceptionally(new IllegalStateException("write-behind queue is closed"));
+			return write.future;
+		}
+		if (!this._room.tryAcquire()) {
+			//backpressure: the caller waits for the flusher to catch up
+			this._waited.increment();
+			boolean admitted = false;
+			try {
+				admitted = this._room.tryAcquire(OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (!admitted) {
+				this._rejected.increment();
+				write.future.completeExceptionally(new RejectedExecutionException(
+						"write-behind queue stayed full for " + OFFER_TIMEOUT_MILLIS + " ms"));
+				return write.future;
+			}
+		}
+		this._queue.offer(write);
+		if (this._closed && !this._flusher.isAlive()) {
+			//closed while this write was waiting for room; nobody is left to flush it
+			failLeft();
+			return write.future;
+		}
+		int depth = this._depth.incrementAndGet();
+		this._maxDepth.accumulateAndGet(depth, Math::max);
+		//the first write starts the delay, a full batch ends it
+		if (depth == 1 || depth >= BATCH_SIZE) {
+			LockSupport.unpark(this._flusher);
+		}
+		return write.future;
+	}
+
+	private void flushLoop() {
+		long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+		while (true) {
+			Write oldest = this._queue.peek();
+			if (oldest == null) {
+				if (this._closed) {
+					return;
+				}
+				LockSupport.park(this);
+				continue;
+			}
+			long wait = oldest.enqueued + maxDelayNanos - System.nanoTime();
+			if (wait > 0 && this._depth.get() < BATCH_SIZE && !this._closed) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			List<Write> batch = new ArrayList<>(BATCH_SIZE);
+			int taken = 0;
+			Write write;
+			while (batch.size() < BATCH_SIZE && (write = this._queue.poll()) != null) {
+				taken++;
+				//cancelled while still queued, so it is dropped rather than written
+				if (!write.future.isCancelled()) {
+					batch.add(write);
+				}
+			}
+			this._depth.addAndGet(-taken);
+			try {
+				if (!batch.isEmpty()) {
+					flush(batch);
+				}
+			} catch (RuntimeException e) {
+				fail(batch, e);
+			} finally {
+				this._room.release(taken);
+			}
+		}
+	}
+
+	/*
+	 * Writes a batch in one transaction, or with a savepoint per write when that fails, and completes the futures.
+	 */
+	private void flush(List<Write> batch) {
+		try {
+			for (Write write : batch) {
+				if (write.key == null && write.kind == Kind.CUSTOMER) {
+					write.key = this._customerIds.next(this._esql);
+				} else if (write.key == null && write.kind == Kind.SERVICE_REQUEST) {
+					write.key = this._rids.next(this._esql);
+				}
+			}
+		} catch (SQLException e) {
+			fail(batch, e);
+			return;
+		}
+		try {
+			this._esql.measured("WriteBehindFlush", () -> this._esql.inTransaction(pooled -> {
+				for (Kind kind : Kind.values()) {
+					PreparedStatement stmt = null;
+					for (Write write : batch) {
+						if (write.kind == kind) {
+							if (stmt == null) {
+								stmt = pooled.prepare(kind.sql);
+								this._esql.written(kind.table);
+							}
+							write.bind(stmt);
+							stmt.addBatch();
+						}
+					}
+					if (stmt != null) {
+						stmt.executeBatch();
+					}
+				}
+				return null;
+			}));
+			this._flushes.increment();
+			for (Write write : batch) {
+				succeed(write);
+			}
+		} catch (SQLException e) {
+			replay(batch);
+		}
+	}
+
+	/*
+	 * Writes every row of a failed batch under its own savepoint, so only the rows that fail are lost.
+	 */
+	private void replay(List<Write> batch) {
+		this._replays.increment();
+		List<SQLException> errors = new ArrayList<>(batch.size());
+		try {
+			this._esql.measured("WriteBehindReplay", () -> this._esql.inTransaction(pooled -> {
+				Connection connection = pooled.connection();
+				errors.clear();
+				for (Write write : batch) {
+					this._esql.written(write.kind.table);
+					Savepoint savepoint = connection.setSavepoint();
+					try {
+						PreparedStatement stmt = pooled.prepare(write.kind.sql);
+						write.bind(stmt);
+						stmt.executeUpdate();
+						connection.releaseSavepoint(savepoint);
+						errors.add(null);
+					} catch (SQLException e) {
+						connection.rollback(savepoint);
+						errors.add(e);
+					}
+				}
+				return null;
+			}));
+		} catch (SQLException e) {
+			fail(batch, e);
+			return;
+		}
+		this._flushes.increment();
+		for (int i = 0; i < batch.size(); i++) {
+			if (errors.get(i) == null) {
+				succeed(batch.get(i));
+			} else {
+				fail(List.of(batch.get(i)), errors.get(i));
+			}
+		}
+	}
+
+	private void succeed(Write write) {
+		this._flushed.increment();
+		this._latency.record(System.nanoTime() - write.enqueued);
+		write.future.complete(write.key);
+	}
+
+	private void fail(List<Write> writes, Exception e) {
+		//the batch exception only says "see getNextException"
+		Exception cause = e instanceof BatchUpdateException && ((BatchUpdateException) e).getNextException() != null
+				? ((BatchUpdateException) e).getNextException() : e;
+		for (Write write : writes) {
+			this._failed.increment();
+			write.future.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * @return writes waiting to be flushed
+	 */
+	public int getDepth() {
+		return this._depth.get();
+	}
+
+	public int getMaxDepth() {
+		return this._maxDepth.get();
+	}
+
+	public int getCapacity() {
+		return CAPACITY;
+	}
+
+	/**
+	 * @return transactions committed by the flusher
+	 */
+	public long getFlushes() {
+		return this._flushes.sum();
+	}
+
+	/**
+	 * @return writes committed
+	 */
+	public long getFlushedCount() {
+		return this._flushed.sum();
+	}
+
+	public long getFailedCount() {
+		return this._failed.sum();
+	}
+
+	/**
+	 * @return batches written again one savepoint per write
+	 */
+	public long getReplays() {
+		return this._replays.sum();
+	}
+
+	/**
+	 * @return callers that had to wait for room
+	 */
+	public long getWaitedCount() {
+		return this._waited.sum();
+	}
+
+	public long getRejectedCount() {
+		return this._rejected.sum();
+	}
+
+	public double getMeanBatchSize() {
+		long flushes = getFlushes();
+		return flushes == 0 ? 0 : (double) getFlushedCount() / flushes;
+	}
+
+	/**
+	 * @return latency from enqueue to commit of the committed writes
+	 */
+	public LatencyHistogram getLatency() {
+		return this._latency;
+	}
+
+	/**
+	 * Method to stop taking writes and wait until the queued ones are
+	 * flushed.
+	 */
+	@Override
+	public void close() {
+		this._closed = true;
+		LockSupport.unpark(this._flusher);
+		try {
+			this._flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		//writes that slipped in while the flusher was stopping
+		failLeft();
+	}
+
+	private void failLeft() {
+		List<Write> left = new ArrayList<>();
+		Write write;
+		while ((write = this._queue.poll()) != null) {
+			left.add(write);
+		}
+		fail(left, new IllegalStateException("write-behind queue is closed"));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("WriteBehindQueue[depth=%d/%d, maxDepth=%d, flushes=%d, flushed=%d, failed=%d, replays=%d, "
+				+ "meanBatch=%.1f, waited=%d, rejected=%d, p99=%.3f ms]", getDepth(), CAPACITY, getMaxDepth(), getFlushes(),
+				getFlushedCount(), getFailedCount(), getReplays(), getMeanBatchSize(), getWaitedCount(), getRejectedCount(),
+				this._latency.getValueAtPercentile(99) / 1e6);
+	}
+}
@@ -3,10 +3,13 @@ echo "creating db named ... "$USER"_DB"
 createdb -h localhost -p $PGPORT $USER"_DB"
 pg_ctl status
 
-echo "Copying csv files ... "
-sleep 1
-cp ../data/*.csv /tmp/$USER/myDB/data/.
-
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
+
+echo "Loading csv files ... "
+java -cp "../java/lib/*:../java/bin" CsvLoader $USER"_DB" $PGPORT $USER ../data || exit 1
+
+echo "Migrating schema ... "
+# no superuser needed; without CREATE on the database pg_trgm is skipped and name lookup matches prefixes only
+java -cp "../java/lib/*:../java/bin" SchemaMigrator $USER"_DB" $PGPORT $USER ../sql/migrations || exit 1
@@ -4,6 +4,10 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+-- objects added by the migrations; Schema_Version goes too so SchemaMigrator applies them all again
+DROP TABLE IF EXISTS Customer_Bill_Total CASCADE;--OK
+DROP FUNCTION IF EXISTS maintain_customer_bill_total() CASCADE;--OK
+DROP TABLE IF EXISTS Schema_Version;--OK
 
 GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA public TO postgres;
 
@@ -11,6 +15,10 @@ GRANT ALL PRIVILEGES ON ALL TABLES IN SCHEMA public TO postgres;
 -- inserting
 CREATE SEQUENCE customer_id_seq AS integer START 500;
 CREATE SEQUENCE mechanic_id_seq AS integer START 250;
+-- keys of the request and ownership tables; CsvLoader moves them past the loaded keys
+CREATE SEQUENCE service_request_rid_seq AS integer;
+CREATE SEQUENCE closed_request_wid_seq AS integer;
+CREATE SEQUENCE owns_ownership_id_seq AS integer;
 
 
 -------------
@@ -65,17 +73,18 @@ CREATE TABLE Car
 ---------------
 CREATE TABLE Owns
 (
-	ownership_id INTEGER NOT NULL,
+	ownership_id INTEGER NOT NULL DEFAULT nextval('owns_ownership_id_seq'),
 	customer_id INTEGER NOT NULL,
 	car_vin VARCHAR(16) NOT NULL,
 	PRIMARY KEY (ownership_id),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
+ALTER SEQUENCE owns_ownership_id_seq OWNED BY Owns.ownership_id;
 
 CREATE TABLE Service_Request
 (
-	rid INTEGER NOT NULL,
+	rid INTEGER NOT NULL DEFAULT nextval('service_request_rid_seq'),
 	customer_id INTEGER NOT NULL,
 	car_vin VARCHAR(16) NOT NULL,
 	date TIMESTAMP NOT NULL,
@@ -85,11 +94,11 @@ CREATE TABLE Service_Request
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
+ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
 
 CREATE TABLE Closed_Request
 (
---     wid integer NOT NULL DEFAULT nextval('closed_request_seq'),
-	wid INTEGER NOT NULL,
+	wid INTEGER NOT NULL DEFAULT nextval('closed_request_wid_seq'),
 	rid INTEGER NOT NULL,
 	mid INTEGER NOT NULL,
 	date TIMESTAMP NOT NULL,
@@ -99,67 +108,19 @@ CREATE TABLE Closed_Request
 	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
 );
--- ALTER SEQUENCE closed_request_seq OWNED BY Closed_Request.wid;
+ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+
+-------------
+---INDEXES---
+-------------
+-- lets ListKCarsWithTheMostServices count services per car from the index instead of sorting the whole table
+CREATE INDEX service_request_car_vin_idx ON Service_Request (car_vin);
 
 
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
 
-COPY Customer (
-	id,
-	fname,
-	lname,
-	phone,
-	address
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\customer.csv'
-WITH DELIMITER ',';
-
-COPY Mechanic (
-	id,
-	fname,
-	lname,
-	experience
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\mechanic.csv'
-WITH DELIMITER ',';
-
-COPY Car (
-	vin,
-	make,
-	model,
-	year
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\car.csv'
-WITH DELIMITER ',';
-
-COPY Owns (
-	ownership_id,
-	customer_id,
-	car_vin
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\owns.csv'
-WITH DELIMITER ',';
-
-COPY Service_Request (
-	rid,
-	customer_id,
-	car_vin,
-	date,
-	odometer,
-	complain
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\service_request.csv'
-WITH DELIMITER ',';
-
-COPY Closed_Request (
-	wid,
-	rid,
-	mid,
-	date,
-	comment,
-	bill
-)
-FROM 'C:\Users\Emily Mai\Documents\CS166\Project\Phase_3\code\data\closed_request.csv'
-WITH DELIMITER ',';
+-- The CSV files in code/data are loaded from the client by CsvLoader, which streams each file through
+-- COPY ... FROM STDIN in foreign key order. No server-side file access is needed:
+--   java -cp "java/lib/*:java/bin" CsvLoader <dbname> <port> <user> data
@@ -0,0 +1,21 @@
+-- Indexes for the report queries in MechanicShop. Partial indexes match the constant predicates of the reports
+-- (bill < 100, year < 1995, odometer < 50000); INCLUDE columns (PostgreSQL 11+) let them run as index-only scans.
+
+-- ListCustomersWithBillLessThan100: SELECT date, comment, bill ... WHERE bill < 100
+CREATE INDEX IF NOT EXISTS closed_request_bill_lt_100_idx ON Closed_Request (bill) INCLUDE (date, comment) WHERE bill < 100;
+
+-- ListCustomersWithMoreThan20Cars: GROUP BY customer_id HAVING COUNT(car_vin) > 20, then join back to Customer
+CREATE INDEX IF NOT EXISTS owns_customer_id_idx ON Owns (customer_id, car_vin);
+CREATE INDEX IF NOT EXISTS owns_car_vin_idx ON Owns (car_vin);
+
+-- ListCarsBefore1995With50000Milles: Car.year < 1995 joined to Service_Request.odometer < 50000
+CREATE INDEX IF NOT EXISTS car_year_lt_1995_idx ON Car (vin) INCLUDE (make, model, year) WHERE year < 1995;
+CREATE INDEX IF NOT EXISTS service_request_odometer_lt_50000_idx ON Service_Request (car_vin) WHERE odometer < 50000;
+
+-- ListKCarsWithTheMostServices: per-VIN counts (already in create.sql for new databases)
+CREATE INDEX IF NOT EXISTS service_request_car_vin_idx ON Service_Request (car_vin);
+
+-- foreign key lookups used by the joins and by the Customer_Bill_Total trigger
+CREATE INDEX IF NOT EXISTS service_request_customer_id_idx ON Service_Request (customer_id);
+CREATE INDEX IF NOT EXISTS closed_request_rid_idx ON Closed_Request (rid);
+CREATE INDEX IF NOT EXISTS closed_request_mid_idx ON Closed_Request (mid);
@@ -0,0 +1,11 @@
+-- CHAR(n) pads every value to its full width (256 bytes for each address). VARCHAR keeps the same length limits
+-- without the padding; the cast from CHAR drops the trailing blanks.
+ALTER TABLE Customer
+	ALTER COLUMN fname TYPE VARCHAR(32),
+	ALTER COLUMN lname TYPE VARCHAR(32),
+	ALTER COLUMN phone TYPE VARCHAR(13),
+	ALTER COLUMN address TYPE VARCHAR(256);
+
+ALTER TABLE Mechanic
+	ALTER COLUMN fname TYPE VARCHAR(32),
+	ALTER COLUMN lname TYPE VARCHAR(32);
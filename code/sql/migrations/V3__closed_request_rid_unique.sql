@@ -0,0 +1,4 @@
+-- A service request can be closed once. The unique index enforces it under concurrent clerks and is the arbiter
+-- for ON CONFLICT in the single-statement close; it replaces the plain lookup index from V1.
+DROP INDEX IF EXISTS closed_request_rid_idx;
+CREATE UNIQUE INDEX IF NOT EXISTS closed_request_rid_key ON Closed_Request (rid);
@@ -0,0 +1,21 @@
+-- Keys of Service_Request, Closed_Request and Owns come from sequences, like Customer and Mechanic already do, so
+-- concurrent clerks no longer pick rid/wid by hand and collide on the primary key. Each sequence starts after the
+-- largest key already loaded. The bulk paths reserve blocks of keys with nextval over generate_series (IdAllocator).
+CREATE SEQUENCE IF NOT EXISTS service_request_rid_seq AS integer;
+SELECT setval('service_request_rid_seq', COALESCE((SELECT max(rid) FROM Service_Request), 0) + 1, false);
+ALTER TABLE Service_Request ALTER COLUMN rid SET DEFAULT nextval('service_request_rid_seq');
+ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+
+CREATE SEQUENCE IF NOT EXISTS closed_request_wid_seq AS integer;
+SELECT setval('closed_request_wid_seq', COALESCE((SELECT max(wid) FROM Closed_Request), 0) + 1, false);
+ALTER TABLE Closed_Request ALTER COLUMN wid SET DEFAULT nextval('closed_request_wid_seq');
+ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+
+CREATE SEQUENCE IF NOT EXISTS owns_ownership_id_seq AS integer;
+SELECT setval('owns_ownership_id_seq', COALESCE((SELECT max(ownership_id) FROM Owns), 0) + 1, false);
+ALTER TABLE Owns ALTER COLUMN ownership_id SET DEFAULT nextval('owns_ownership_id_seq');
+ALTER SEQUENCE owns_ownership_id_seq OWNED BY Owns.ownership_id;
+
+-- Customer and Mechanic ids loaded with explicit values by CsvLoader may have passed the START of their sequences
+SELECT setval('customer_id_seq', GREATEST((SELECT max(id) FROM Customer), nextval('customer_id_seq')));
+SELECT setval('mechanic_id_seq', GREATEST((SELECT max(id) FROM Mechanic), nextval('mechanic_id_seq')));
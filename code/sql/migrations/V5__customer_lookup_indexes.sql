@@ -0,0 +1,22 @@
+-- Customer lookup at the service counter (CustomerLookup): last names are matched by prefix on lower(lname), which
+-- text_pattern_ops lets LIKE 'smi%' use as a range scan, and by trigram similarity when no name has the prefix.
+-- pg_trgm needs CREATE on the database (superuser before PG 13); without it the trigram index is skipped and the
+-- lookup matches prefixes only, so a restricted role can still migrate.
+DO $$
+BEGIN
+	CREATE EXTENSION IF NOT EXISTS pg_trgm;
+EXCEPTION WHEN insufficient_privilege OR undefined_file OR feature_not_supported THEN
+	RAISE NOTICE 'pg_trgm is not available (%); customer lookup matches prefixes only', SQLERRM;
+END
+$$;
+CREATE INDEX IF NOT EXISTS customer_lname_prefix_idx ON Customer (lower(lname) text_pattern_ops);
+DO $$
+BEGIN
+	IF EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'pg_trgm') THEN
+		CREATE INDEX IF NOT EXISTS customer_lname_trgm_idx ON Customer USING gin (lname gin_trgm_ops);
+	END IF;
+END
+$$;
+
+-- latest service request of a car, read by the LATERAL subquery of the lookup from the top of the index
+CREATE INDEX IF NOT EXISTS service_request_car_vin_date_idx ON Service_Request (car_vin, date DESC, rid DESC);
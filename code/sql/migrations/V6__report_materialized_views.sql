@@ -0,0 +1,21 @@
+-- Precomputed aggregates for the dashboard reports, refreshed CONCURRENTLY by ViewRefresher in the application
+-- on a timer or after a number of writes; CONCURRENTLY needs a unique index on each view. Reports read a view only
+-- while its last refresh is within the configured staleness bound and fall back to the live tables otherwise.
+-- Per-customer bill totals are not a view: V7 adds Customer_Bill_Total, kept current by a trigger.
+
+-- cars per customer, for ListCustomersWithMoreThan20Cars
+CREATE MATERIALIZED VIEW IF NOT EXISTS mv_customer_car_counts AS
+SELECT customer_id, COUNT(*) AS cars
+FROM Owns
+GROUP BY customer_id;
+CREATE UNIQUE INDEX IF NOT EXISTS mv_customer_car_counts_key ON mv_customer_car_counts (customer_id);
+CREATE INDEX IF NOT EXISTS mv_customer_car_counts_cars_idx ON mv_customer_car_counts (cars);
+
+-- services and the lowest odometer reading per car, for ListKCarsWithTheMostServices and
+-- ListCarsBefore1995With50000Milles (a car qualifies once, whatever the number of low-mileage services)
+CREATE MATERIALIZED VIEW IF NOT EXISTS mv_vin_service_counts AS
+SELECT car_vin, COUNT(*) AS services, MIN(odometer) AS min_odometer
+FROM Service_Request
+GROUP BY car_vin;
+CREATE UNIQUE INDEX IF NOT EXISTS mv_vin_service_counts_key ON mv_vin_service_counts (car_vin);
+CREATE INDEX IF NOT EXISTS mv_vin_service_counts_services_idx ON mv_vin_service_counts (services DESC, car_vin);
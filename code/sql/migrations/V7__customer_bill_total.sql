@@ -0,0 +1,47 @@
+-- Running total of closed bills per customer, kept current by the trigger below in the same transaction as the
+-- Closed_Request change so ListCustomersInDescendingOrderOfTheirTotalBill reads it instead of re-aggregating.
+-- The table is filled from the requests already closed; on a fresh database CsvLoader has run by now, so the
+-- load does not fire the trigger once per row either.
+CREATE TABLE IF NOT EXISTS Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	total BIGINT NOT NULL,
+	closed_count INTEGER NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+CREATE INDEX IF NOT EXISTS customer_bill_total_total_idx ON Customer_Bill_Total (total DESC, customer_id);
+
+CREATE OR REPLACE FUNCTION maintain_customer_bill_total() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE Customer_Bill_Total T
+		SET total = T.total - OLD.bill, closed_count = T.closed_count - 1
+		FROM Service_Request SR
+		WHERE SR.rid = OLD.rid AND T.customer_id = SR.customer_id;
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO Customer_Bill_Total AS T (customer_id, total, closed_count)
+		SELECT SR.customer_id, NEW.bill, 1
+		FROM Service_Request SR
+		WHERE SR.rid = NEW.rid
+		ON CONFLICT (customer_id) DO UPDATE
+		SET total = T.total + EXCLUDED.total, closed_count = T.closed_count + 1;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the backfill and the trigger go in while Closed_Request is locked, so no close falls between the two
+LOCK TABLE Closed_Request IN SHARE ROW EXCLUSIVE MODE;
+
+DROP TRIGGER IF EXISTS closed_request_bill_total ON Closed_Request;
+CREATE TRIGGER closed_request_bill_total
+AFTER INSERT OR UPDATE OF rid, bill OR DELETE ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE maintain_customer_bill_total();
+
+DELETE FROM Customer_Bill_Total;
+INSERT INTO Customer_Bill_Total (customer_id, total, closed_count)
+SELECT SR.customer_id, SUM(CR.bill), COUNT(*)
+FROM Closed_Request CR JOIN Service_Request SR ON SR.rid = CR.rid
+GROUP BY SR.customer_id;